@@ -0,0 +1,79 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy which decides how long to wait before retrying a failed request.
+ *
+ * <p>If the server answered with a {@code Retry-After} header, the {@link RetryHandler} waits at least the time
+ * it asked for, whatever the policy.
+ */
+@FunctionalInterface
+public interface BackoffPolicy {
+
+    /**
+     * @param attempt the number of the retry which is about to be made, starting at 1
+     * @param previousDelay the delay before the previous retry, {@link Duration#ZERO} before the first one
+     * @return how long to wait before the retry, must not be negative
+     */
+    Duration getDelay(int attempt, Duration previousDelay);
+
+    /**
+     * Randomization of the delays, so clients which failed at the same time don't retry at the same time
+     */
+    enum Jitter {
+        /** no randomization, {@code min(cap, base * 2^attempt)} */
+        NONE,
+        /** uniformly distributed between 0 and {@code min(cap, base * 2^attempt)} */
+        FULL,
+        /** uniformly distributed between {@code base} and 3 times the previous delay, up to {@code cap} */
+        DECORRELATED
+    }
+
+    /**
+     * Exponential backoff, with the given randomization.
+     *
+     * @param base the delay before the first retry without jitter, must be positive
+     * @param cap the maximum delay, must not be less than {@code base}
+     * @param jitter how the delays are randomized
+     */
+    record Exponential(Duration base, Duration cap, Jitter jitter) implements BackoffPolicy {
+
+        /**
+         * Settings to control exponential backoff
+         * @param base the delay before the first retry without jitter, must be positive
+         * @param cap the maximum delay, must not be less than {@code base}
+         * @param jitter how the delays are randomized
+         */
+        public Exponential {
+            Utils.nonNull(base, () -> "base");
+            Utils.nonNull(cap, () -> "cap");
+            Utils.nonNull(jitter, () -> "jitter");
+            Utils.validateArg(!base.isNegative() && !base.isZero(), "base must be positive");
+            Utils.validateArg(cap.compareTo(base) >= 0, "cap must be >= base");
+        }
+
+        @Override
+        public Duration getDelay(final int attempt, final Duration previousDelay) {
+            final long baseNanos = base.toNanos();
+            final long capNanos = cap.toNanos();
+            // base * 2^attempt without overflowing
+            final long exponential = attempt >= Long.numberOfLeadingZeros(baseNanos) - 1
+                    ? capNanos
+                    : Math.min(capNanos, baseNanos << attempt);
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            return Duration.ofNanos(switch (jitter) {
+                case NONE -> exponential;
+                case FULL -> random.nextLong(exponential + 1);
+                case DECORRELATED -> {
+                    final long previous = previousDelay.toNanos();
+                    final long upper = Math.max(baseNanos, previous > capNanos / 3 ? capNanos : previous * 3);
+                    yield upper == baseNanos ? baseNanos : random.nextLong(baseNanos, upper + 1);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * In-memory cache of fixed-size blocks of remote files, keyed by URI and block index.
+ *
+ * <p>The cache is bounded by the total number of bytes it holds and evicts the least recently
+ * used blocks first. Concurrent requests for the same missing block are collapsed into a single
+ * load, so it can be shared safely between all the channels of a {@link HttpFileSystem}.
+ */
+final class BlockCache {
+
+    private final HttpFileSystemProviderSettings.CacheSettings settings;
+
+    // blocks in access order, guarded by this
+    private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    // blocks which are being loaded right now
+    private final Map<BlockKey, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param settings the settings for this cache, must be enabled
+     */
+    BlockCache(final HttpFileSystemProviderSettings.CacheSettings settings) {
+        this.settings = Utils.nonNull(settings, () -> "settings");
+        Utils.validateArg(settings.isEnabled(), "cannot create a disabled block cache");
+    }
+
+    /**
+     * @return the settings used to create this cache
+     */
+    HttpFileSystemProviderSettings.CacheSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return the size in bytes of each block
+     */
+    int getBlockSize() {
+        return settings.blockSize();
+    }
+
+    /**
+     * @return the number of bytes currently held by the cache
+     */
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * @param uri the file the block belongs to
+     * @param blockIndex the index of the block in the file
+     * @return the cached block, or {@code null} if it is not present
+     */
+    synchronized byte[] get(final URI uri, final long blockIndex) {
+        return blocks.get(new BlockKey(uri, blockIndex));
+    }
+
+    /**
+     * Add a block to the cache, evicting the least recently used blocks if necessary.
+     * Blocks larger than the cache itself are not stored.
+     *
+     * @param uri the file the block belongs to
+     * @param blockIndex the index of the block in the file
+     * @param block the content of the block, must not be modified afterwards
+     */
+    synchronized void put(final URI uri, final long blockIndex, final byte[] block) {
+        Utils.nonNull(block, () -> "null block");
+        if (block.length > settings.maxCacheBytes()) {
+            return;
+        }
+        final byte[] previous = blocks.put(new BlockKey(uri, blockIndex), block);
+        if (previous != null) {
+            cachedBytes -= previous.length;
+        }
+        cachedBytes += block.length;
+        final Iterator<byte[]> eldest = blocks.values().iterator();
+        while (cachedBytes > settings.maxCacheBytes()) {
+            cachedBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Get a block from the cache, loading it if it is not present.
+     *
+     * <p>If another thread is already loading the same block this waits for it instead of
+     * loading it a second time.
+     *
+     * @param uri the file the block belongs to
+     * @param blockIndex the index of the block in the file
+     * @param loader function which loads the block from the source
+     * @return the content of the block
+     * @throws IOException if the block could not be loaded
+     */
+    byte[] getOrLoad(final URI uri, final long blockIndex, final RetryHandler.IOSupplier<byte[]> loader) throws IOException {
+        final byte[] cached = get(uri, blockIndex);
+        if (cached != null) {
+            return cached;
+        }
+        final BlockKey key = new BlockKey(uri, blockIndex);
+        final CompletableFuture<byte[]> loading = new CompletableFuture<>();
+        final CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, loading);
+        if (existing != null) {
+            return await(existing, key);
+        }
+        try {
+            // it may have been loaded between the first lookup and registering this load
+            byte[] block = get(uri, blockIndex);
+            if (block == null) {
+                block = loader.get();
+                put(uri, blockIndex, block);
+            }
+            loading.complete(block);
+            return block;
+        } catch (final IOException | RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, loading);
+        }
+    }
+
+    private static byte[] await(final CompletableFuture<byte[]> loading, final BlockKey key) throws IOException {
+        try {
+            return loading.get();
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for block " + key.blockIndex() + " of " + key.uri());
+        } catch (final ExecutionException e) {
+            // the waiters see the same failure as the loader, e.g. FileNotFoundException
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Failed to load block " + key.blockIndex() + " of " + key.uri(), e.getCause());
+        }
+    }
+
+    private record BlockKey(URI uri, long blockIndex) {}
+}
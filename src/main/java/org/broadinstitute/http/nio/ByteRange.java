@@ -0,0 +1,28 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+
+/**
+ * A range of bytes of a file.
+ *
+ * @param offset position of the first byte of the range, must be >= 0
+ * @param length number of bytes in the range, must be >= 0
+ */
+public record ByteRange(long offset, int length) {
+
+    /**
+     * @param offset position of the first byte of the range, must be >= 0
+     * @param length number of bytes in the range, must be >= 0
+     */
+    public ByteRange {
+        Utils.validateArg(offset >= 0, "offset must be >= 0");
+        Utils.validateArg(length >= 0, "length must be >= 0");
+    }
+
+    /**
+     * @return the position after the last byte of the range
+     */
+    public long end() {
+        return offset + length;
+    }
+}
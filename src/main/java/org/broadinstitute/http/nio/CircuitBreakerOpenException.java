@@ -0,0 +1,33 @@
+package org.broadinstitute.http.nio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Indicates a request which was not sent because the server of its file system kept failing recently, see
+ * {@link HttpFileSystemProviderSettings.CircuitBreakerSettings}. It is never retried.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    /** time until requests are sent to the server again */
+    private final Duration remainingCooldown;
+
+    /**
+     * @param uri the URI which was not requested
+     * @param remainingCooldown time until requests are sent to the server again
+     * @param mostRecentFailureReason the most recent failure of the request, may be null
+     */
+    public CircuitBreakerOpenException(URI uri, Duration remainingCooldown, Throwable mostRecentFailureReason) {
+        super("Not requesting %s because its server keeps failing, requests are sent again in %d ms."
+                .formatted(uri, remainingCooldown.toMillis()), mostRecentFailureReason);
+        this.remainingCooldown = remainingCooldown;
+    }
+
+    /**
+     * @return the time until requests are sent to the server again
+     */
+    public Duration getRemainingCooldown() {
+        return remainingCooldown;
+    }
+}
@@ -0,0 +1,596 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persistent cache of fixed-size blocks of remote files, stored in a local directory so it survives
+ * restarts of the JVM.
+ *
+ * <p>Each file has an entry made of a sparse data file, where blocks are written at their offset, and
+ * a small properties file with the URI, the ETag and block size the blocks belong to, a bitmap of the
+ * blocks which are present and the last time the entry was validated against the server. Entries are
+ * only used for the ETag they were written with; files without an ETag are not cached.
+ *
+ * <p>The cache is bounded by the number of bytes of its blocks and evicts whole entries, least recently
+ * used first. There is a single instance per directory in the JVM (see {@link #forSettings}), which holds a
+ * lock on the directory so that another JVM never evicts blocks this one still considers present. A JVM which
+ * finds the directory locked uses the first unlocked {@code instance-N} subdirectory instead, so concurrent
+ * processes each have a cache of their own, and a process started later reuses the cache of a previous one.
+ *
+ * <p>Blocks are read and written without holding the lock of the cache, which only guards the entries in memory.
+ * The files of an entry have a name of their own, so a late write to an entry which was evicted meanwhile never
+ * touches the files of another one. The index of an entry is written after its first block, and then once
+ * {@value #INDEX_BATCH_BLOCKS} more blocks were added or a second passed; {@link #flush()} writes the rest.
+ * Blocks which are not in the index yet are simply missing after a restart.
+ */
+final class DiskBlockCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskBlockCache.class);
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String INDEX_SUFFIX = ".index";
+
+    // number of new blocks, and time, after which the index of an entry is written again
+    static final int INDEX_BATCH_BLOCKS = 64;
+    private static final long INDEX_BATCH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final String LOCK_FILE = ".lock";
+    private static final String INSTANCE_PREFIX = "instance-";
+    // number of subdirectories tried when the directory is locked by other processes
+    private static final int MAX_INSTANCES = 64;
+
+    // instances by configured directory, only created with the class lock held
+    private static final Map<Path, DiskBlockCache> CACHES = new ConcurrentHashMap<>();
+
+    // the maximum size and the validation TTL follow the latest settings for the directory
+    private volatile HttpFileSystemProviderSettings.DiskCacheSettings settings;
+    private final Path configuredDirectory;
+    // the directory holding the files, which is a subdirectory if the configured one is used by another process
+    private final Path directory;
+    private final FileChannel lockChannel;
+
+    // entries by key in access order, guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    /**
+     * Get the cache for the directory of the settings, creating it if it does not exist yet. If the cache exists
+     * with other settings, its maximum size and validation TTL are updated.
+     *
+     * @param settings the disk cache settings, must be enabled
+     * @return the cache for the directory
+     * @throws IOException if the directory cannot be created, read or locked
+     */
+    static DiskBlockCache forSettings(final HttpFileSystemProviderSettings.DiskCacheSettings settings)
+            throws IOException {
+        Utils.nonNull(settings, () -> "settings");
+        Utils.validateArg(settings.isEnabled(), "cannot create a disabled disk cache");
+        final Path directory = settings.directory().toAbsolutePath().normalize();
+        DiskBlockCache cache = CACHES.get(directory);
+        if (cache == null) {
+            synchronized (DiskBlockCache.class) {
+                cache = CACHES.get(directory);
+                if (cache == null) {
+                    cache = open(settings, directory);
+                    CACHES.put(directory, cache);
+                }
+            }
+        }
+        if (!cache.settings.equals(settings)) {
+            cache.settings = settings;
+        }
+        return cache;
+    }
+
+    // open the cache in the directory, or in the first subdirectory which is not locked by another process
+    private static DiskBlockCache open(final HttpFileSystemProviderSettings.DiskCacheSettings settings,
+                                       final Path configuredDirectory) throws IOException {
+        for (int instance = 0; instance <= MAX_INSTANCES; instance++) {
+            final Path directory = instance == 0
+                    ? configuredDirectory
+                    : configuredDirectory.resolve(INSTANCE_PREFIX + instance);
+            Files.createDirectories(directory);
+            final FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            boolean locked = false;
+            try {
+                locked = lockChannel.tryLock() != null;
+            } catch (final OverlappingFileLockException e) {
+                // locked by this JVM, e.g. a subdirectory configured as a cache of its own
+            } finally {
+                if (!locked) {
+                    lockChannel.close();
+                }
+            }
+            if (locked) {
+                if (instance != 0) {
+                    LOGGER.info("Disk cache {} is used by another process, using {}", configuredDirectory, directory);
+                }
+                try {
+                    return new DiskBlockCache(settings, configuredDirectory, directory, lockChannel);
+                } catch (final IOException | RuntimeException e) {
+                    lockChannel.close();
+                    throw e;
+                }
+            }
+        }
+        throw new IOException("Disk cache " + configuredDirectory + " and its " + MAX_INSTANCES
+                + " instance subdirectories are all used by other processes");
+    }
+
+    private DiskBlockCache(final HttpFileSystemProviderSettings.DiskCacheSettings settings,
+                           final Path configuredDirectory, final Path directory, final FileChannel lockChannel)
+            throws IOException {
+        this.settings = settings;
+        this.configuredDirectory = configuredDirectory;
+        this.directory = directory;
+        this.lockChannel = lockChannel;
+        loadEntries();
+    }
+
+    /**
+     * Write the pending indexes, release the lock on the directory and forget this cache, so the next call to
+     * {@link #forSettings} for its directory loads it again.
+     *
+     * @throws IOException if the lock cannot be released
+     */
+    void close() throws IOException {
+        synchronized (DiskBlockCache.class) {
+            CACHES.remove(configuredDirectory, this);
+        }
+        flush();
+        lockChannel.close();
+    }
+
+    /**
+     * @return the latest settings for the directory of this cache
+     */
+    HttpFileSystemProviderSettings.DiskCacheSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return the directory holding the files of this cache
+     */
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of bytes of the blocks held by the cache
+     */
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * @param uri the file to look up
+     * @return the ETag of the cached blocks of the file, or {@code null} if there are none
+     */
+    synchronized String getETag(final URI uri) {
+        final Entry entry = entries.get(key(uri));
+        return entry == null ? null : entry.eTag;
+    }
+
+    /**
+     * @param uri the file to look up
+     * @return true if the entry of the file was validated against the server less than
+     * {@link HttpFileSystemProviderSettings.DiskCacheSettings#validationTtl()} ago
+     */
+    synchronized boolean isFresh(final URI uri) {
+        final Entry entry = entries.get(key(uri));
+        return entry != null
+                && System.currentTimeMillis() - entry.validatedMillis < settings.validationTtl().toMillis();
+    }
+
+    /**
+     * Record that the server confirmed the cached blocks of a file are still current.
+     *
+     * @param uri the file which was validated
+     */
+    void markValidated(final URI uri) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(uri));
+            if (entry == null) {
+                return;
+            }
+            entry.validatedMillis = System.currentTimeMillis();
+            entry.dirty = true;
+        }
+        writeIndex(entry);
+    }
+
+    /**
+     * Remove the cached blocks of a file.
+     *
+     * @param uri the file to remove
+     */
+    void invalidate(final URI uri) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(uri));
+            if (entry == null) {
+                return;
+            }
+            remove(entry);
+        }
+        deleteFiles(entry);
+    }
+
+    /**
+     * Write the indexes of the entries which have blocks that are not in their index yet.
+     */
+    void flush() {
+        final List<Entry> dirty;
+        synchronized (this) {
+            dirty = entries.values().stream().filter(entry -> entry.dirty).toList();
+        }
+        dirty.forEach(this::writeIndex);
+    }
+
+    /**
+     * Read a block.
+     *
+     * @param uri the file the block belongs to
+     * @param eTag the current ETag of the file
+     * @param blockSize the size of the blocks
+     * @param blockIndex the index of the block in the file
+     * @return the block, or {@code null} if it is not cached for this ETag and block size
+     */
+    byte[] get(final URI uri, final String eTag, final int blockSize, final long blockIndex) {
+        final Entry entry;
+        final int length;
+        synchronized (this) {
+            entry = entries.get(key(uri));
+            if (entry == null || !entry.matches(eTag, blockSize) || blockIndex > Integer.MAX_VALUE
+                    || !entry.blocks.get((int) blockIndex)) {
+                return null;
+            }
+            length = entry.blockLength(blockIndex);
+        }
+        // the block is read without holding the lock
+        final ByteBuffer block = ByteBuffer.allocate(length);
+        try (final FileChannel channel = FileChannel.open(dataFile(entry.name), StandardOpenOption.READ)) {
+            final long position = blockIndex * blockSize;
+            while (block.hasRemaining()) {
+                if (channel.read(block, position + block.position()) == -1) {
+                    return null;
+                }
+            }
+        } catch (final IOException e) {
+            LOGGER.debug("Failed to read block {} of {} from the disk cache: {}", blockIndex, uri, e.getMessage());
+            return null;
+        }
+        // the files of an entry are deleted after it is removed, so the block was read before they were
+        return entry.removed ? null : block.array();
+    }
+
+    /**
+     * Write a block, evicting the least recently used entries if the cache would go over its quota.
+     * If the file was cached with another ETag or block size, its previous blocks are discarded.
+     *
+     * @param uri the file the block belongs to
+     * @param eTag the current ETag of the file, the block is not cached if it is {@code null}
+     * @param blockSize the size of the blocks
+     * @param blockIndex the index of the block in the file
+     * @param block the content of the block, shorter than the block size only for the last block of the file
+     */
+    void put(final URI uri, final String eTag, final int blockSize, final long blockIndex, final byte[] block) {
+        if (eTag == null || block.length == 0 || blockIndex > Integer.MAX_VALUE) {
+            return;
+        }
+        final String key = key(uri);
+        final int index = (int) blockIndex;
+        final List<Entry> removed = new ArrayList<>();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && !entry.matches(eTag, blockSize)) {
+                remove(entry);
+                removed.add(entry);
+                entry = null;
+            }
+            if (entry != null && (entry.blocks.get(index) || entry.writing.get(index))) {
+                entry = null;
+            } else if (!makeRoom(block.length, key, removed)) {
+                entry = null;
+            } else {
+                if (entry == null) {
+                    entry = new Entry(key, key + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong()),
+                            uri.toString(), eTag, blockSize);
+                    entry.validatedMillis = System.currentTimeMillis();
+                    entries.put(key, entry);
+                }
+                // the bytes of the block are reserved while it is written
+                entry.writing.set(index);
+                entry.bytes += block.length;
+                cachedBytes += block.length;
+            }
+        }
+        removed.forEach(this::deleteFiles);
+        if (entry == null) {
+            return;
+        }
+
+        final boolean written = writeBlock(entry, blockIndex, block);
+        final boolean writeIndex;
+        synchronized (this) {
+            entry.writing.clear(index);
+            if (entry.removed) {
+                writeIndex = false;
+            } else if (!written) {
+                entry.bytes -= block.length;
+                cachedBytes -= block.length;
+                writeIndex = false;
+            } else {
+                entry.blocks.set(index);
+                entry.storedBytes += block.length;
+                if (block.length < blockSize) {
+                    entry.lastBlockLength = block.length;
+                    entry.lastBlockIndex = blockIndex;
+                }
+                entry.dirty = true;
+                entry.unsavedBlocks++;
+                writeIndex = entry.indexNanos == -1 || entry.unsavedBlocks >= INDEX_BATCH_BLOCKS
+                        || System.nanoTime() - entry.indexNanos >= INDEX_BATCH_NANOS;
+            }
+        }
+        if (entry.removed) {
+            // the write may have created the data file again after it was deleted
+            deleteFiles(entry);
+        } else if (writeIndex) {
+            writeIndex(entry);
+        }
+    }
+
+    private boolean writeBlock(final Entry entry, final long blockIndex, final byte[] block) {
+        try (final FileChannel channel = FileChannel.open(dataFile(entry.name), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(block);
+            final long position = blockIndex * entry.blockSize;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            return true;
+        } catch (final IOException e) {
+            LOGGER.warn("Failed to write block {} of {} to the disk cache: {}", blockIndex, entry.uri,
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    // evict entries other than the given one until the bytes fit, returns false if they can't, must be called with
+    // the lock held; the files of the evicted entries must be deleted afterwards
+    private boolean makeRoom(final long bytes, final String keep, final List<Entry> evicted) {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (cachedBytes + bytes > settings.maxBytes() && it.hasNext()) {
+            final Entry eldest = it.next();
+            if (!eldest.key.equals(keep)) {
+                it.remove();
+                eldest.removed = true;
+                cachedBytes -= eldest.bytes;
+                evicted.add(eldest);
+            }
+        }
+        return cachedBytes + bytes <= settings.maxBytes();
+    }
+
+    // must be called with the lock held; the files of the entry must be deleted afterwards
+    private void remove(final Entry entry) {
+        entries.remove(entry.key, entry);
+        entry.removed = true;
+        cachedBytes -= entry.bytes;
+    }
+
+    private void deleteFiles(final Entry entry) {
+        entry.files.lock();
+        try {
+            Files.deleteIfExists(indexFile(entry.name));
+            Files.deleteIfExists(dataFile(entry.name));
+        } catch (final IOException e) {
+            LOGGER.warn("Failed to delete the disk cache entry for {}: {}", entry.uri, e.getMessage());
+        } finally {
+            entry.files.unlock();
+        }
+    }
+
+    // read the index of the existing entries, least recently modified first
+    private void loadEntries() throws IOException {
+        final List<Path> indexes = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + INDEX_SUFFIX)) {
+            stream.forEach(indexes::add);
+        }
+        final Map<Path, Long> modified = new HashMap<>();
+        for (final Path index : indexes) {
+            modified.put(index, Files.getLastModifiedTime(index).toMillis());
+        }
+        indexes.sort(Comparator.comparing(modified::get));
+        final List<Entry> stale = new ArrayList<>();
+        for (final Path index : indexes) {
+            final String fileName = index.getFileName().toString();
+            final String name = fileName.substring(0, fileName.length() - INDEX_SUFFIX.length());
+            try (final InputStream in = Files.newInputStream(index)) {
+                final Properties properties = new Properties();
+                properties.load(in);
+                final Entry entry = Entry.fromProperties(name, properties);
+                // an older entry of the same file, left by an interrupted replacement
+                final Entry previous = entries.put(entry.key, entry);
+                if (previous != null) {
+                    cachedBytes -= previous.bytes;
+                    stale.add(previous);
+                }
+                entry.indexNanos = System.nanoTime();
+                cachedBytes += entry.bytes;
+            } catch (final IOException | RuntimeException e) {
+                LOGGER.warn("Ignoring corrupted disk cache index {}: {}", index, e.getMessage());
+                Files.deleteIfExists(index);
+                Files.deleteIfExists(dataFile(name));
+            }
+        }
+        makeRoom(0, null, stale);
+        stale.forEach(this::deleteFiles);
+    }
+
+    // write the index of an entry, unless it was removed
+    private void writeIndex(final Entry entry) {
+        entry.files.lock();
+        try {
+            final Properties properties;
+            synchronized (this) {
+                if (entry.removed || !entry.dirty) {
+                    return;
+                }
+                properties = entry.toProperties();
+                entry.dirty = false;
+                entry.unsavedBlocks = 0;
+                entry.indexNanos = System.nanoTime();
+            }
+            final Path index = indexFile(entry.name);
+            final Path tmp = index.resolveSibling(index.getFileName() + ".tmp");
+            try {
+                try (final OutputStream out = Files.newOutputStream(tmp)) {
+                    properties.store(out, null);
+                }
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final IOException e) {
+                LOGGER.warn("Failed to write the disk cache index for {}: {}", entry.uri, e.getMessage());
+                synchronized (this) {
+                    entry.dirty = true;
+                }
+            }
+        } finally {
+            entry.files.unlock();
+        }
+    }
+
+    private Path dataFile(final String name) {
+        return directory.resolve(name + DATA_SUFFIX);
+    }
+
+    private Path indexFile(final String name) {
+        return directory.resolve(name + INDEX_SUFFIX);
+    }
+
+    // file names are derived from a digest of the URI
+    private static String key(final URI uri) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(uri.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // the cached blocks of a file, guarded by the cache unless noted otherwise
+    private static final class Entry {
+        private final String key;
+        // base name of the files of the entry, unique to it
+        private final String name;
+        private final String uri;
+        private final String eTag;
+        private final int blockSize;
+        private final BitSet blocks;
+        // blocks which are being written
+        private final BitSet writing = new BitSet();
+        // bytes counted against the quota, including the blocks being written, and bytes of the blocks present,
+        // which is what the index records
+        private long bytes = 0;
+        private long storedBytes = 0;
+        private long validatedMillis = 0;
+        // the last block of the file is the only one which may be shorter than the block size
+        private long lastBlockIndex = -1;
+        private int lastBlockLength = 0;
+        // true if the index is not up to date, with the number of blocks missing from it and when it was last
+        // written (-1 if never)
+        private boolean dirty = false;
+        private int unsavedBlocks = 0;
+        private long indexNanos = -1;
+        // set once the entry is not in the cache anymore, its files are deleted afterwards
+        private volatile boolean removed = false;
+        // held while writing the index or deleting the files, so a removed entry is never written again
+        private final ReentrantLock files = new ReentrantLock();
+
+        private Entry(final String key, final String name, final String uri, final String eTag, final int blockSize) {
+            this(key, name, uri, eTag, blockSize, new BitSet());
+        }
+
+        private Entry(final String key, final String name, final String uri, final String eTag, final int blockSize,
+                      final BitSet blocks) {
+            this.key = key;
+            this.name = name;
+            this.uri = uri;
+            this.eTag = eTag;
+            this.blockSize = blockSize;
+            this.blocks = blocks;
+        }
+
+        private boolean matches(final String eTag, final int blockSize) {
+            return this.eTag.equals(eTag) && this.blockSize == blockSize;
+        }
+
+        private int blockLength(final long blockIndex) {
+            return blockIndex == lastBlockIndex ? lastBlockLength : blockSize;
+        }
+
+        private Properties toProperties() {
+            final Properties properties = new Properties();
+            properties.setProperty("uri", uri);
+            properties.setProperty("etag", eTag);
+            properties.setProperty("blockSize", String.valueOf(blockSize));
+            properties.setProperty("blocks", Base64.getEncoder().encodeToString(blocks.toByteArray()));
+            properties.setProperty("bytes", String.valueOf(storedBytes));
+            properties.setProperty("validated", String.valueOf(validatedMillis));
+            properties.setProperty("lastBlockIndex", String.valueOf(lastBlockIndex));
+            properties.setProperty("lastBlockLength", String.valueOf(lastBlockLength));
+            return properties;
+        }
+
+        private static Entry fromProperties(final String name, final Properties properties) {
+            final String uri = Utils.nonNull(properties.getProperty("uri"), () -> "missing uri");
+            final Entry entry = new Entry(key(URI.create(uri)), name, uri,
+                    Utils.nonNull(properties.getProperty("etag"), () -> "missing etag"),
+                    Integer.parseInt(properties.getProperty("blockSize")),
+                    BitSet.valueOf(Base64.getDecoder().decode(properties.getProperty("blocks"))));
+            entry.storedBytes = Long.parseLong(properties.getProperty("bytes"));
+            entry.bytes = entry.storedBytes;
+            entry.validatedMillis = Long.parseLong(properties.getProperty("validated"));
+            entry.lastBlockIndex = Long.parseLong(properties.getProperty("lastBlockIndex"));
+            entry.lastBlockLength = Integer.parseInt(properties.getProperty("lastBlockLength"));
+            return entry;
+        }
+    }
+}
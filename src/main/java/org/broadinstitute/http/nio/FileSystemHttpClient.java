@@ -0,0 +1,358 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.ExpiringCache;
+import org.broadinstitute.http.nio.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * {@link HttpClient} shared by all the requests to a {@link HttpFileSystem}, which delegates to a regular client.
+ *
+ * <p>If a redirect cache is provided, the final location of every redirected request is remembered, and later
+ * requests to the same URI are sent straight to it. A cached location which answers with 403, 404 or 410
+ * (e.g., an expired pre-signed URL) is forgotten and the request is sent again to the original URI.
+ *
+ * <p>If a {@link RequestLimiter} is provided, every request waits for one of its permits before being sent,
+ * and gives it back once its response is received. A response whose body is an {@link InputStream} keeps its
+ * permit until the stream is closed or read to the end, since the body is still being transferred.
+ *
+ * <p>Cancelling a future returned by {@code sendAsync} cancels the request it is waiting for, or prevents it
+ * from being sent if it is still waiting for a permit.
+ */
+final class FileSystemHttpClient extends HttpClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemHttpClient.class);
+
+    private final HttpClient delegate;
+
+    // final locations by requested URI (may be null)
+    private final ExpiringCache<URI, URI> redirects;
+
+    // limit on the requests in flight (may be null)
+    private final RequestLimiter limiter;
+
+    /**
+     * @param delegate the client which sends the requests
+     * @param redirects the cache of redirect targets, {@code null} to follow redirects on every request
+     * @param limiter the limit on the requests in flight, {@code null} for no limit
+     */
+    FileSystemHttpClient(final HttpClient delegate, final ExpiringCache<URI, URI> redirects,
+                         final RequestLimiter limiter) {
+        this.delegate = Utils.nonNull(delegate, () -> "null delegate");
+        this.redirects = redirects;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        if (limiter == null) {
+            return sendFollowingCachedRedirects(request, handler);
+        }
+        limiter.acquire();
+        final HttpResponse<T> response;
+        try {
+            response = sendFollowingCachedRedirects(request, handler);
+        } catch (final IOException | InterruptedException | RuntimeException e) {
+            limiter.release();
+            throw e;
+        }
+        if (response.body() instanceof InputStream body) {
+            // the body is transferred while the stream is read
+            @SuppressWarnings("unchecked")
+            final T releasing = (T) new PermitReleasingInputStream(body, limiter);
+            return new ResponseWithBody<>(response, releasing);
+        }
+        limiter.release();
+        return response;
+    }
+
+    private <T> HttpResponse<T> sendFollowingCachedRedirects(final HttpRequest request,
+                                                             final HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        final URI target = getTarget(request);
+        if (target != null) {
+            final HttpResponse<T> response = delegate.send(withUri(request, target), handler);
+            if (!isStale(response)) {
+                return response;
+            }
+            forget(request, response);
+        }
+        final HttpResponse<T> response = delegate.send(request, handler);
+        remember(request, response);
+        return response;
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                            final HttpResponse.BodyHandler<T> handler) {
+        return sendAsync(request, handler, null);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                            final HttpResponse.BodyHandler<T> handler,
+                                                            final HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        final InFlight inFlight = new InFlight();
+        // no thread is blocked while the request is queued
+        final CompletableFuture<Void> permit = limiter == null ? null : limiter.acquireAsync();
+        final CompletableFuture<HttpResponse<T>> response = permit == null
+                ? sendAsyncFollowingCachedRedirects(request, handler, pushPromiseHandler, inFlight)
+                : permit.thenCompose(granted -> sendAsyncFollowingCachedRedirects(request, handler,
+                        pushPromiseHandler, inFlight));
+        // runs when the returned future is cancelled too, which the stages it is derived from don't see
+        response.whenComplete((result, error) -> {
+            // a permit is held unless the request was cancelled while waiting for it
+            if (permit != null && !permit.cancel(false)) {
+                limiter.release();
+            }
+            // the futures derived from the one of the delegate don't cancel the request themselves
+            if (response.isCancelled()) {
+                inFlight.cancel();
+            }
+        });
+        return response;
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsyncFollowingCachedRedirects(
+            final HttpRequest request, final HttpResponse.BodyHandler<T> handler,
+            final HttpResponse.PushPromiseHandler<T> pushPromiseHandler, final InFlight inFlight) {
+        final URI target = getTarget(request);
+        if (target == null) {
+            return sendAsyncToSource(request, handler, pushPromiseHandler, inFlight);
+        }
+        return inFlight.send(() -> delegate.sendAsync(withUri(request, target), handler, pushPromiseHandler))
+                .thenCompose(response -> {
+                    if (!isStale(response)) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    forget(request, response);
+                    return sendAsyncToSource(request, handler, pushPromiseHandler, inFlight);
+                });
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsyncToSource(final HttpRequest request,
+                                                                     final HttpResponse.BodyHandler<T> handler,
+                                                                     final HttpResponse.PushPromiseHandler<T> pushPromiseHandler,
+                                                                     final InFlight inFlight) {
+        return inFlight.send(() -> delegate.sendAsync(request, handler, pushPromiseHandler)).thenApply(response -> {
+            remember(request, response);
+            return response;
+        });
+    }
+
+    // the request sent by the delegate for a call to sendAsync, which is cancelled with the future of the call
+    private static final class InFlight {
+
+        // guarded by this
+        private CompletableFuture<?> request;
+        private boolean cancelled;
+
+        // send a request unless the call was cancelled
+        synchronized <T> CompletableFuture<T> send(final Supplier<CompletableFuture<T>> send) {
+            if (cancelled) {
+                return CompletableFuture.failedFuture(new CancellationException());
+            }
+            final CompletableFuture<T> sent = send.get();
+            request = sent;
+            return sent;
+        }
+
+        void cancel() {
+            final CompletableFuture<?> toCancel;
+            synchronized (this) {
+                cancelled = true;
+                toCancel = request;
+            }
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+
+    // the body of a streamed response, which gives its permit back once it is closed or read to the end
+    private static final class PermitReleasingInputStream extends FilterInputStream {
+
+        private final RequestLimiter limiter;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private PermitReleasingInputStream(final InputStream in, final RequestLimiter limiter) {
+            super(in);
+            this.limiter = limiter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+            if (read == -1) {
+                release();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read == -1) {
+                release();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limiter.release();
+            }
+        }
+    }
+
+    // a response with its body replaced
+    private record ResponseWithBody<T>(HttpResponse<T> response, T body) implements HttpResponse<T> {
+
+        @Override
+        public int statusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public HttpRequest request() {
+            return response.request();
+        }
+
+        @Override
+        public Optional<HttpResponse<T>> previousResponse() {
+            return response.previousResponse();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return response.headers();
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return response.sslSession();
+        }
+
+        @Override
+        public URI uri() {
+            return response.uri();
+        }
+
+        @Override
+        public Version version() {
+            return response.version();
+        }
+    }
+
+    private URI getTarget(final HttpRequest request) {
+        return redirects == null ? null : redirects.get(request.uri());
+    }
+
+    // remember where a request was redirected to
+    private void remember(final HttpRequest request, final HttpResponse<?> response) {
+        if (redirects != null && response.statusCode() < 400 && !response.uri().equals(request.uri())) {
+            redirects.put(request.uri(), response.uri());
+        }
+    }
+
+    // forget a redirect target which is not valid anymore, and release its response
+    private void forget(final HttpRequest request, final HttpResponse<?> response) {
+        LOGGER.debug("Cached redirect of {} to {} returned {}, following the redirect again",
+                request.uri(), response.uri(), response.statusCode());
+        redirects.invalidate(request.uri());
+        if (response.body() instanceof AutoCloseable body) {
+            try {
+                body.close();
+            } catch (final Exception e) {
+                // the connection will not be reused
+            }
+        }
+    }
+
+    private static boolean isStale(final HttpResponse<?> response) {
+        final int code = response.statusCode();
+        return code == 403 || code == 404 || code == 410;
+    }
+
+    // copy a request, headers included, to another URI
+    private static HttpRequest withUri(final HttpRequest request, final URI uri) {
+        return HttpRequest.newBuilder(request, (name, value) -> true).uri(uri).build();
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return delegate.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return delegate.followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return delegate.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return delegate.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return delegate.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return delegate.authenticator();
+    }
+
+    @Override
+    public Version version() {
+        return delegate.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return delegate.executor();
+    }
+}
@@ -1,10 +1,10 @@
 package org.broadinstitute.http.nio;
 
-import org.broadinstitute.http.nio.utils.HttpUtils;
 import org.broadinstitute.http.nio.utils.Utils;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
@@ -23,10 +23,15 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Abstract {@link FileSystemProvider} for {@link HttpFileSystem}.
@@ -37,7 +42,8 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author Daniel Gomez-Sanchez (magicDGS)
  */
 abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
-    private static HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS;
+    // volatile so that channels read the settings without taking a lock
+    private static volatile HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS;
 
     // map of authorities and FileSystem - using a concurrent implementation for thread-safety
     private final Map<String, HttpFileSystem> fileSystems = new ConcurrentHashMap<>();
@@ -65,16 +71,29 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
         return uri;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The environment may tune the settings of the new file system, see
+     * {@link HttpFileSystemProviderSettings#fromEnvironment(Map, HttpFileSystemProviderSettings)}; the values
+     * which are not in it are taken from the current {@link #getSettings()}. A file system created with an empty
+     * environment, or by {@link #getPath(URI)}, keeps using the settings of the provider.
+     *
+     * @throws IllegalArgumentException if the environment has an unknown key or an invalid value
+     */
     @Override
     public final HttpFileSystem newFileSystem(final URI uri, final Map<String, ?> env) {
         checkUri(uri);
+        Utils.nonNull(env, () -> "null env");
+        final HttpFileSystemProviderSettings fsSettings = env.isEmpty()
+                ? null
+                : HttpFileSystemProviderSettings.fromEnvironment(env, getSettings());
 
-        if (fileSystems.containsKey(uri.getAuthority())) {
+        final HttpFileSystem fs = new HttpFileSystem(this, uri.getAuthority(), fsSettings);
+        if (fileSystems.putIfAbsent(uri.getAuthority(), fs) != null) {
             throw new FileSystemAlreadyExistsException("URI: " + uri);
         }
-
-        return fileSystems.computeIfAbsent(uri.getAuthority(),
-                (auth) -> new HttpFileSystem(this, auth));
+        return fs;
     }
 
     @Override
@@ -108,8 +127,9 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
             final URI uri = path.toUri();
             checkUri(uri);
 
-            // return an HttpSeekableByteChannel
-            return new HttpSeekableByteChannel(uri, settings, 0L);
+            // return an HttpSeekableByteChannel sharing the client, caches and settings of its file system
+            final HttpFileSystem fs = getPath(uri).getFileSystem();
+            return new HttpSeekableByteChannel(uri, fs, fs.getSettings(), 0L);
         }
         throw new UnsupportedOperationException(
                 String.format("Only %s is supported for %s, but %s options(s) are provided",
@@ -117,6 +137,31 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
     }
 
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Returns a read-only channel which sends a range request for every read without blocking any thread.
+     *
+     * @param executor the executor which runs the completion handlers, or {@code null} to run them
+     *                 in the threads of the HTTP client.
+     */
+    @Override
+    public final AsynchronousFileChannel newAsynchronousFileChannel(final Path path,
+            final Set<? extends OpenOption> options, final ExecutorService executor,
+            final FileAttribute<?>... attrs) throws IOException {
+        Utils.nonNull(path, () -> "null path");
+        Utils.nonNull(options, () -> "null options");
+        if (options.isEmpty() ||
+                (options.size() == 1 && options.contains(StandardOpenOption.READ))) {
+            final URI uri = checkUri(path.toUri());
+            final HttpFileSystem fs = getPath(uri).getFileSystem();
+            return new HttpAsynchronousFileChannel(uri, fs, fs.getSettings(), executor);
+        }
+        throw new UnsupportedOperationException(
+                String.format("Only %s is supported for %s, but %s options(s) are provided",
+                        StandardOpenOption.READ, this, options));
+    }
+
     @Override
     public final DirectoryStream<Path> newDirectoryStream(final Path dir,
             final DirectoryStream.Filter<? super Path> filter) {
@@ -138,10 +183,29 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
                 " is read-only: cannot delete directory");
     }
 
+    /**
+     * Copies a remote file to a path of another provider (e.g., a local file), downloading it in chunks
+     * which are requested concurrently (see {@link HttpFileSystemProviderSettings.CopySettings}).
+     *
+     * <p>Note that {@link java.nio.file.Files#copy(Path, Path, CopyOption...)} only delegates to the provider
+     * of the source if both paths have the same provider, so this method should be called directly with
+     * {@code source.getFileSystem().provider().copy(source, target)} to download a file.
+     *
+     * @throws UnsupportedOperationException if the target is a HTTP/S path, which are read-only, or an
+     *                                       unsupported option is requested
+     */
     @Override
     public final void copy(final Path source, final Path target, CopyOption... options)
             throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+        Utils.nonNull(source, () -> "null source");
+        Utils.nonNull(target, () -> "null target");
+        if (target.getFileSystem().provider() instanceof HttpAbstractFileSystemProvider) {
+            throw new UnsupportedOperationException(this.getClass().getName() +
+                    " is read-only: cannot copy to " + target);
+        }
+        final URI uri = checkUri(source.toUri());
+        final HttpFileSystem fs = getPath(uri).getFileSystem();
+        new ParallelCopy(uri, fs, fs.getSettings()).copyTo(target, options);
     }
 
     /** Unsupported method. */
@@ -172,7 +236,8 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
         Utils.nonNull(path, () -> "null path");
         // get the URI (use also for exception messages)
         final URI uri = checkUri(path.toUri());
-        if (!HttpUtils.exists(uri, settings)){
+        final HttpFileSystem fs = getPath(uri).getFileSystem();
+        if (fs.getMetadata(uri, fs.getSettings()) == null) {
             throw new NoSuchFileException(uri.toString());
         }
         for (AccessMode access : modes) {
@@ -193,16 +258,53 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
     public final <A extends BasicFileAttributes> A readAttributes(final Path path,
             final Class<A> type, final LinkOption... options) throws IOException {
         if ( type.equals(HttpBasicFileAttributes.class) || type.equals(BasicFileAttributes.class)) {
-            return  (A) new HttpBasicFileAttributes();
+            return  (A) readBasicAttributes(path);
         } else {
             throw new UnsupportedOperationException("Can't provide attributes of the given type: " + type.getCanonicalName());
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Only the {@code basic} view is supported.
+     */
     @Override
     public final Map<String, Object> readAttributes(final Path path, final String attributes,
             final LinkOption... options) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+        Utils.nonNull(attributes, () -> "null attributes");
+        final int colon = attributes.indexOf(':');
+        final String view = colon == -1 ? "basic" : attributes.substring(0, colon);
+        if (!view.equals("basic")) {
+            throw new UnsupportedOperationException("Unsupported attribute view: " + view);
+        }
+        final String[] names = attributes.substring(colon + 1).split(",");
+        for (final String name : names) {
+            if (!name.equals("*") && !HttpBasicFileAttributes.NAMES.contains(name)) {
+                throw new IllegalArgumentException("Unknown basic attribute: " + name);
+            }
+        }
+        final Map<String, Object> all = readBasicAttributes(path).asMap();
+        if (Arrays.asList(names).contains("*")) {
+            return all;
+        }
+        final Map<String, Object> selected = new HashMap<>();
+        for (final String name : names) {
+            selected.put(name, all.get(name));
+        }
+        return selected;
+    }
+
+    // get the attributes from the metadata of the file, which may be cached
+    private HttpBasicFileAttributes readBasicAttributes(final Path path) throws IOException {
+        Utils.nonNull(path, () -> "null path");
+        final URI uri = checkUri(path.toUri());
+        final HttpFileSystem fs = getPath(uri).getFileSystem();
+        final HttpFileMetadata metadata = fs.getMetadata(uri, fs.getSettings());
+        if (metadata == null) {
+            throw new NoSuchFileException(uri.toString());
+        }
+        return new HttpBasicFileAttributes(metadata);
     }
 
     @Override
@@ -217,32 +319,51 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
         return this.getClass().getSimpleName();
     }
 
-    /** @return the current settings */
-    public static synchronized HttpFileSystemProviderSettings getSettings(){
+    /** @return the current settings, used by the file systems created without their own settings */
+    public static HttpFileSystemProviderSettings getSettings(){
         return settings;
     }
 
     /** override the existing settings
      * @param settings the new settings object to use*/
-    public static synchronized void setSettings(HttpFileSystemProviderSettings settings){
+    public static void setSettings(HttpFileSystemProviderSettings settings){
         HttpAbstractFileSystemProvider.settings = settings;
     }
 
+    /**
+     * Attributes of a remote file, taken from the headers of a single response.
+     *
+     * <p>The ETag of the file is its key, and the last-modified time is also reported as the
+     * creation and last access times.
+     */
     private static class HttpBasicFileAttributes implements BasicFileAttributes {
 
+        // names of the attributes in the basic view
+        private static final List<String> NAMES = List.of("lastModifiedTime", "lastAccessTime", "creationTime",
+                "size", "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey");
+
+        private final HttpFileMetadata metadata;
+
+        private HttpBasicFileAttributes(final HttpFileMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        /**
+         * @return the time reported by the {@code Last-Modified} header; the epoch if it is unknown.
+         */
         @Override
         public FileTime lastModifiedTime() {
-            throw new UnsupportedOperationException("Not implemented");
+            return metadata.lastModified() == null ? FileTime.fromMillis(0) : FileTime.from(metadata.lastModified());
         }
 
         @Override
         public FileTime lastAccessTime() {
-            throw new UnsupportedOperationException("Not implemented");
+            return lastModifiedTime();
         }
 
         @Override
         public FileTime creationTime() {
-            throw new UnsupportedOperationException("Not implemented");
+            return lastModifiedTime();
         }
 
         @Override
@@ -265,14 +386,35 @@ abstract class HttpAbstractFileSystemProvider extends FileSystemProvider {
             return false;
         }
 
+        /**
+         * @return the size reported by the {@code Content-Length} header; -1 if it is unknown.
+         */
         @Override
         public long size() {
-            throw new UnsupportedOperationException("Not implemented");
+            return metadata.size();
         }
 
+        /**
+         * @return the ETag of the file; {@code null} if the server did not return one.
+         */
         @Override
         public Object fileKey() {
-            throw new UnsupportedOperationException("Not implemented");
+            return metadata.eTag();
+        }
+
+        // the attributes by name, in the same order as NAMES
+        private Map<String, Object> asMap() {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("lastModifiedTime", lastModifiedTime());
+            map.put("lastAccessTime", lastAccessTime());
+            map.put("creationTime", creationTime());
+            map.put("size", size());
+            map.put("isRegularFile", isRegularFile());
+            map.put("isDirectory", isDirectory());
+            map.put("isSymbolicLink", isSymbolicLink());
+            map.put("isOther", isOther());
+            map.put("fileKey", fileKey());
+            return map;
         }
     }
 }
@@ -0,0 +1,213 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only {@link AsynchronousFileChannel} for a remote file.
+ *
+ * <p>Every read is an independent range request sent with {@link HttpClient#sendAsync}, so no thread is
+ * blocked while it is in flight and any number of reads may be pending at the same time. Retryable errors
+ * are retried after a delay, also without blocking (see {@link RetryHandler#runWithRetriesAsync}).
+ *
+ * <p>Completion handlers are invoked by the given executor, or by the threads of the HTTP client if
+ * there is none.
+ *
+ * @implNote this channel is read-only, and locks are not supported.
+ */
+final class HttpAsynchronousFileChannel extends AsynchronousFileChannel {
+
+    private final URI uri;
+    private final HttpFileSystem fileSystem;
+    private final HttpFileSystemProviderSettings settings;
+    private final HttpClient client;
+    private final RetryHandler retryHandler;
+
+    // executor for the completion handlers (may be null)
+    private final Executor executor;
+
+    private volatile boolean open = true;
+
+    /**
+     * @param uri the file to read
+     * @param fileSystem the file system of the file, which provides the client and metadata cache
+     * @param settings the current settings
+     * @param executor the executor which runs the completion handlers, {@code null} to run them in the client
+     */
+    HttpAsynchronousFileChannel(final URI uri, final HttpFileSystem fileSystem,
+                                final HttpFileSystemProviderSettings settings, final Executor executor) {
+        this.uri = Utils.nonNull(uri, () -> "null URI");
+        this.fileSystem = Utils.nonNull(fileSystem, () -> "null file system");
+        this.settings = Utils.nonNull(settings, () -> "settings");
+        this.client = fileSystem.getClient(settings);
+        this.retryHandler = fileSystem.getRetryHandler(uri, settings);
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The size is taken from the metadata of the file, which may be cached.
+     */
+    @Override
+    public long size() throws IOException {
+        assertChannelIsOpen();
+        final HttpFileMetadata metadata = fileSystem.getMetadata(uri, settings);
+        if (metadata == null) {
+            throw new FileNotFoundException("File not found at " + uri);
+        } else if (metadata.size() == -1) {
+            throw new IOException("Failed to get size of file at " + uri + ", no content-length was returned");
+        }
+        return metadata.size();
+    }
+
+    @Override
+    public <A> void read(final ByteBuffer dst, final long position, final A attachment,
+                         final CompletionHandler<Integer, ? super A> handler) {
+        Utils.nonNull(handler, () -> "null handler");
+        final CompletableFuture<Integer> read = read(dst, position);
+        final BiConsumer<Integer, Throwable> complete = (bytes, error) -> {
+            if (error == null) {
+                handler.completed(bytes, attachment);
+            } else {
+                handler.failed(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error, attachment);
+            }
+        };
+        if (executor == null) {
+            read.whenComplete(complete);
+        } else {
+            read.whenCompleteAsync(complete, executor);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a future which may also be composed with other {@link CompletableFuture}.
+     */
+    @Override
+    public CompletableFuture<Integer> read(final ByteBuffer dst, final long position) {
+        Utils.nonNull(dst, () -> "null buffer");
+        Utils.validateArg(!dst.isReadOnly(), "Cannot read into a read-only buffer");
+        Utils.validateArg(position >= 0, "Cannot read from a negative position: " + position);
+        if (!open) {
+            return CompletableFuture.failedFuture(new ClosedChannelException());
+        }
+        final int length = dst.remaining();
+        if (length == 0) {
+            return CompletableFuture.completedFuture(0);
+        }
+        final HttpRequest request = HttpRequest.newBuilder(uri).GET()
+                .setHeader("Range", "bytes=" + position + "-" + (position + length - 1))
+                .build();
+        return retryHandler.runWithRetriesAsync(
+                () -> client.sendAsync(request, HttpSeekableByteChannel.RANGE_BODY_HANDLER).thenApply(this::getRangeBody))
+                .thenApply(bytes -> {
+                    if (bytes.length == 0) {
+                        return -1;
+                    }
+                    final int read = Math.min(bytes.length, length);
+                    dst.put(bytes, 0, read);
+                    return read;
+                });
+    }
+
+    // get the body of a response to a range request, with no bytes if the range starts after the end of the file
+    private byte[] getRangeBody(final HttpResponse<byte[]> response) {
+        final int code = response.statusCode();
+        return switch (code) {
+            case 206 -> response.body();
+            case 416 -> new byte[0];
+            case 200 -> throw new CompletionException(new IncompatibleResponseToRangeQueryException(200,
+                    "Server returned entire file instead of subrange for " + uri));
+            case 404 -> throw new CompletionException(
+                    new FileNotFoundException("File not found at " + uri + " got http 404 response."));
+            default -> throw new CompletionException(new UnexpectedHttpResponseException(response,
+                    "Unexpected http response code: " + code + " when requesting " + uri));
+        };
+    }
+
+    private void assertChannelIsOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /** Unsupported method. */
+    @Override
+    public AsynchronousFileChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * Does nothing, the channel is read-only.
+     */
+    @Override
+    public void force(final boolean metaData) throws IOException {
+        assertChannelIsOpen();
+    }
+
+    /** Unsupported method. */
+    @Override
+    public <A> void lock(final long position, final long size, final boolean shared, final A attachment,
+                         final CompletionHandler<FileLock, ? super A> handler) {
+        throw new UnsupportedOperationException("Remote files cannot be locked");
+    }
+
+    /** Unsupported method. */
+    @Override
+    public Future<FileLock> lock(final long position, final long size, final boolean shared) {
+        throw new UnsupportedOperationException("Remote files cannot be locked");
+    }
+
+    /** Unsupported method. */
+    @Override
+    public FileLock tryLock(final long position, final long size, final boolean shared) {
+        throw new UnsupportedOperationException("Remote files cannot be locked");
+    }
+
+    /** Unsupported method. */
+    @Override
+    public <A> void write(final ByteBuffer src, final long position, final A attachment,
+                          final CompletionHandler<Integer, ? super A> handler) {
+        throw new NonWritableChannelException();
+    }
+
+    /** Unsupported method. */
+    @Override
+    public Future<Integer> write(final ByteBuffer src, final long position) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes this channel. Reads which are already in flight are completed normally.
+     */
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,49 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.HttpUtils;
+
+import java.net.http.HttpHeaders;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Metadata of a remote file, as reported by the headers of an http response.
+ *
+ * @param size          the size of the file in bytes, -1 if unknown
+ * @param eTag          the entity tag of the file, {@code null} if unknown
+ * @param lastModified  the time the file was last modified, {@code null} if unknown
+ * @param acceptsRanges true if the server is known to support range requests for the file
+ */
+record HttpFileMetadata(long size, String eTag, Instant lastModified, boolean acceptsRanges) {
+
+    /**
+     * Extract the metadata from a response to a HEAD or GET request.
+     *
+     * @param statusCode the status code of the response, the size is taken from {@code Content-Range} for 206
+     *                   responses and from {@code Content-Length} otherwise
+     * @param headers the headers of the response
+     * @return the metadata found in the headers
+     */
+    static HttpFileMetadata fromHeaders(final int statusCode, final HttpHeaders headers) {
+        final long size = statusCode == 206
+                ? HttpUtils.getSizeFromContentRange(headers.firstValue("content-range").orElse(null))
+                : headers.firstValueAsLong("content-length").orElse(-1);
+        final boolean acceptsRanges = statusCode == 206
+                || headers.firstValue("accept-ranges").map("bytes"::equalsIgnoreCase).orElse(false);
+        return new HttpFileMetadata(size,
+                headers.firstValue("etag").orElse(null),
+                headers.firstValue("last-modified").map(HttpFileMetadata::parseHttpDate).orElse(null),
+                acceptsRanges);
+    }
+
+    // parse an http date, returning null if it is malformed
+    private static Instant parseHttpDate(final String date) {
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (final DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -1,22 +1,36 @@
 package org.broadinstitute.http.nio;
 
+import org.broadinstitute.http.nio.utils.ExpiringCache;
 import org.broadinstitute.http.nio.utils.HttpUtils;
 import org.broadinstitute.http.nio.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.URISyntaxException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Collections;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Read-only HTTP/S FileSystem.
@@ -32,6 +46,42 @@ final class HttpFileSystem extends FileSystem {
     // authority for this FileSystem
     private final String authority;
 
+    // settings of this FileSystem (null to use the settings of the provider)
+    private final HttpFileSystemProviderSettings settings;
+
+    // block cache shared by all the channels of this FileSystem (null until required)
+    private BlockCache blockCache;
+
+    // metadata of the files of this FileSystem (null until required)
+    private ExpiringCache<URI, HttpFileMetadata> metadataCache;
+    private HttpFileSystemProviderSettings.MetadataCacheSettings metadataCacheSettings;
+
+    // files of this FileSystem which were not found, kept as long as their metadata would be (null until required)
+    private ExpiringCache<URI, Boolean> missingFiles;
+
+    // HEAD requests in flight, which concurrent lookups of the same file wait for
+    private final ConcurrentHashMap<URI, CompletableFuture<HttpFileMetadata>> metadataLookups =
+            new ConcurrentHashMap<>();
+
+    // true once the server of this FileSystem answered a range request with the whole file
+    private volatile boolean ignoresRangeRequests = false;
+
+    // local copies of the files read after the server was found to ignore range requests
+    private final ConcurrentHashMap<URI, CompletableFuture<Path>> localCopies = new ConcurrentHashMap<>();
+
+    // client shared by all the requests to this FileSystem and the settings used to build it (null until required)
+    private HttpClient client;
+    private HttpFileSystemProviderSettings clientSettings;
+
+    // limit on the requests in flight to the server of this FileSystem (null if there is no limit)
+    private RequestLimiter requestLimiter;
+
+    // retries and circuit breaker shared by the requests to the server of this FileSystem (null if disabled)
+    private RetryBudget retryBudget;
+
+    // hedges the slow requests to the server of this FileSystem (null if disabled)
+    private RequestHedger requestHedger;
+
     /**
      * Construct a new FileSystem.
      *
@@ -39,8 +89,22 @@ final class HttpFileSystem extends FileSystem {
      * @param authority non {@code null} authority for this HTTP/S File System.
      */
     HttpFileSystem(final HttpAbstractFileSystemProvider provider, final String authority) {
+        this(provider, authority, null);
+    }
+
+    /**
+     * Construct a new FileSystem with its own settings.
+     *
+     * @param provider  non {@code null} provider that generated this HTTP/S File System.
+     * @param authority non {@code null} authority for this HTTP/S File System.
+     * @param settings  settings of this HTTP/S File System, or {@code null} to use the current settings of
+     *                  the provider.
+     */
+    HttpFileSystem(final HttpAbstractFileSystemProvider provider, final String authority,
+            final HttpFileSystemProviderSettings settings) {
         this.provider = Utils.nonNull(provider, () -> "null provider");
         this.authority = Utils.nonNull(authority, () -> "null authority");
+        this.settings = settings;
     }
 
     @Override
@@ -58,13 +122,401 @@ final class HttpFileSystem extends FileSystem {
     }
 
     /**
-     * This is a no-op, because {@link HttpFileSystem} is always open.
+     * Gets the settings of the channels opened in this File System.
+     *
+     * @return the settings given when this File System was created, or the current
+     * {@link HttpAbstractFileSystemProvider#getSettings()} if there were none.
+     */
+    public HttpFileSystemProviderSettings getSettings() {
+        return settings == null ? HttpAbstractFileSystemProvider.getSettings() : settings;
+    }
+
+    /**
+     * Gets the block cache shared by the channels of this File System.
+     *
+     * <p>The cache is created on first use, and re-created if the cache settings change.
+     *
+     * @param cacheSettings the current cache settings.
+     *
+     * @return the block cache; {@code null} if caching is disabled.
+     */
+    synchronized BlockCache getBlockCache(final HttpFileSystemProviderSettings.CacheSettings cacheSettings) {
+        if (!cacheSettings.isEnabled()) {
+            return null;
+        }
+        if (blockCache == null || !blockCache.getSettings().equals(cacheSettings)) {
+            blockCache = new BlockCache(cacheSettings);
+        }
+        return blockCache;
+    }
+
+    /**
+     * Gets the metadata cache shared by the channels of this File System.
+     *
+     * <p>The cache is created on first use, and re-created if the metadata cache settings change.
+     *
+     * @param settings the current metadata cache settings.
+     *
+     * @return the metadata cache; {@code null} if caching is disabled.
+     */
+    synchronized ExpiringCache<URI, HttpFileMetadata> getMetadataCache(
+            final HttpFileSystemProviderSettings.MetadataCacheSettings settings) {
+        if (!settings.isEnabled()) {
+            return null;
+        }
+        if (metadataCache == null || !metadataCacheSettings.equals(settings)) {
+            metadataCache = new ExpiringCache<>(settings.ttl(), settings.maxEntries());
+            missingFiles = new ExpiringCache<>(settings.ttl(), settings.maxEntries());
+            metadataCacheSettings = settings;
+        }
+        return metadataCache;
+    }
+
+    // the cache of the files which were not found, which goes with the current metadata cache
+    private synchronized ExpiringCache<URI, Boolean> getMissingFiles(
+            final HttpFileSystemProviderSettings.MetadataCacheSettings settings) {
+        return getMetadataCache(settings) == null ? null : missingFiles;
+    }
+
+    /**
+     * Gets the metadata of a file of this File System, from the metadata cache if it is fresh or
+     * with a HEAD request otherwise. Files which were not found are cached for as long, and concurrent
+     * lookups of the same file wait for a single request.
+     *
+     * @param uri      location of the file.
+     * @param settings the current settings.
+     *
+     * @return the metadata of the file; {@code null} if it does not exist.
+     *
+     * @throws IOException if an I/O error occurs.
+     * @throws java.nio.file.AccessDeniedException on http 401, 403, 407
+     */
+    HttpFileMetadata getMetadata(final URI uri, final HttpFileSystemProviderSettings settings) throws IOException {
+        final ExpiringCache<URI, HttpFileMetadata> cache = getMetadataCache(settings.metadataCacheSettings());
+        final ExpiringCache<URI, Boolean> missing = getMissingFiles(settings.metadataCacheSettings());
+        final HttpFileMetadata cached = cache == null ? null : cache.get(uri);
+        if (cached != null || isMissing(uri, missing)) {
+            return cached;
+        }
+        final CompletableFuture<HttpFileMetadata> lookup = new CompletableFuture<>();
+        final CompletableFuture<HttpFileMetadata> existing = metadataLookups.putIfAbsent(uri, lookup);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the metadata of " + uri);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                throw new IOException("Failed to get the metadata of " + uri, e.getCause());
+            }
+        }
+        try {
+            // it may have been cached between the first lookup and registering this one
+            HttpFileMetadata metadata = cache == null ? null : cache.get(uri);
+            if (metadata == null && !isMissing(uri, missing)) {
+                metadata = head(uri, settings);
+                if (metadata != null && cache != null) {
+                    cache.put(uri, metadata);
+                } else if (metadata == null && missing != null) {
+                    missing.put(uri, Boolean.TRUE);
+                }
+            }
+            lookup.complete(metadata);
+            return metadata;
+        } catch (final IOException | RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            metadataLookups.remove(uri, lookup);
+        }
+    }
+
+    private static boolean isMissing(final URI uri, final ExpiringCache<URI, Boolean> missing) {
+        return missing != null && missing.get(uri) != null;
+    }
+
+    // the metadata from a HEAD request, null if the file does not exist
+    private HttpFileMetadata head(final URI uri, final HttpFileSystemProviderSettings settings) throws IOException {
+        final Optional<HttpResponse<String>> response = HttpUtils.head(uri, getClient(settings),
+                getRetryHandler(uri, settings));
+        if (response.isEmpty()) {
+            return null;
+        }
+        return HttpFileMetadata.fromHeaders(response.get().statusCode(), response.get().headers());
+    }
+
+    /**
+     * Returns whether the server of this File System is known to ignore range requests.
+     *
+     * @return {@code true} if a range request was answered with the whole file.
+     */
+    boolean ignoresRangeRequests() {
+        return ignoresRangeRequests;
+    }
+
+    /**
+     * Records that the server of this File System answered a range request with the whole file, so files are
+     * read from a local copy from now on (see {@link #getLocalCopy(URI, HttpFileSystemProviderSettings)}).
+     */
+    void setIgnoresRangeRequests() {
+        if (!ignoresRangeRequests) {
+            logger.info("Server {} ignores range requests, its files will be downloaded to be read", authority);
+            ignoresRangeRequests = true;
+        }
+    }
+
+    /**
+     * Gets a local copy of a file of this File System, downloading it to a temporary file the first time.
+     * Concurrent calls for the same file wait for a single download.
+     *
+     * <p>This is used to read files at random positions from servers which ignore range requests, which would
+     * otherwise send the whole file for every read. Copies are deleted when the File System is closed or
+     * the JVM exits.
+     *
+     * @param uri      location of the file.
+     * @param settings the current settings.
+     *
+     * @return the local copy of the file.
+     *
+     * @throws IOException if the download fails.
+     */
+    Path getLocalCopy(final URI uri, final HttpFileSystemProviderSettings settings) throws IOException {
+        final CompletableFuture<Path> download = new CompletableFuture<>();
+        final CompletableFuture<Path> existing = localCopies.putIfAbsent(uri, download);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the download of " + uri);
+            } catch (final ExecutionException e) {
+                throw new IOException("Failed to download " + uri, e.getCause());
+            }
+        }
+        try {
+            final Path copy = getRetryHandler(uri, settings)
+                    .runWithRetries(() -> download(uri, getClient(settings)));
+            download.complete(copy);
+            return copy;
+        } catch (final IOException | RuntimeException e) {
+            // a later call downloads the file again
+            localCopies.remove(uri, download);
+            download.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Keeps the whole file sent by the server in answer to a range request as the local copy of the file, so it is
+     * not downloaded a second time by {@link #getLocalCopy(URI, HttpFileSystemProviderSettings)}. The body is
+     * closed without being read if there is already a copy, or one is being downloaded.
+     *
+     * <p>A failure is not reported: the next call to {@code getLocalCopy} downloads the file again.
+     *
+     * @param uri  location of the file.
+     * @param body the body of a 200 response for the whole file.
+     */
+    void spoolLocalCopy(final URI uri, final InputStream body) {
+        final CompletableFuture<Path> download = new CompletableFuture<>();
+        try (body) {
+            if (localCopies.putIfAbsent(uri, download) != null) {
+                return;
+            }
+            final Path target = newLocalCopyFile();
+            try {
+                Files.copy(body, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException | RuntimeException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+            download.complete(target);
+        } catch (final IOException | RuntimeException e) {
+            logger.debug("Failed to keep the copy of {} sent by the server: {}", uri, e.getMessage());
+            localCopies.remove(uri, download);
+            download.completeExceptionally(e);
+        }
+    }
+
+    private static Path newLocalCopyFile() throws IOException {
+        final Path target = Files.createTempFile("http-nio-", ".tmp");
+        target.toFile().deleteOnExit();
+        return target;
+    }
+
+    // download the whole file to a temporary file
+    private static Path download(final URI uri, final HttpClient client) throws IOException {
+        final Path target = newLocalCopyFile();
+        boolean success = false;
+        try {
+            final HttpResponse<Path> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                    info -> info.statusCode() == 200
+                            ? HttpResponse.BodySubscribers.ofFile(target)
+                            : HttpResponse.BodySubscribers.replacing(null));
+            switch (response.statusCode()) {
+                case 200 -> {
+                    success = true;
+                    return target;
+                }
+                case 404 -> throw new FileNotFoundException("File not found at " + uri + " got http 404 response.");
+                default -> throw new UnexpectedHttpResponseException(response,
+                        "Unexpected http response code: " + response.statusCode() + " when requesting " + uri);
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while downloading " + uri);
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+
+    /**
+     * Gets the HTTP client shared by all the requests to this File System, so connections and TLS sessions
+     * are reused between channels and existence checks. If the server supports HTTP/2 and it is preferred by
+     * {@link HttpFileSystemProviderSettings#httpVersion()}, concurrent requests are multiplexed as streams of
+     * a single connection. If enabled by {@link HttpFileSystemProviderSettings#requestLimitSettings()}, the
+     * number of requests in flight is limited (see {@link #getRequestLimiter()}). The final locations of redirected requests are
+     * cached if enabled by {@link HttpFileSystemProviderSettings#redirectCacheSettings()}.
+     *
+     * <p>The client is created on first use, and re-created if the settings used to build it change.
+     *
+     * @param settings the current settings.
+     *
+     * @return the shared client.
+     */
+    synchronized HttpClient getClient(final HttpFileSystemProviderSettings settings) {
+        if (client == null || !clientSettings.timeout().equals(settings.timeout())
+                || clientSettings.redirect() != settings.redirect()
+                || !clientSettings.redirectCacheSettings().equals(settings.redirectCacheSettings())
+                || !clientSettings.executorSettings().equals(settings.executorSettings())
+                || clientSettings.httpVersion() != settings.httpVersion()
+                || !clientSettings.requestLimitSettings().equals(settings.requestLimitSettings())) {
+            final HttpFileSystemProviderSettings.RedirectCacheSettings redirectCacheSettings =
+                    settings.redirectCacheSettings();
+            final HttpFileSystemProviderSettings.RequestLimitSettings requestLimitSettings =
+                    settings.requestLimitSettings();
+            // requests in flight with a previous client give back their permits to the previous limiter
+            if (!requestLimitSettings.isEnabled()) {
+                requestLimiter = null;
+            } else if (requestLimiter == null || requestLimiter.getMaxRequests() != requestLimitSettings.maxRequests()) {
+                requestLimiter = new RequestLimiter(requestLimitSettings.maxRequests());
+            }
+            client = new FileSystemHttpClient(HttpUtils.getClient(settings), redirectCacheSettings.isEnabled()
+                    ? new ExpiringCache<>(redirectCacheSettings.ttl(), redirectCacheSettings.maxEntries())
+                    : null, requestLimiter);
+            clientSettings = settings;
+        }
+        return client;
+    }
+
+    /**
+     * Gets the limit on the requests in flight to the server of this File System, which also records how long
+     * requests waited for their turn.
+     *
+     * @return the limiter used by the current client; {@code null} if the number of requests is not limited.
+     */
+    synchronized RequestLimiter getRequestLimiter() {
+        return requestLimiter;
+    }
+
+    /**
+     * Gets the retries and circuit breaker shared by the requests to the server of this File System.
+     *
+     * <p>The budget is created on first use, and re-created if its settings change.
+     *
+     * @param settings the current settings.
+     *
+     * @return the shared budget; {@code null} if both the retry budget and the circuit breaker are disabled.
+     */
+    synchronized RetryBudget getRetryBudget(final HttpFileSystemProviderSettings settings) {
+        final HttpFileSystemProviderSettings.RetryBudgetSettings budgetSettings = settings.retryBudgetSettings();
+        final HttpFileSystemProviderSettings.CircuitBreakerSettings breakerSettings =
+                settings.circuitBreakerSettings();
+        if (!budgetSettings.isEnabled() && !breakerSettings.isEnabled()) {
+            retryBudget = null;
+        } else if (retryBudget == null || !retryBudget.getBudgetSettings().equals(budgetSettings)
+                || !retryBudget.getBreakerSettings().equals(breakerSettings)) {
+            retryBudget = new RetryBudget(budgetSettings, breakerSettings);
+        }
+        return retryBudget;
+    }
+
+    /**
+     * Gets the hedger of the small ranged reads from the server of this File System, which tracks the latency
+     * of the server.
+     *
+     * <p>The hedger is created on first use, and re-created if the hedge settings change.
+     *
+     * @param settings the current settings.
+     *
+     * @return the shared hedger; {@code null} if hedging is disabled.
+     */
+    synchronized RequestHedger getRequestHedger(final HttpFileSystemProviderSettings settings) {
+        final HttpFileSystemProviderSettings.HedgeSettings hedgeSettings = settings.hedgeSettings();
+        if (!hedgeSettings.isEnabled()) {
+            requestHedger = null;
+        } else if (requestHedger == null || !requestHedger.getSettings().equals(hedgeSettings)) {
+            requestHedger = new RequestHedger(hedgeSettings);
+        }
+        return requestHedger;
+    }
+
+    /**
+     * Gets a retry handler for a request to this File System, which shares its retries and circuit breaker
+     * with the other requests to the server.
+     *
+     * @param uri the URI which is requested.
+     * @param settings the current settings.
+     *
+     * @return a new retry handler.
+     */
+    RetryHandler getRetryHandler(final URI uri, final HttpFileSystemProviderSettings settings) {
+        return new RetryHandler(settings.retrySettings(), uri, getRetryBudget(settings));
+    }
+
+    /**
+     * Releases the shared client and caches of this File System. The {@link HttpFileSystem}
+     * is always open, so they are created again if the File System is used afterwards.
      *
      * @implNote because the open connections are not tracked, we cannot close the file system.
+     * {@link HttpClient} cannot be closed explicitly in Java 17, its connections and threads are
+     * released once it is not referenced anymore.
      */
     @Override
-    public void close() {
-        logger.warn("{} is always open (not closed)", this.getClass());
+    public synchronized void close() {
+        logger.debug("{} is always open, releasing its client and caches", this.getClass());
+        client = null;
+        clientSettings = null;
+        blockCache = null;
+        metadataCache = null;
+        metadataCacheSettings = null;
+        missingFiles = null;
+        deleteLocalCopies();
+    }
+
+    // delete the local copies which were downloaded, channels which have them open can still read them
+    private void deleteLocalCopies() {
+        for (final URI uri : localCopies.keySet()) {
+            deleteLocalCopy(uri);
+        }
+    }
+
+    /**
+     * Deletes the local copy of a file, if it was downloaded. A later call to
+     * {@link #getLocalCopy(URI, HttpFileSystemProviderSettings)} downloads the file again.
+     *
+     * @param uri location of the file.
+     */
+    void deleteLocalCopy(final URI uri) {
+        final CompletableFuture<Path> copy = localCopies.remove(uri);
+        if (copy != null && copy.isDone() && !copy.isCompletedExceptionally()) {
+            try {
+                Files.deleteIfExists(copy.join());
+            } catch (final IOException e) {
+                logger.warn("Failed to delete the local copy of {}: {}", uri, e.getMessage());
+            }
+        }
     }
 
     /**
@@ -110,9 +562,14 @@ final class HttpFileSystem extends FileSystem {
         throw new UnsupportedOperationException("Not implemented");
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @return a set containing only {@code "basic"}.
+     */
     @Override
     public Set<String> supportedFileAttributeViews() {
-        throw new UnsupportedOperationException("Not implemented");
+        return Collections.singleton("basic");
     }
 
     @Override
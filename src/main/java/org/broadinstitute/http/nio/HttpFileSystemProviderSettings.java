@@ -2,9 +2,21 @@ package org.broadinstitute.http.nio;
 
 import org.broadinstitute.http.nio.utils.Utils;
 
+import java.math.BigDecimal;
 import java.net.http.HttpClient;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.format.DateTimeParseException;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 /**
@@ -12,18 +24,90 @@ import java.util.function.Predicate;
  */
 public record HttpFileSystemProviderSettings(Duration timeout,
                                              HttpClient.Redirect redirect,
-                                             RetrySettings retrySettings
+                                             RetrySettings retrySettings,
+                                             CacheSettings cacheSettings,
+                                             ReadAheadSettings readAheadSettings,
+                                             StreamSettings streamSettings,
+                                             StripeSettings stripeSettings,
+                                             MetadataCacheSettings metadataCacheSettings,
+                                             CopySettings copySettings,
+                                             DiskCacheSettings diskCacheSettings,
+                                             RangeReadSettings rangeReadSettings,
+                                             RedirectCacheSettings redirectCacheSettings,
+                                             ExecutorSettings executorSettings,
+                                             HttpClient.Version httpVersion,
+                                             RequestLimitSettings requestLimitSettings,
+                                             RetryBudgetSettings retryBudgetSettings,
+                                             CircuitBreakerSettings circuitBreakerSettings,
+                                             HedgeSettings hedgeSettings,
+                                             StallSettings stallSettings
                                            ) {
 
     /**
      * @param timeout   the timeout to use when waiting on http connections
      * @param redirect  should redirects be followed automatically
      * @param retrySettings settings which control how retries are handled
+     * @param cacheSettings settings which control the in-memory block cache
+     * @param readAheadSettings settings which control the prefetching of blocks on sequential reads
+     * @param streamSettings settings which control how files are streamed when they are not read in blocks
+     * @param stripeSettings settings which control parallel downloads of large sequential reads
+     * @param metadataCacheSettings settings which control the cache of file sizes and validators
+     * @param copySettings settings which control parallel downloads of files to the local disk
+     * @param diskCacheSettings settings which control the persistent block cache
+     * @param rangeReadSettings settings which control how batches of ranges are merged into requests
+     * @param redirectCacheSettings settings which control the cache of the final locations of redirected files
+     * @param executorSettings settings which control the threads used by the http clients
+     * @param httpVersion the preferred version of http, HTTP/2 falls back to HTTP/1.1 if the server does not support it
+     * @param requestLimitSettings settings which control the number of concurrent requests to a server
+     * @param retryBudgetSettings settings of the retries allowed per successful request to the server of a file system
+     * @param circuitBreakerSettings settings of the circuit breaker which fails requests fast while a server keeps
+     *                               failing
+     * @param hedgeSettings settings of the duplicate requests sent for small ranged reads which are slow to answer
+     * @param stallSettings settings of the detection of streams which stopped or slowed to a trickle
      */
     public HttpFileSystemProviderSettings {
         Utils.nonNull(timeout, () -> "timeout");
         Utils.nonNull(redirect, () -> "redirect");
         Utils.nonNull(retrySettings, () -> "retrySettings");
+        Utils.nonNull(cacheSettings, () -> "cacheSettings");
+        Utils.nonNull(readAheadSettings, () -> "readAheadSettings");
+        Utils.nonNull(streamSettings, () -> "streamSettings");
+        Utils.nonNull(stripeSettings, () -> "stripeSettings");
+        Utils.nonNull(metadataCacheSettings, () -> "metadataCacheSettings");
+        Utils.nonNull(copySettings, () -> "copySettings");
+        Utils.nonNull(diskCacheSettings, () -> "diskCacheSettings");
+        Utils.nonNull(rangeReadSettings, () -> "rangeReadSettings");
+        Utils.nonNull(redirectCacheSettings, () -> "redirectCacheSettings");
+        Utils.nonNull(executorSettings, () -> "executorSettings");
+        Utils.nonNull(httpVersion, () -> "httpVersion");
+        Utils.nonNull(requestLimitSettings, () -> "requestLimitSettings");
+        Utils.nonNull(retryBudgetSettings, () -> "retryBudgetSettings");
+        Utils.nonNull(circuitBreakerSettings, () -> "circuitBreakerSettings");
+        Utils.nonNull(hedgeSettings, () -> "hedgeSettings");
+        Utils.nonNull(stallSettings, () -> "stallSettings");
+    }
+
+    /**
+     * Create settings which use the {@link #DEFAULT_CACHE_SETTINGS}, {@link #DEFAULT_READ_AHEAD_SETTINGS},
+     * {@link #DEFAULT_STREAM_SETTINGS}, {@link #DEFAULT_STRIPE_SETTINGS}, {@link #DEFAULT_METADATA_CACHE_SETTINGS},
+     * {@link #DEFAULT_COPY_SETTINGS}, {@link #DEFAULT_DISK_CACHE_SETTINGS}, {@link #DEFAULT_RANGE_READ_SETTINGS},
+     * {@link #DEFAULT_REDIRECT_CACHE_SETTINGS}, {@link #DEFAULT_EXECUTOR_SETTINGS}, {@link #DEFAULT_HTTP_VERSION},
+     * {@link #DEFAULT_REQUEST_LIMIT_SETTINGS}, {@link #DEFAULT_RETRY_BUDGET_SETTINGS},
+     * {@link #DEFAULT_CIRCUIT_BREAKER_SETTINGS}, {@link #DEFAULT_HEDGE_SETTINGS} and {@link #DEFAULT_STALL_SETTINGS}
+     *
+     * @param timeout   the timeout to use when waiting on http connections
+     * @param redirect  should redirects be followed automatically
+     * @param retrySettings settings which control how retries are handled
+     */
+    public HttpFileSystemProviderSettings(final Duration timeout,
+                                          final HttpClient.Redirect redirect,
+                                          final RetrySettings retrySettings) {
+        this(timeout, redirect, retrySettings, DEFAULT_CACHE_SETTINGS, DEFAULT_READ_AHEAD_SETTINGS,
+                DEFAULT_STREAM_SETTINGS, DEFAULT_STRIPE_SETTINGS, DEFAULT_METADATA_CACHE_SETTINGS,
+                DEFAULT_COPY_SETTINGS, DEFAULT_DISK_CACHE_SETTINGS, DEFAULT_RANGE_READ_SETTINGS,
+                DEFAULT_REDIRECT_CACHE_SETTINGS, DEFAULT_EXECUTOR_SETTINGS, DEFAULT_HTTP_VERSION,
+                DEFAULT_REQUEST_LIMIT_SETTINGS, DEFAULT_RETRY_BUDGET_SETTINGS, DEFAULT_CIRCUIT_BREAKER_SETTINGS,
+                DEFAULT_HEDGE_SETTINGS, DEFAULT_STALL_SETTINGS);
     }
 
     /**
@@ -33,13 +117,444 @@ public record HttpFileSystemProviderSettings(Duration timeout,
             RetryHandler.DEFAULT_RETRYABLE_HTTP_CODES,
             RetryHandler.DEFAULT_RETRYABLE_EXCEPTIONS,
             RetryHandler.DEFALT_RETRYABLE_MESSAGES,
-            e -> false);
+            e -> false,
+            RetryHandler.DEFAULT_BACKOFF_POLICY);
+
+    /**
+     * The default cache settings, 1 MiB blocks with the cache disabled
+     */
+    public static final CacheSettings DEFAULT_CACHE_SETTINGS = new CacheSettings(1024 * 1024, 0L);
+
+    /**
+     * The default read-ahead settings, read-ahead is disabled
+     */
+    public static final ReadAheadSettings DEFAULT_READ_AHEAD_SETTINGS = new ReadAheadSettings(0, 0);
+
+    /**
+     * The default stream settings, files are requested with open-ended ranges
+     */
+    public static final StreamSettings DEFAULT_STREAM_SETTINGS = new StreamSettings(0L);
+
+    /**
+     * The default stripe settings, 8 MiB stripes with striping disabled
+     */
+    public static final StripeSettings DEFAULT_STRIPE_SETTINGS = new StripeSettings(0, 8 * 1024 * 1024, 0L);
+
+    /**
+     * The default metadata cache settings, entries live for 1 minute with the cache disabled
+     */
+    public static final MetadataCacheSettings DEFAULT_METADATA_CACHE_SETTINGS =
+            new MetadataCacheSettings(Duration.ofMinutes(1), 0);
+
+    /**
+     * The default copy settings, 4 concurrent chunks of 16 MiB
+     */
+    public static final CopySettings DEFAULT_COPY_SETTINGS = new CopySettings(4, 16 * 1024 * 1024);
+
+    /**
+     * The default disk cache settings, entries are validated every hour with the cache disabled
+     */
+    public static final DiskCacheSettings DEFAULT_DISK_CACHE_SETTINGS = new DiskCacheSettings(null, 0L, Duration.ofHours(1));
+
+    /**
+     * The default range read settings, ranges less than 64 KiB apart are merged into requests of up to 8 MiB
+     */
+    public static final RangeReadSettings DEFAULT_RANGE_READ_SETTINGS = new RangeReadSettings(64 * 1024, 8 * 1024 * 1024);
+
+    /**
+     * The default redirect cache settings, redirects are remembered for 5 minutes with the cache disabled
+     */
+    public static final RedirectCacheSettings DEFAULT_REDIRECT_CACHE_SETTINGS =
+            new RedirectCacheSettings(Duration.ofMinutes(5), 0);
+
+    /**
+     * The default executor settings, clients use the default executor of the JDK
+     */
+    public static final ExecutorSettings DEFAULT_EXECUTOR_SETTINGS = ExecutorSettings.defaultExecutor();
+
+    /**
+     * The default http version, HTTP/2 is preferred so concurrent requests to a server share its connection
+     */
+    public static final HttpClient.Version DEFAULT_HTTP_VERSION = HttpClient.Version.HTTP_2;
+
+    /**
+     * The default request limit settings, the number of concurrent requests is not limited
+     */
+    public static final RequestLimitSettings DEFAULT_REQUEST_LIMIT_SETTINGS = new RequestLimitSettings(0);
+
+    /**
+     * The default retry budget settings, every request may be retried up to {@link RetrySettings#maxRetries()} times
+     */
+    public static final RetryBudgetSettings DEFAULT_RETRY_BUDGET_SETTINGS = new RetryBudgetSettings(0, 0);
+
+    /**
+     * The default circuit breaker settings, requests are sent whatever the number of previous failures
+     */
+    public static final CircuitBreakerSettings DEFAULT_CIRCUIT_BREAKER_SETTINGS =
+            new CircuitBreakerSettings(0, Duration.ofSeconds(30));
+
+    /**
+     * The default hedge settings, no duplicate requests are sent
+     */
+    public static final HedgeSettings DEFAULT_HEDGE_SETTINGS =
+            new HedgeSettings(0, 0.95, 0.05, Duration.ofMillis(10));
+
+    /**
+     * The default stall settings, streams are read however slowly the server sends them
+     */
+    public static final StallSettings DEFAULT_STALL_SETTINGS =
+            new StallSettings(Duration.ZERO, 0, Duration.ofSeconds(10));
 
     /**
      * default settings which will be used unless they are reset
      */
     public static final HttpFileSystemProviderSettings DEFAULT_SETTINGS = new HttpFileSystemProviderSettings(
-            Duration.ofSeconds(10), HttpClient.Redirect.NORMAL, DEFAULT_RETRY_SETTINGS );
+            Duration.ofSeconds(10), HttpClient.Redirect.NORMAL, DEFAULT_RETRY_SETTINGS, DEFAULT_CACHE_SETTINGS,
+            DEFAULT_READ_AHEAD_SETTINGS, DEFAULT_STREAM_SETTINGS, DEFAULT_STRIPE_SETTINGS,
+            DEFAULT_METADATA_CACHE_SETTINGS, DEFAULT_COPY_SETTINGS, DEFAULT_DISK_CACHE_SETTINGS,
+            DEFAULT_RANGE_READ_SETTINGS, DEFAULT_REDIRECT_CACHE_SETTINGS, DEFAULT_EXECUTOR_SETTINGS,
+            DEFAULT_HTTP_VERSION, DEFAULT_REQUEST_LIMIT_SETTINGS, DEFAULT_RETRY_BUDGET_SETTINGS,
+            DEFAULT_CIRCUIT_BREAKER_SETTINGS, DEFAULT_HEDGE_SETTINGS, DEFAULT_STALL_SETTINGS);
+
+    /** environment key of complete settings ({@link HttpFileSystemProviderSettings}) the other keys modify */
+    public static final String SETTINGS_KEY = "settings";
+    /** environment key of the connection {@link #timeout()} */
+    public static final String TIMEOUT_KEY = "timeout";
+    /** environment key of {@link RetrySettings#maxRetries()} */
+    public static final String MAX_RETRIES_KEY = "maxRetries";
+    /** environment key of {@link RetrySettings#backoffPolicy()} ({@link BackoffPolicy}) */
+    public static final String BACKOFF_POLICY_KEY = "backoffPolicy";
+    /** environment key of {@link CacheSettings#blockSize()} */
+    public static final String BLOCK_SIZE_KEY = "blockSize";
+    /** environment key of {@link CacheSettings#maxCacheBytes()} */
+    public static final String MAX_CACHE_BYTES_KEY = "maxCacheBytes";
+    /** environment key of {@link MetadataCacheSettings#maxEntries()} */
+    public static final String MAX_METADATA_ENTRIES_KEY = "maxMetadataEntries";
+    /** environment key of {@link RequestLimitSettings#maxRequests()} */
+    public static final String MAX_REQUESTS_KEY = "maxRequests";
+    /** environment key of {@link CopySettings#concurrency()} */
+    public static final String COPY_CONCURRENCY_KEY = "copyConcurrency";
+
+    private static final Set<String> ENVIRONMENT_KEYS = Set.of(SETTINGS_KEY, TIMEOUT_KEY, MAX_RETRIES_KEY,
+            BACKOFF_POLICY_KEY, BLOCK_SIZE_KEY, MAX_CACHE_BYTES_KEY, MAX_METADATA_ENTRIES_KEY, MAX_REQUESTS_KEY,
+            COPY_CONCURRENCY_KEY);
+
+    /**
+     * Build settings from the environment of {@link java.nio.file.FileSystems#newFileSystem(java.net.URI, Map)},
+     * so a file system may be tuned for its server.
+     *
+     * <p>The {@value #SETTINGS_KEY} key may hold complete settings, otherwise the given defaults are used. The
+     * other keys override a single value of these settings: durations may be given as a {@link Duration} or an
+     * ISO-8601 string (e.g. {@code "PT30S"}), and sizes and counts as a {@link Number} with an integral value or a decimal string.
+     *
+     * @param env the environment, with keys among the {@code *_KEY} constants of this class
+     * @param defaults the settings used for the values which are not in the environment
+     * @return the settings of the environment
+     * @throws IllegalArgumentException if a key is unknown or a value is invalid
+     */
+    public static HttpFileSystemProviderSettings fromEnvironment(final Map<String, ?> env,
+                                                                 final HttpFileSystemProviderSettings defaults) {
+        Utils.nonNull(env, () -> "null env");
+        Utils.nonNull(defaults, () -> "null defaults");
+        for (final String key : env.keySet()) {
+            if (!ENVIRONMENT_KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unknown key " + key + " in the environment, expected one of "
+                        + ENVIRONMENT_KEYS);
+            }
+        }
+        HttpFileSystemProviderSettings settings = env.containsKey(SETTINGS_KEY)
+                ? getEnvironmentValue(env, SETTINGS_KEY, HttpFileSystemProviderSettings.class)
+                : defaults;
+        if (env.containsKey(TIMEOUT_KEY)) {
+            settings = settings.withTimeout(getEnvironmentDuration(env, TIMEOUT_KEY));
+        }
+        final RetrySettings retry = settings.retrySettings();
+        if (env.containsKey(MAX_RETRIES_KEY) || env.containsKey(BACKOFF_POLICY_KEY)) {
+            settings = settings.withRetrySettings(new RetrySettings(
+                    env.containsKey(MAX_RETRIES_KEY) ? getEnvironmentInt(env, MAX_RETRIES_KEY) : retry.maxRetries(),
+                    retry.retryableHttpCodes(), retry.retryableExceptions(), retry.retryableMessages(),
+                    retry.retryPredicate(), env.containsKey(BACKOFF_POLICY_KEY)
+                            ? getEnvironmentValue(env, BACKOFF_POLICY_KEY, BackoffPolicy.class)
+                            : retry.backoffPolicy()));
+        }
+        if (env.containsKey(BLOCK_SIZE_KEY) || env.containsKey(MAX_CACHE_BYTES_KEY)) {
+            final CacheSettings cache = settings.cacheSettings();
+            settings = settings.withCacheSettings(new CacheSettings(
+                    env.containsKey(BLOCK_SIZE_KEY) ? getEnvironmentInt(env, BLOCK_SIZE_KEY) : cache.blockSize(),
+                    env.containsKey(MAX_CACHE_BYTES_KEY)
+                            ? getEnvironmentLong(env, MAX_CACHE_BYTES_KEY)
+                            : cache.maxCacheBytes()));
+        }
+        if (env.containsKey(MAX_METADATA_ENTRIES_KEY)) {
+            settings = settings.withMetadataCacheSettings(new MetadataCacheSettings(
+                    settings.metadataCacheSettings().ttl(), getEnvironmentInt(env, MAX_METADATA_ENTRIES_KEY)));
+        }
+        if (env.containsKey(MAX_REQUESTS_KEY)) {
+            settings = settings.withRequestLimitSettings(
+                    new RequestLimitSettings(getEnvironmentInt(env, MAX_REQUESTS_KEY)));
+        }
+        if (env.containsKey(COPY_CONCURRENCY_KEY)) {
+            settings = settings.withCopySettings(new CopySettings(getEnvironmentInt(env, COPY_CONCURRENCY_KEY),
+                    settings.copySettings().chunkSize()));
+        }
+        return settings;
+    }
+
+    private static <T> T getEnvironmentValue(final Map<String, ?> env, final String key, final Class<T> type) {
+        final Object value = env.get(key);
+        if (!type.isInstance(value)) {
+            throw new IllegalArgumentException("Expected a " + type.getSimpleName() + " for " + key
+                    + " in the environment, found " + value);
+        }
+        return type.cast(value);
+    }
+
+    private static long getEnvironmentLong(final Map<String, ?> env, final String key) {
+        final Object value = env.get(key);
+        try {
+            if (value instanceof Number number) {
+                // any number type, as long as its value is a whole long
+                return new BigDecimal(number.toString()).longValueExact();
+            }
+            return Long.parseLong(getEnvironmentValue(env, key, String.class).trim());
+        } catch (final NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Expected an integer for " + key + " in the environment, found "
+                    + value, e);
+        }
+    }
+
+    private static int getEnvironmentInt(final Map<String, ?> env, final String key) {
+        final long value = getEnvironmentLong(env, key);
+        Utils.validateArg(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE,
+                key + " in the environment is too large: " + value);
+        return (int) value;
+    }
+
+    private static Duration getEnvironmentDuration(final Map<String, ?> env, final String key) {
+        final Object value = env.get(key);
+        if (value instanceof Duration duration) {
+            return duration;
+        }
+        try {
+            return Duration.parse(getEnvironmentValue(env, key, String.class).trim());
+        } catch (final DateTimeParseException e) {
+            throw new IllegalArgumentException("Expected a duration for " + key + " in the environment, found "
+                    + value, e);
+        }
+    }
+
+    /**
+     * @param timeout the new connection timeout
+     * @return a copy of these settings with the given timeout
+     */
+    public HttpFileSystemProviderSettings withTimeout(final Duration timeout) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+    /**
+     * @param retrySettings the new retry settings
+     * @return a copy of these settings with the given retry settings
+     */
+    public HttpFileSystemProviderSettings withRetrySettings(final RetrySettings retrySettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+    /**
+     * @param cacheSettings the new cache settings
+     * @return a copy of these settings with the given cache settings
+     */
+    public HttpFileSystemProviderSettings withCacheSettings(final CacheSettings cacheSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+    /**
+     * @param readAheadSettings the new read-ahead settings
+     * @return a copy of these settings with the given read-ahead settings
+     */
+    public HttpFileSystemProviderSettings withReadAheadSettings(final ReadAheadSettings readAheadSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param streamSettings the new stream settings
+     * @return a copy of these settings with the given stream settings
+     */
+    public HttpFileSystemProviderSettings withStreamSettings(final StreamSettings streamSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param stripeSettings the new stripe settings
+     * @return a copy of these settings with the given stripe settings
+     */
+    public HttpFileSystemProviderSettings withStripeSettings(final StripeSettings stripeSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param metadataCacheSettings the new metadata cache settings
+     * @return a copy of these settings with the given metadata cache settings
+     */
+    public HttpFileSystemProviderSettings withMetadataCacheSettings(final MetadataCacheSettings metadataCacheSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param copySettings the new copy settings
+     * @return a copy of these settings with the given copy settings
+     */
+    public HttpFileSystemProviderSettings withCopySettings(final CopySettings copySettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param diskCacheSettings the new disk cache settings
+     * @return a copy of these settings with the given disk cache settings
+     */
+    public HttpFileSystemProviderSettings withDiskCacheSettings(final DiskCacheSettings diskCacheSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param rangeReadSettings the new range read settings
+     * @return a copy of these settings with the given range read settings
+     */
+    public HttpFileSystemProviderSettings withRangeReadSettings(final RangeReadSettings rangeReadSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param redirectCacheSettings the new redirect cache settings
+     * @return a copy of these settings with the given redirect cache settings
+     */
+    public HttpFileSystemProviderSettings withRedirectCacheSettings(final RedirectCacheSettings redirectCacheSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param executorSettings the new executor settings
+     * @return a copy of these settings with the given executor settings
+     */
+    public HttpFileSystemProviderSettings withExecutorSettings(final ExecutorSettings executorSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param httpVersion the new preferred http version, {@link HttpClient.Version#HTTP_1_1} to never use HTTP/2
+     * @return a copy of these settings with the given http version
+     */
+    public HttpFileSystemProviderSettings withHttpVersion(final HttpClient.Version httpVersion) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param requestLimitSettings the new request limit settings
+     * @return a copy of these settings with the given request limit settings
+     */
+    public HttpFileSystemProviderSettings withRequestLimitSettings(final RequestLimitSettings requestLimitSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param retryBudgetSettings the new retry budget settings
+     * @return a copy of these settings with the given retry budget settings
+     */
+    public HttpFileSystemProviderSettings withRetryBudgetSettings(final RetryBudgetSettings retryBudgetSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param circuitBreakerSettings the new circuit breaker settings
+     * @return a copy of these settings with the given circuit breaker settings
+     */
+    public HttpFileSystemProviderSettings withCircuitBreakerSettings(
+            final CircuitBreakerSettings circuitBreakerSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param hedgeSettings the new hedge settings
+     * @return a copy of these settings with the given hedge settings
+     */
+    public HttpFileSystemProviderSettings withHedgeSettings(final HedgeSettings hedgeSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
+
+
+    /**
+     * @param stallSettings the new stall settings
+     * @return a copy of these settings with the given stall settings
+     */
+    public HttpFileSystemProviderSettings withStallSettings(final StallSettings stallSettings) {
+        return new HttpFileSystemProviderSettings(timeout, redirect, retrySettings, cacheSettings, readAheadSettings,
+                streamSettings, stripeSettings, metadataCacheSettings, copySettings, diskCacheSettings,
+                rangeReadSettings, redirectCacheSettings, executorSettings, httpVersion, requestLimitSettings,
+                retryBudgetSettings, circuitBreakerSettings, hedgeSettings, stallSettings);
+    }
 
 
     /**
@@ -49,7 +564,8 @@ public record HttpFileSystemProviderSettings(Duration timeout,
                                   Collection<Integer> retryableHttpCodes,
                                   Collection<Class<? extends Exception>> retryableExceptions,
                                   Collection<String> retryableMessages,
-                                  Predicate<Throwable> retryPredicate){
+                                  Predicate<Throwable> retryPredicate,
+                                  BackoffPolicy backoffPolicy){
 
         /**
          * Settings to control retry behavior
@@ -59,6 +575,8 @@ public record HttpFileSystemProviderSettings(Duration timeout,
          * @param retryableMessages a list of messages which will be retried when found in an exception message
          * @param retryPredicate an arbitrary predicate which allows handling retries in custom ways, applied after testing
          *                       response codes and retryable exceptions, if it returns true it will be retried
+         * @param backoffPolicy decides how long to wait before each retry, a longer {@code Retry-After} sent by the
+         *                      server takes precedence
          *
          */
         public RetrySettings {
@@ -67,6 +585,521 @@ public record HttpFileSystemProviderSettings(Duration timeout,
             Utils.nonNull(retryableExceptions, () -> "retryableExceptions");
             Utils.nonNull(retryableMessages,() -> "retryableMessages");
             Utils.nonNull(retryPredicate, () -> "retryPredicate");
+            Utils.nonNull(backoffPolicy, () -> "backoffPolicy");
+        }
+
+        /**
+         * Settings to control retry behavior with the {@link RetryHandler#DEFAULT_BACKOFF_POLICY}
+         * @param maxRetries number of times to retry an attempted network operation, must be >= 0
+         * @param retryableHttpCodes a list of http response codes which will be retried when encountered
+         * @param retryableExceptions a list of  exception classes which will be retried when encountered
+         * @param retryableMessages a list of messages which will be retried when found in an exception message
+         * @param retryPredicate an arbitrary predicate which allows handling retries in custom ways, applied after testing
+         *                       response codes and retryable exceptions, if it returns true it will be retried
+         */
+        public RetrySettings(final int maxRetries,
+                             final Collection<Integer> retryableHttpCodes,
+                             final Collection<Class<? extends Exception>> retryableExceptions,
+                             final Collection<String> retryableMessages,
+                             final Predicate<Throwable> retryPredicate) {
+            this(maxRetries, retryableHttpCodes, retryableExceptions, retryableMessages, retryPredicate,
+                    RetryHandler.DEFAULT_BACKOFF_POLICY);
+        }
+
+        /**
+         * @param backoffPolicy the new backoff policy
+         * @return a copy of these settings with the given backoff policy
+         */
+        public RetrySettings withBackoffPolicy(final BackoffPolicy backoffPolicy) {
+            return new RetrySettings(maxRetries, retryableHttpCodes, retryableExceptions, retryableMessages,
+                    retryPredicate, backoffPolicy);
+        }
+    }
+
+    /**
+     * Settings which control the in-memory block cache shared by all the channels of a file system
+     */
+    public record CacheSettings(int blockSize, long maxCacheBytes) {
+
+        /**
+         * Settings to control the block cache
+         * @param blockSize size in bytes of each cached block, must be > 0
+         * @param maxCacheBytes maximum number of bytes held by the cache, 0 disables the cache
+         */
+        public CacheSettings {
+            Utils.validateArg(blockSize > 0, "blockSize must be > 0");
+            Utils.validateArg(maxCacheBytes >= 0, "maxCacheBytes must be >= 0");
+        }
+
+        /**
+         * @return true if blocks should be cached
+         */
+        public boolean isEnabled() {
+            return maxCacheBytes > 0;
+        }
+    }
+
+    /**
+     * Settings which control how many blocks are fetched in the background when a channel is read sequentially.
+     * Blocks have the size given by {@link CacheSettings#blockSize()}.
+     */
+    public record ReadAheadSettings(int initialBlocks, int maxBlocks) {
+
+        /**
+         * Settings to control read-ahead, the window starts at {@code initialBlocks} when sequential reads
+         * are detected, doubles on every read served from prefetched blocks up to {@code maxBlocks}, and
+         * collapses when the channel seeks
+         * @param initialBlocks number of blocks to prefetch when sequential reads are first detected, must be > 0
+         *                      if read-ahead is enabled
+         * @param maxBlocks maximum number of blocks to prefetch, 0 disables read-ahead
+         */
+        public ReadAheadSettings {
+            Utils.validateArg(maxBlocks >= 0, "maxBlocks must be >= 0");
+            Utils.validateArg(initialBlocks >= 0 && initialBlocks <= maxBlocks,
+                    "initialBlocks must be >= 0 and <= maxBlocks");
+            Utils.validateArg(maxBlocks == 0 || initialBlocks > 0, "initialBlocks must be > 0 if read-ahead is enabled");
+        }
+
+        /**
+         * @return true if blocks should be prefetched
+         */
+        public boolean isEnabled() {
+            return maxBlocks > 0;
+        }
+    }
+
+    /**
+     * Settings which control how a file is streamed when it is not read through blocks
+     */
+    public record StreamSettings(long chunkSize) {
+
+        /**
+         * Settings to control streaming
+         * @param chunkSize if > 0 the file is requested in bounded ranges of this many bytes, so every response is
+         *                  fully consumed and its connection can be reused for the next one; 0 requests open-ended
+         *                  ranges from the current position to the end of the file
+         */
+        public StreamSettings {
+            Utils.validateArg(chunkSize >= 0, "chunkSize must be >= 0");
+        }
+
+        /**
+         * @return true if the file is requested in bounded chunks
+         */
+        public boolean isChunked() {
+            return chunkSize > 0;
+        }
+    }
+
+    /**
+     * Settings which control the parallel download of large sequential reads of a streamed file.
+     *
+     * <p>Once a streamed channel has read {@code stripeSize} bytes sequentially, the rest of the file is split
+     * into stripes which are requested concurrently over separate connections and handed to the reader in order.
+     */
+    public record StripeSettings(int stripeCount, int stripeSize, long maxBufferedBytes) {
+
+        /**
+         * Settings to control striped downloads
+         * @param stripeCount maximum number of stripes requested concurrently, 0 disables striping
+         * @param stripeSize size in bytes of each stripe, must be > 0
+         * @param maxBufferedBytes maximum number of bytes of stripes downloaded ahead of the reader, must be at least
+         *                         {@code stripeSize} if striping is enabled
+         */
+        public StripeSettings {
+            Utils.validateArg(stripeCount >= 0, "stripeCount must be >= 0");
+            Utils.validateArg(stripeSize > 0, "stripeSize must be > 0");
+            Utils.validateArg(stripeCount == 0 || maxBufferedBytes >= stripeSize,
+                    "maxBufferedBytes must be >= stripeSize if striping is enabled");
+        }
+
+        /**
+         * @return true if large sequential reads should be striped
+         */
+        public boolean isEnabled() {
+            return stripeCount > 0;
+        }
+
+        /**
+         * @return the number of stripes which may be requested at the same time without going over
+         * {@link #maxBufferedBytes()}
+         */
+        public int maxStripesInFlight() {
+            return (int) Math.max(1, Math.min(stripeCount, maxBufferedBytes / stripeSize));
+        }
+    }
+
+    /**
+     * Settings which control the cache of file metadata (size, ETag, Last-Modified and Accept-Ranges) shared by
+     * all the channels of a file system. It is filled from the headers of every HEAD and GET response, so sizes
+     * and existence checks don't require a request of their own while the entries are fresh.
+     */
+    public record MetadataCacheSettings(Duration ttl, int maxEntries) {
+
+        /**
+         * Settings to control the metadata cache
+         * @param ttl how long the metadata of a file is trusted after being received, must be positive
+         * @param maxEntries maximum number of files in the cache, 0 disables the cache
+         */
+        public MetadataCacheSettings {
+            Utils.nonNull(ttl, () -> "ttl");
+            Utils.validateArg(!ttl.isNegative() && !ttl.isZero(), "ttl must be positive");
+            Utils.validateArg(maxEntries >= 0, "maxEntries must be >= 0");
+        }
+
+        /**
+         * @return true if metadata should be cached
+         */
+        public boolean isEnabled() {
+            return maxEntries > 0;
+        }
+    }
+
+    /**
+     * Settings which control how a file is copied to the local disk: it is split in chunks which are requested
+     * concurrently and written directly at their offset in the target file.
+     */
+    public record CopySettings(int concurrency, int chunkSize) {
+
+        /**
+         * Settings to control copies
+         * @param concurrency maximum number of chunks requested at the same time, must be > 0
+         * @param chunkSize size in bytes of each chunk, must be > 0
+         */
+        public CopySettings {
+            Utils.validateArg(concurrency > 0, "concurrency must be > 0");
+            Utils.validateArg(chunkSize > 0, "chunkSize must be > 0");
+        }
+    }
+
+    /**
+     * Settings which control the persistent cache of blocks in a local directory, which is shared by every
+     * channel reading through blocks and survives restarts of the JVM. Blocks have the size given by
+     * {@link CacheSettings#blockSize()}, and are only reused for the ETag of the file they were read from.
+     */
+    public record DiskCacheSettings(Path directory, long maxBytes, Duration validationTtl) {
+
+        /**
+         * Settings to control the disk cache
+         * @param directory the directory where blocks are stored, may be {@code null} only if the cache is disabled
+         * @param maxBytes maximum number of bytes of blocks stored in the directory, 0 disables the cache
+         * @param validationTtl how long the cached blocks of a file are used before checking with a conditional
+         *                      request that the file did not change, must be positive
+         */
+        public DiskCacheSettings {
+            Utils.validateArg(maxBytes >= 0, "maxBytes must be >= 0");
+            Utils.validateArg(maxBytes == 0 || directory != null, "directory must be set if the disk cache is enabled");
+            Utils.nonNull(validationTtl, () -> "validationTtl");
+            Utils.validateArg(!validationTtl.isNegative() && !validationTtl.isZero(), "validationTtl must be positive");
+        }
+
+        /**
+         * @return true if blocks should be stored on disk
+         */
+        public boolean isEnabled() {
+            return maxBytes > 0;
+        }
+    }
+
+    /**
+     * Settings which control how a batch of ranges read with
+     * {@link HttpSeekableByteChannel#readRanges(java.util.List)} is turned into requests: ranges which overlap
+     * or are separated by a small gap are fetched with a single request, and the bytes of the gap are discarded.
+     */
+    public record RangeReadSettings(int maxGap, int maxRequestSize) {
+
+        /**
+         * Settings to control batches of range reads
+         * @param maxGap maximum number of unrequested bytes between two ranges fetched with the same request,
+         *               must be >= 0
+         * @param maxRequestSize maximum number of bytes of a request merging several ranges, must be > 0. A single
+         *                       range larger than this is still fetched with one request
+         */
+        public RangeReadSettings {
+            Utils.validateArg(maxGap >= 0, "maxGap must be >= 0");
+            Utils.validateArg(maxRequestSize > 0, "maxRequestSize must be > 0");
+        }
+    }
+
+    /**
+     * Settings which control the cache of the final location of redirected requests shared by all the requests
+     * of a file system. While an entry is fresh, requests for the file are sent straight to its final location
+     * instead of following the redirect again. An entry is dropped as soon as its location answers with
+     * 403, 404 or 410, as expired pre-signed URLs do, and the redirect is followed again.
+     *
+     * <p>Redirects are only followed if allowed by {@link #redirect()}.
+     */
+    public record RedirectCacheSettings(Duration ttl, int maxEntries) {
+
+        /**
+         * Settings to control the redirect cache
+         * @param ttl how long the final location of a file is used after the redirect was followed, must be positive
+         * @param maxEntries maximum number of files in the cache, 0 disables the cache
+         */
+        public RedirectCacheSettings {
+            Utils.nonNull(ttl, () -> "ttl");
+            Utils.validateArg(!ttl.isNegative() && !ttl.isZero(), "ttl must be positive");
+            Utils.validateArg(maxEntries >= 0, "maxEntries must be >= 0");
+        }
+
+        /**
+         * @return true if the final locations of redirects should be cached
+         */
+        public boolean isEnabled() {
+            return maxEntries > 0;
+        }
+    }
+
+    /**
+     * Settings which control the number of requests in flight to the server of a file system. Every request made
+     * by the library (reads, HEADs, existence checks, copies) waits for its turn in a fair queue once the limit is
+     * reached, instead of being sent and rejected with 429 or 503 by an overloaded server.
+     */
+    public record RequestLimitSettings(int maxRequests) {
+
+        /**
+         * Settings to control the number of concurrent requests
+         * @param maxRequests maximum number of requests in flight to the server of a file system, 0 disables the limit
+         */
+        public RequestLimitSettings {
+            Utils.validateArg(maxRequests >= 0, "maxRequests must be >= 0");
+        }
+
+        /**
+         * @return true if the number of concurrent requests is limited
+         */
+        public boolean isEnabled() {
+            return maxRequests > 0;
+        }
+    }
+
+    /**
+     * Settings which control the retries shared by all the requests to the server of a file system. Each
+     * successful request earns a fraction of a retry, and each retry spends one, so when a server starts failing
+     * the channels of the file system stop retrying together once the retries earned recently are spent, instead
+     * of each of them retrying up to {@link RetrySettings#maxRetries()} times.
+     */
+    public record RetryBudgetSettings(double retryRatio, int maxSavedRetries) {
+
+        /**
+         * Settings to control the retry budget
+         * @param retryRatio retries earned by each successful request, e.g. 0.1 allows one retry per 10 requests
+         * @param maxSavedRetries the most retries which can be saved up, which are also available before any
+         *                        request succeeded, 0 disables the budget
+         */
+        public RetryBudgetSettings {
+            Utils.validateArg(retryRatio >= 0 && Double.isFinite(retryRatio), "retryRatio must be >= 0");
+            Utils.validateArg(maxSavedRetries >= 0, "maxSavedRetries must be >= 0");
+        }
+
+        /**
+         * @return true if the retries are limited by a budget
+         */
+        public boolean isEnabled() {
+            return maxSavedRetries > 0;
+        }
+    }
+
+    /**
+     * Settings which control the circuit breaker of the server of a file system. After a run of consecutive
+     * retryable failures, requests fail fast with a {@link CircuitBreakerOpenException} for a cooldown period
+     * instead of being sent to a server which is not answering. After the cooldown requests are sent again, and
+     * a single failure opens the circuit again until a request succeeds.
+     */
+    public record CircuitBreakerSettings(int failureThreshold, Duration cooldown) {
+
+        /**
+         * Settings to control the circuit breaker
+         * @param failureThreshold number of consecutive retryable failures which open the circuit, 0 disables it
+         * @param cooldown how long requests fail fast once the circuit is open, must be positive
+         */
+        public CircuitBreakerSettings {
+            Utils.validateArg(failureThreshold >= 0, "failureThreshold must be >= 0");
+            Utils.nonNull(cooldown, () -> "cooldown");
+            Utils.validateArg(!cooldown.isNegative() && !cooldown.isZero(), "cooldown must be positive");
+        }
+
+        /**
+         * @return true if requests fail fast while the server keeps failing
+         */
+        public boolean isEnabled() {
+            return failureThreshold > 0;
+        }
+    }
+
+    /**
+     * Settings which control hedged requests. A ranged read of at most {@code maxRequestSize} bytes whose response
+     * has not started to arrive after the given percentile of the recent latencies of its server is sent a second
+     * time, and the first response is used while the other request is cancelled. This trims the tail latency
+     * caused by a few slow connections, at the cost of a bounded number of extra requests.
+     */
+    public record HedgeSettings(int maxRequestSize, double latencyPercentile, double maxHedgeRatio,
+                                Duration minDelay) {
+
+        /**
+         * Settings to control hedged requests
+         * @param maxRequestSize largest ranged read which may be hedged, 0 disables hedging
+         * @param latencyPercentile percentile of the recent times to the first byte of the responses of the server
+         *                          after which a read is hedged, in (0, 1]
+         * @param maxHedgeRatio maximum number of hedged requests as a fraction of all the requests, in [0, 1]
+         * @param minDelay shortest time to wait before hedging a read, must not be negative
+         */
+        public HedgeSettings {
+            Utils.validateArg(maxRequestSize >= 0, "maxRequestSize must be >= 0");
+            Utils.validateArg(latencyPercentile > 0 && latencyPercentile <= 1, "latencyPercentile must be in (0, 1]");
+            Utils.validateArg(maxHedgeRatio >= 0 && maxHedgeRatio <= 1, "maxHedgeRatio must be in [0, 1]");
+            Utils.nonNull(minDelay, () -> "minDelay");
+            Utils.validateArg(!minDelay.isNegative(), "minDelay must be >= 0");
+        }
+
+        /**
+         * @return true if slow reads are hedged
+         */
+        public boolean isEnabled() {
+            return maxRequestSize > 0 && maxHedgeRatio > 0;
+        }
+    }
+
+    /**
+     * Settings which control the detection of stalled streams. Only the time a reader spends waiting for the
+     * stream is measured, so a reader which is slow to consume the stream does not make it look stalled. A stream
+     * which stalls is closed, and the read fails with a {@link java.net.SocketTimeoutException} which is retried
+     * by reopening the stream at the current position.
+     */
+    public record StallSettings(Duration inactivityTimeout, long minBytesPerSecond, Duration throughputWindow) {
+
+        /**
+         * Settings to control stall detection
+         * @param inactivityTimeout longest time a single read may wait for data, {@link Duration#ZERO} for no limit
+         * @param minBytesPerSecond lowest rate at which a stream may deliver data to a waiting reader, 0 for no
+         *                          limit
+         * @param throughputWindow waiting time over which the rate is measured, must be positive
+         */
+        public StallSettings {
+            Utils.nonNull(inactivityTimeout, () -> "inactivityTimeout");
+            Utils.validateArg(!inactivityTimeout.isNegative(), "inactivityTimeout must be >= 0");
+            Utils.validateArg(minBytesPerSecond >= 0, "minBytesPerSecond must be >= 0");
+            Utils.nonNull(throughputWindow, () -> "throughputWindow");
+            Utils.validateArg(!throughputWindow.isNegative() && !throughputWindow.isZero(),
+                    "throughputWindow must be positive");
+        }
+
+        /**
+         * @return true if stalled streams are detected
+         */
+        public boolean isEnabled() {
+            return !inactivityTimeout.isZero() || minBytesPerSecond > 0;
+        }
+    }
+
+    /**
+     * Settings which control the executor of the http client of each file system, which runs the asynchronous
+     * tasks of the client and processes the responses of every request sent with it.
+     *
+     * <p>By default the JDK gives every client its own unbounded cached thread pool, which grows with the number
+     * of concurrent requests. A bounded pool caps the threads of each client, and virtual threads (Java 21 or
+     * later) make them cheap enough not to matter.
+     */
+    public record ExecutorSettings(ExecutorType type, int maxThreads, Executor executor) {
+
+        /**
+         * The kinds of executors which may be used by the clients
+         */
+        public enum ExecutorType {
+            /** the default executor of the JDK */
+            DEFAULT,
+            /** a new virtual thread for each task, requires Java 21 or later */
+            VIRTUAL_THREADS,
+            /** a pool of at most {@link #maxThreads()} platform threads for each client */
+            BOUNDED_THREAD_POOL,
+            /** the given {@link #executor()}, shared by every client */
+            CUSTOM
+        }
+
+        /**
+         * Settings to control the executor of the clients, see the factory methods
+         * @param type the kind of executor to use
+         * @param maxThreads maximum number of threads of each client, must be > 0 for a bounded pool and 0 otherwise
+         * @param executor the executor to use, must be set for a custom executor and {@code null} otherwise
+         */
+        public ExecutorSettings {
+            Utils.nonNull(type, () -> "type");
+            Utils.validateArg((type == ExecutorType.BOUNDED_THREAD_POOL) == (maxThreads > 0),
+                    "maxThreads must be > 0 for a bounded thread pool and 0 otherwise");
+            Utils.validateArg((type == ExecutorType.CUSTOM) == (executor != null),
+                    "executor must be set for a custom executor and null otherwise");
+            Utils.validateArg(type != ExecutorType.VIRTUAL_THREADS || getVirtualThreadFactory() != null,
+                    "Virtual threads require Java 21 or later");
+        }
+
+        /**
+         * @return settings which use the default executor of the JDK
+         */
+        public static ExecutorSettings defaultExecutor() {
+            return new ExecutorSettings(ExecutorType.DEFAULT, 0, null);
+        }
+
+        /**
+         * @return settings which run every task in a new virtual thread
+         * @throws IllegalArgumentException if virtual threads are not supported by the JVM
+         */
+        public static ExecutorSettings virtualThreads() {
+            return new ExecutorSettings(ExecutorType.VIRTUAL_THREADS, 0, null);
+        }
+
+        /**
+         * @param maxThreads maximum number of threads of each client, idle threads are released after a minute
+         * @return settings which give every client a bounded pool of daemon threads
+         */
+        public static ExecutorSettings boundedThreadPool(final int maxThreads) {
+            return new ExecutorSettings(ExecutorType.BOUNDED_THREAD_POOL, maxThreads, null);
+        }
+
+        /**
+         * @param executor the executor shared by all the clients, which is never shut down by the file systems
+         * @return settings which use the given executor
+         */
+        public static ExecutorSettings custom(final Executor executor) {
+            return new ExecutorSettings(ExecutorType.CUSTOM, 0, Utils.nonNull(executor, () -> "null executor"));
+        }
+
+        /**
+         * Creates the executor for a new client.
+         * @return the executor to give to the client, {@code null} to use the default executor of the JDK
+         */
+        public Executor newExecutor() {
+            return switch (type) {
+                case DEFAULT -> null;
+                case CUSTOM -> executor;
+                case VIRTUAL_THREADS -> {
+                    try {
+                        yield (Executor) getVirtualThreadFactory().invoke(null);
+                    } catch (final ReflectiveOperationException e) {
+                        throw new IllegalStateException("Failed to create a virtual thread executor", e);
+                    }
+                }
+                case BOUNDED_THREAD_POOL -> {
+                    final AtomicInteger threads = new AtomicInteger();
+                    final ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                            1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), task -> {
+                                final Thread thread = new Thread(task, "http-nio-client-" + threads.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    // the pool of a client which is not used anymore does not keep any thread alive
+                    pool.allowCoreThreadTimeOut(true);
+                    yield pool;
+                }
+            };
+        }
+
+        // Executors.newVirtualThreadPerTaskExecutor, looked up reflectively because the library targets Java 17
+        private static Method getVirtualThreadFactory() {
+            try {
+                return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            } catch (final NoSuchMethodException e) {
+                return null;
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,17 @@
 package org.broadinstitute.http.nio;
 
-import org.broadinstitute.http.nio.utils.HttpUtils;
+import org.broadinstitute.http.nio.utils.ExpiringCache;
 import org.broadinstitute.http.nio.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.http.HttpClient;
@@ -17,19 +19,47 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * Implementation for a {@link SeekableByteChannel} for {@link URL} open as a connection.
  *
- * <p>The current implementation is thread-safe using the {@code synchronized} keyword in every
- * method.
+ * <p>The current implementation is thread-safe: reads from the current position, seeks and closing are
+ * guarded by a {@link ReentrantLock}, and {@link #read(ByteBuffer, long)}, {@link #position()} and
+ * {@link #size()} do not take it. Because no monitor is held around network I/O, virtual threads blocked
+ * on a read unmount from their carrier thread.
+ *
+ * <p>If a {@link BlockCache} is provided, read-ahead is enabled or a {@link DiskBlockCache} is configured,
+ * reads are served from fixed-size blocks which are requested with bounded range requests. Cached blocks
+ * are shared with every other channel using the same cache, and when the channel is read sequentially the
+ * following blocks are fetched in the background (see {@link HttpFileSystemProviderSettings.ReadAheadSettings}).
+ *
+ * <p>Otherwise the file is streamed, either with a single open-ended range request or with bounded
+ * range requests of {@link HttpFileSystemProviderSettings.StreamSettings#chunkSize()} bytes. Large
+ * sequential reads of a streamed file can be switched to a striped download over several concurrent
+ * connections (see {@link HttpFileSystemProviderSettings.StripeSettings}).
+ *
+ * <p>Opening the channel does not make any request: the connection is established on the first read,
+ * at the position of the channel at that time.
  *
  * @author Daniel Gomez-Sanchez (magicDGS)
  * @implNote this seekabe byte channel is read-only.
@@ -37,27 +67,96 @@ import java.util.Map;
 public class HttpSeekableByteChannel implements SeekableByteChannel {
 
     private static final long SKIP_DISTANCE = 8 * 1024;
+    // maximum number of bytes left in a chunk which are consumed on seek to keep the connection alive
+    private static final long DRAIN_DISTANCE = 64 * 1024;
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpSeekableByteChannel.class);
 
     // url and proxy for the file
     private final URI uri;
     private final RetryHandler retryHandler;
 
+    // file system providing the shared client and caches, and the settings used to get them
+    private final HttpFileSystem fileSystem;
+    private final HttpFileSystemProviderSettings settings;
+
+    // file systems shared by the channels created without one, with the number of open channels using them,
+    // guarded by the map itself
+    private static final Map<StandaloneKey, StandaloneFileSystem> STANDALONE_FILE_SYSTEMS = new HashMap<>();
+
+    // the key of the shared file system of this channel if it was created without one, null otherwise
+    private final StandaloneKey standaloneKey;
+
     private final HttpClient client;
+    // hedges the small ranged reads (may be null)
+    private final RequestHedger hedger;
     private ReadableByteChannel channel = null;
     private InputStream backingStream = null;
 
-    // current position of the SeekableByteChannel
-    private long position = 0;
+    // length of the bounded range requests used to stream the file (0 for open-ended requests)
+    private final long chunkSize;
+
+    // true if the current response is an HTTP/2 stream, which can be cancelled without closing its connection
+    private boolean multiplexed = false;
+
+    // position where the current response ends and the next chunk must be requested
+    // (Long.MAX_VALUE if the response reaches the end of the file)
+    private long streamEnd = Long.MAX_VALUE;
+
+    private final HttpFileSystemProviderSettings.StripeSettings stripeSettings;
+
+    // parallel download used instead of the stream for large sequential reads (may be null)
+    private StripedDownload stripes = null;
+
+    // number of bytes streamed since the last seek
+    private long sequentialBytes = 0;
+
+    // cache of blocks shared with other channels (may be null)
+    private final BlockCache blockCache;
+
+    // persistent cache of blocks (may be null)
+    private final DiskBlockCache diskCache;
+
+    // ETag which the blocks of the disk cache must match, resolved on first use
+    private final ReentrantLock diskCacheLock = new ReentrantLock();
+    private volatile boolean diskCacheResolved = false;
+    private volatile String diskCacheETag = null;
+
+    // metadata of files shared with other channels (may be null)
+    private final ExpiringCache<URI, HttpFileMetadata> metadataCache;
+
+    // blocks prefetched on sequential reads (may be null)
+    private final ReadAhead readAhead;
+
+    // size of the blocks read if the file is not streamed (0 if the file is streamed)
+    private final int blockSize;
+
+    // last block read, kept in case the cache is disabled or evicts it
+    private long currentBlockIndex = -1;
+    private byte[] currentBlock = null;
+
+    // position after the last read, to detect sequential access
+    private long lastReadEnd = -1;
+
+    // local copy of the file, read instead of the server if it ignores range requests (null until required)
+    private final ReentrantLock localCopyLock = new ReentrantLock();
+    private volatile FileChannel localCopy = null;
+
+    private volatile boolean open = true;
+
+    // guards the stream, the stripes, the current block and the position
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // current position of the SeekableByteChannel, only modified with the lock held
+    private volatile long position = 0;
 
     // the size of the whole file (-1 is not initialized)
-    private long size = -1;
+    private volatile long size = -1;
 
 
     /**
      * create a new seekable channel with default setttings at beggining of the file
      * @param uri the URI to connect to, this should not include range parameters already
-     * @throws IOException if no connection can be established
+     * @throws IOException kept for compatibility, the connection is only established on the first read
      */
     public HttpSeekableByteChannel(URI uri) throws IOException {
         this(uri, HttpFileSystemProviderSettings.DEFAULT_SETTINGS, 0L);
@@ -67,7 +166,7 @@ public class HttpSeekableByteChannel implements SeekableByteChannel {
      * Create a new seekable channel with default setttins and seek to the given position
      * @param uri the URI to connect to, this should not include range parameters already
      * @param position an initial byte offset to open the file at
-     * @throws IOException if no connection can be established
+     * @throws IOException kept for compatibility, the connection is only established on the first read
      */
     public HttpSeekableByteChannel(URI uri, long position) throws IOException {
         this(uri, HttpFileSystemProviderSettings.DEFAULT_SETTINGS, position);
@@ -75,22 +174,464 @@ public class HttpSeekableByteChannel implements SeekableByteChannel {
 
     /**
      * Create a new seekable channel which reads from the requested URI
+     *
+     * <p>The open channels created this way for the same server and settings share a client and caches, which are
+     * released when the last of them is closed.
      * @param uri the URI to connect to, this should not include range parameters already
      * @param settings settings to configure the connection and retry handling
      * @param position an initial byte offset to open the file at
-     * @throws IOException if no connection can be established
+     * @throws IOException kept for compatibility, the connection is only established on the first read
      */
     public HttpSeekableByteChannel(final URI uri, HttpFileSystemProviderSettings settings, final long position) throws IOException {
+        this(uri, null, settings, position, StandaloneKey.of(uri, settings));
+    }
+
+    /**
+     * Create a new seekable channel which shares the client and caches of a file system
+     * @param uri the URI to connect to, this should not include range parameters already
+     * @param fileSystem the file system of the URI
+     * @param settings settings to configure the connection and retry handling
+     * @param position an initial byte offset to open the file at
+     * @throws IOException kept for compatibility, the connection is only established on the first read
+     */
+    HttpSeekableByteChannel(final URI uri, final HttpFileSystem fileSystem,
+                            final HttpFileSystemProviderSettings settings, final long position) throws IOException {
+        this(uri, Utils.nonNull(fileSystem, () -> "null file system"), settings, position, null);
+    }
+
+    // a channel of the given file system, or of the standalone file system of the key if it is not null
+    private HttpSeekableByteChannel(final URI uri, final HttpFileSystem fileSystem,
+                                    final HttpFileSystemProviderSettings settings, final long position,
+                                    final StandaloneKey standaloneKey) throws IOException {
         this.uri = Utils.nonNull(uri, () -> "null URI");
-        this.client = HttpUtils.getClient(Utils.nonNull(settings, () -> "settings"));
-        this.retryHandler = new RetryHandler(settings.retrySettings(), uri);
-        // and instantiate the stream/channel
-        retryHandler.runWithRetries(() -> openChannel(position));
+        this.settings = Utils.nonNull(settings, () -> "settings");
+        Utils.validateArg(position >= 0, "Cannot open at a negative position: " + position);
+        this.standaloneKey = standaloneKey;
+        this.fileSystem = standaloneKey == null ? fileSystem : acquireStandaloneFileSystem(standaloneKey);
+        try {
+            this.client = this.fileSystem.getClient(settings);
+            this.hedger = this.fileSystem.getRequestHedger(settings);
+            this.retryHandler = this.fileSystem.getRetryHandler(uri, settings);
+            this.blockCache = this.fileSystem.getBlockCache(settings.cacheSettings());
+            this.metadataCache = this.fileSystem.getMetadataCache(settings.metadataCacheSettings());
+            this.diskCache = settings.diskCacheSettings().isEnabled()
+                    ? DiskBlockCache.forSettings(settings.diskCacheSettings())
+                    : null;
+        } catch (final IOException | RuntimeException e) {
+            if (standaloneKey != null) {
+                releaseStandaloneFileSystem(standaloneKey);
+            }
+            throw e;
+        }
+        this.readAhead = settings.readAheadSettings().isEnabled() ? new ReadAhead(settings.readAheadSettings()) : null;
+        this.chunkSize = settings.streamSettings().chunkSize();
+        this.stripeSettings = settings.stripeSettings();
+        if (blockCache != null) {
+            this.blockSize = blockCache.getBlockSize();
+        } else if (readAhead != null || diskCache != null) {
+            this.blockSize = settings.cacheSettings().blockSize();
+        } else {
+            this.blockSize = 0;
+        }
+        final HttpFileMetadata metadata = metadataCache == null ? null : metadataCache.get(uri);
+        if (metadata != null) {
+            this.size = metadata.size();
+        }
+        // the stream/channel or the first block are requested on the first read
+        this.position = position;
+    }
+
+    // the server and settings of standalone channels which share a file system, and so a client and caches
+    private record StandaloneKey(String scheme, String authority, HttpFileSystemProviderSettings settings) {
+
+        private static StandaloneKey of(final URI uri, final HttpFileSystemProviderSettings settings) {
+            Utils.nonNull(uri, () -> "null URI");
+            return new StandaloneKey(Utils.nonNull(uri.getScheme(), () -> "URI without scheme: " + uri).toLowerCase(),
+                    Utils.nonNull(uri.getAuthority(), () -> "URI without authority: " + uri),
+                    Utils.nonNull(settings, () -> "settings"));
+        }
+    }
+
+    // a file system which is not registered with any provider, and the number of open channels using it
+    private static final class StandaloneFileSystem {
+        private final HttpFileSystem fileSystem;
+        private int channels = 0;
+
+        private StandaloneFileSystem(final StandaloneKey key) {
+            final HttpAbstractFileSystemProvider provider = HttpsFileSystemProvider.SCHEME.equals(key.scheme())
+                    ? new HttpsFileSystemProvider()
+                    : new HttpFileSystemProvider();
+            this.fileSystem = new HttpFileSystem(provider, key.authority());
+        }
+    }
+
+    private static HttpFileSystem acquireStandaloneFileSystem(final StandaloneKey key) {
+        synchronized (STANDALONE_FILE_SYSTEMS) {
+            final StandaloneFileSystem shared = STANDALONE_FILE_SYSTEMS.computeIfAbsent(key, StandaloneFileSystem::new);
+            shared.channels++;
+            return shared.fileSystem;
+        }
+    }
+
+    // close the shared file system once its last channel is closed
+    private static void releaseStandaloneFileSystem(final StandaloneKey key) {
+        final HttpFileSystem unused;
+        synchronized (STANDALONE_FILE_SYSTEMS) {
+            final StandaloneFileSystem shared = STANDALONE_FILE_SYSTEMS.get(key);
+            if (--shared.channels > 0) {
+                return;
+            }
+            STANDALONE_FILE_SYSTEMS.remove(key);
+            unused = shared.fileSystem;
+        }
+        unused.close();
+    }
+
+    /**
+     * Gets the file system which provides the client and caches of this channel.
+     *
+     * @return the file system given to the constructor, or the one shared by the standalone channels of the same
+     * server and settings
+     */
+    HttpFileSystem getFileSystem() {
+        return fileSystem;
     }
 
     @Override
-    public synchronized int read(final ByteBuffer dst) throws IOException {
+    public int read(final ByteBuffer dst) throws IOException {
+        lock.lock();
+        try {
+            assertChannelIsOpen();
+            FileChannel local = getLocalCopy();
+            if (local == null) {
+                try {
+                    return readRemote(dst);
+                } catch (final IncompatibleResponseToRangeQueryException e) {
+                    local = switchToLocalCopy(e);
+                }
+            }
+            final int read = local.read(dst, position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // read at the current position from the blocks, the stripes or the stream
+    private int readRemote(final ByteBuffer dst) throws IOException {
+        if (blockSize != 0) {
+            return readFromBlocks(dst);
+        }
+        if (stripes != null) {
+            final int read = readFromStripes(dst);
+            if (stripes != null) {
+                return read;
+            }
+        }
+        if (channel == null) {
+            retryHandler.runWithRetries(() -> openChannel(position));
+        }
+        int read = readFromStream(dst);
+        if (read == -1 && position == streamEnd) {
+            // the chunk was fully consumed, so its connection can be reused for the next one
+            closeSilently();
+            retryHandler.runWithRetries(() -> openChannel(position));
+            read = readFromStream(dst);
+        }
+        if (read > 0) {
+            sequentialBytes += read;
+            startStripesIfSequential();
+        }
+        return read;
+    }
+
+    /**
+     * Reads a sequence of bytes from this channel into the given buffer, starting at the given file position.
+     *
+     * <p>This method works in the same manner as {@link java.nio.channels.FileChannel#read(ByteBuffer, long)}:
+     * the position of the channel is not modified, and it may be called concurrently from several threads.
+     * Each call is served from the block cache if there is one, or with its own range request otherwise.
+     *
+     * @param dst the buffer into which bytes are to be transferred
+     * @param position the file position at which the transfer is to begin, must be non-negative
+     * @return the number of bytes read, possibly zero, or -1 if the given position is greater than or
+     * equal to the file's current size
+     * @throws IOException if an I/O error occurs
+     */
+    public int read(final ByteBuffer dst, final long position) throws IOException {
         assertChannelIsOpen();
+        Utils.validateArg(position >= 0, "Cannot read from a negative position: " + position);
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (size != -1 && position >= size) {
+            return -1;
+        }
+        final FileChannel local = getLocalCopy();
+        if (local != null) {
+            return local.read(dst, position);
+        }
+        final int start = dst.position();
+        try {
+            return readRemote(dst, position);
+        } catch (final IncompatibleResponseToRangeQueryException e) {
+            // the bytes which were already read are read again
+            dst.position(start);
+            return switchToLocalCopy(e).read(dst, position);
+        }
+    }
+
+    // read at the given position from the blocks, or with a range request if there is no block cache
+    private int readRemote(final ByteBuffer dst, final long position) throws IOException {
+        if (blockCache == null) {
+            final byte[] bytes = retryHandler.runWithRetries(() -> readRange(position, dst.remaining(), null));
+            dst.put(bytes);
+            return bytes.length == 0 ? -1 : bytes.length;
+        }
+        int read = 0;
+        while (dst.hasRemaining()) {
+            final long blockIndex = (position + read) / blockSize;
+            final byte[] block = loadBlock(blockIndex);
+            final int offset = (int) ((position + read) % blockSize);
+            if (offset >= block.length) {
+                break;
+            }
+            final int length = Math.min(dst.remaining(), block.length - offset);
+            dst.put(block, offset, length);
+            read += length;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Reads many ranges of the file at once, without modifying the position of the channel.
+     *
+     * <p>Ranges which overlap or are separated by less than
+     * {@link HttpFileSystemProviderSettings.RangeReadSettings#maxGap()} bytes are merged, and the resulting
+     * requests are sent concurrently. Like {@link #read(ByteBuffer, long)}, this may be called concurrently
+     * from several threads.
+     *
+     * @param ranges the ranges to read, in any order
+     * @return a buffer with the bytes of each range, in the same order as the ranges. A buffer is shorter than
+     * its range if the range goes beyond the end of the file. Buffers of ranges fetched by the same request
+     * share their backing array.
+     * @throws IOException if a request fails
+     */
+    public List<ByteBuffer> readRanges(final List<ByteRange> ranges) throws IOException {
+        assertChannelIsOpen();
+        Utils.nonNull(ranges, () -> "null ranges");
+        final FileChannel local = getLocalCopy();
+        if (local != null) {
+            return readRanges(local, ranges);
+        }
+        try {
+            return readRangesRemote(ranges);
+        } catch (final IncompatibleResponseToRangeQueryException e) {
+            return readRanges(switchToLocalCopy(e), ranges);
+        }
+    }
+
+    // read the ranges from the local copy of the file
+    private static List<ByteBuffer> readRanges(final FileChannel local, final List<ByteRange> ranges) throws IOException {
+        final List<ByteBuffer> buffers = new ArrayList<>(ranges.size());
+        for (final ByteRange range : ranges) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(range.length(), local.size() - range.offset())));
+            while (buffer.hasRemaining() && local.read(buffer, range.offset() + buffer.position()) != -1) {
+                // read until the end of the range
+            }
+            buffers.add(buffer.flip());
+        }
+        return buffers;
+    }
+
+    // merge the ranges and request them concurrently
+    private List<ByteBuffer> readRangesRemote(final List<ByteRange> ranges) throws IOException {
+        final List<Integer> order = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            Utils.nonNull(ranges.get(i), () -> "null range");
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong(i -> ranges.get(i).offset()));
+
+        // merge the ranges in order of offset, and start the request for each group
+        final HttpFileSystemProviderSettings.RangeReadSettings rangeSettings = settings.rangeReadSettings();
+        final List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        final long[] requestStarts = new long[ranges.size()];
+        final int[] requestIndexes = new int[ranges.size()];
+        long start = -1;
+        long end = -1;
+        for (final int i : order) {
+            final ByteRange range = ranges.get(i);
+            if (start == -1 || range.offset() > end + rangeSettings.maxGap()
+                    || Math.max(end, range.end()) - start > rangeSettings.maxRequestSize()) {
+                if (start != -1) {
+                    requests.add(requestRange(start, end));
+                }
+                start = range.offset();
+                end = range.end();
+            } else {
+                end = Math.max(end, range.end());
+            }
+            requestStarts[i] = start;
+            requestIndexes[i] = requests.size();
+        }
+        if (start != -1) {
+            requests.add(requestRange(start, end));
+        }
+        LOGGER.debug("Reading {} ranges of {} with {} requests", ranges.size(), uri, requests.size());
+
+        final List<ByteBuffer> buffers = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            final byte[] bytes = await(requests.get(requestIndexes[i]));
+            final int offset = (int) Math.min(bytes.length, ranges.get(i).offset() - requestStarts[i]);
+            final int length = Math.min(ranges.get(i).length(), bytes.length - offset);
+            buffers.add(ByteBuffer.wrap(bytes, offset, length).slice());
+        }
+        return buffers;
+    }
+
+    /**
+     * Reads the last bytes of the file, without modifying the position of the channel.
+     *
+     * <p>If the size of the file is not known yet, the bytes are requested with a suffix range
+     * ({@code Range: bytes=-length}) and the size is learned from the same response, so reading the footer
+     * of a file takes a single request. The size is shared with the other channels through the metadata
+     * cache, and the complete blocks of the tail are added to the block cache.
+     *
+     * @param length the number of bytes to read from the end of the file, must be > 0
+     * @return a buffer with the last {@code length} bytes of the file, or the whole file if it is shorter
+     * @throws IOException if the request fails
+     */
+    public ByteBuffer readTail(final int length) throws IOException {
+        assertChannelIsOpen();
+        Utils.validateArg(length > 0, "length must be > 0");
+        if (size == -1) {
+            final byte[] tail = retryHandler.runWithRetries(() -> readSuffix(length));
+            if (tail != null) {
+                cacheTail(tail);
+                return ByteBuffer.wrap(tail);
+            }
+            // the tail is read from the local copy of the file
+            fileSystem.setIgnoresRangeRequests();
+        }
+        final long fileSize = size();
+        final ByteBuffer tail = ByteBuffer.allocate((int) Math.min(length, fileSize));
+        while (tail.hasRemaining()) {
+            if (read(tail, fileSize - tail.capacity() + tail.position()) == -1) {
+                throw new EOFException("File at " + uri + " is shorter than its size " + fileSize);
+            }
+        }
+        return tail.flip();
+    }
+
+    // request the last bytes of the file, or return null if the server does not honor suffix ranges
+    private byte[] readSuffix(final int length) throws IOException {
+        final HttpRequest request = HttpRequest.newBuilder(uri).GET()
+                .setHeader("Range", "bytes=-" + length)
+                .build();
+        final HttpResponse<InputStream> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (final IOException ex) {
+            throw new IOException("Failed to read the last " + length + " bytes of " + uri, ex);
+        } catch (final InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while reading the last bytes of " + uri);
+        }
+        // closing the body stops the download of a response which is not used
+        try (final InputStream body = response.body()) {
+            switch (response.statusCode()) {
+                case 206 -> {
+                    recordMetadata(response);
+                    return body.readAllBytes();
+                }
+                case 416 -> {
+                    // a suffix range cannot be satisfied by an empty file
+                    return new byte[0];
+                }
+                case 200 -> {
+                    return null;
+                }
+                default -> {
+                    assertGoodHttpResponse(response, true);
+                    return null;
+                }
+            }
+        }
+    }
+
+    // add the complete blocks of the tail of the file to the block cache
+    private void cacheTail(final byte[] tail) {
+        final long fileSize = size;
+        if (blockCache == null || fileSize == -1) {
+            return;
+        }
+        final long tailStart = fileSize - tail.length;
+        for (long blockIndex = (tailStart + blockSize - 1) / blockSize; blockIndex * blockSize < fileSize; blockIndex++) {
+            final long start = blockIndex * blockSize;
+            final long end = Math.min(start + blockSize, fileSize);
+            blockCache.put(uri, blockIndex, Arrays.copyOfRange(tail, (int) (start - tailStart), (int) (end - tailStart)));
+        }
+    }
+
+    // start the request for the bytes in [start, end), with retries
+    private CompletableFuture<byte[]> requestRange(final long start, final long end) {
+        if (end == start) {
+            return CompletableFuture.completedFuture(new byte[0]);
+        }
+        return retryHandler.runWithRetriesAsync(() -> readRangeAsync(start, (int) (end - start), null));
+    }
+
+    private static byte[] await(final CompletableFuture<byte[]> request) throws IOException {
+        try {
+            return request.get();
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a range");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Failed to read a range", e.getCause());
+        }
+    }
+
+    // switch to a striped download once enough bytes were read sequentially
+    private void startStripesIfSequential() {
+        if (stripeSettings.isEnabled() && sequentialBytes >= stripeSettings.stripeSize()
+                && (size == -1 || size - position > stripeSettings.stripeSize())) {
+            LOGGER.debug("Starting striped download of {} at position {}", uri, position);
+            releaseStream();
+            final int stripeSize = stripeSettings.stripeSize();
+            stripes = new StripedDownload(stripeSettings, position, start -> readRangeAsync(start, stripeSize, null));
+        }
+    }
+
+    // read from the striped download, going back to streaming the file if it fails
+    private int readFromStripes(final ByteBuffer dst) throws IOException {
+        try {
+            final int read = stripes.read(dst);
+            if (read != -1) {
+                position += read;
+            }
+            return read;
+        } catch (final InterruptedIOException e) {
+            throw e;
+        } catch (final IOException e) {
+            LOGGER.warn("Striped download of {} failed at position {}, streaming instead: {}", uri, position, e.getMessage());
+            closeStripes();
+            return 0;
+        }
+    }
+
+    private void closeStripes() {
+        stripes.close();
+        stripes = null;
+        sequentialBytes = 0;
+    }
+
+    private int readFromStream(final ByteBuffer dst) throws IOException {
         final int read = retryHandler.tryOnceThenWithRetries(
                 () -> readWithoutPerturbingTheBufferIfAnErrorOccurs(dst, channel),
                 () -> {
@@ -106,6 +647,354 @@ public class HttpSeekableByteChannel implements SeekableByteChannel {
         return read;
     }
 
+    // copy as many bytes as possible from the blocks, loading the missing ones
+    private int readFromBlocks(final ByteBuffer dst) throws IOException {
+        final boolean sequential = position == lastReadEnd;
+        if (readAhead != null && !sequential) {
+            readAhead.reset();
+        }
+        int read = 0;
+        while (dst.hasRemaining()) {
+            final long blockIndex = position / blockSize;
+            if (readAhead != null && sequential) {
+                readAhead.prefetchAfter(blockIndex, this::fetchBlockAsync);
+            }
+            final byte[] block = getBlock(blockIndex);
+            final int offset = (int) (position % blockSize);
+            if (block.length > 0 && block.length < blockSize && size == -1) {
+                // a short block is the last one, so the size of the file is known
+                size = blockIndex * blockSize + block.length;
+            }
+            if (offset >= block.length) {
+                // the last block of the file was already consumed
+                break;
+            }
+            final int length = Math.min(dst.remaining(), block.length - offset);
+            dst.put(block, offset, length);
+            position += length;
+            read += length;
+        }
+        lastReadEnd = position;
+        return read == 0 && dst.hasRemaining() ? -1 : read;
+    }
+
+    private byte[] getBlock(final long blockIndex) throws IOException {
+        if (blockIndex != currentBlockIndex) {
+            byte[] block = readAhead == null ? null : readAhead.take(blockIndex);
+            if (block == null) {
+                block = loadBlock(blockIndex);
+            }
+            currentBlock = block;
+            currentBlockIndex = blockIndex;
+        }
+        return currentBlock;
+    }
+
+    // load a block through the cache if there is one
+    private byte[] loadBlock(final long blockIndex) throws IOException {
+        final RetryHandler.IOSupplier<byte[]> loader = () -> readBlock(blockIndex);
+        return blockCache == null ? loader.get() : blockCache.getOrLoad(uri, blockIndex, loader);
+    }
+
+    // read a block from the disk cache if it is there, or from the server otherwise
+    private byte[] readBlock(final long blockIndex) throws IOException {
+        final String eTag = diskCache == null ? null : getDiskCacheETag();
+        if (eTag != null) {
+            final byte[] block = diskCache.get(uri, eTag, blockSize, blockIndex);
+            if (block != null) {
+                return block;
+            }
+        }
+        final byte[] block = retryHandler.runWithRetries(() -> readRange(blockIndex * blockSize, blockSize, eTag));
+        if (block == null) {
+            invalidateDiskCache(eTag);
+            return retryHandler.runWithRetries(() -> readRange(blockIndex * blockSize, blockSize, null));
+        }
+        if (eTag != null) {
+            diskCache.put(uri, eTag, blockSize, blockIndex, block);
+        }
+        return block;
+    }
+
+    // drop the blocks on disk of a version of the file which is not current anymore, the ETag is looked up again
+    private void invalidateDiskCache(final String eTag) {
+        LOGGER.debug("{} changed since its ETag {} was validated, dropping its blocks on disk", uri, eTag);
+        if (eTag.equals(diskCache.getETag(uri))) {
+            diskCache.invalidate(uri);
+        }
+        if (metadataCache != null) {
+            metadataCache.invalidate(uri);
+        }
+        diskCacheLock.lock();
+        try {
+            if (eTag.equals(diskCacheETag)) {
+                diskCacheETag = null;
+                diskCacheResolved = false;
+            }
+        } finally {
+            diskCacheLock.unlock();
+        }
+    }
+
+    // get the ETag the blocks of the disk cache must match, validated against the server at most once per TTL
+    private String getDiskCacheETag() throws IOException {
+        diskCacheLock.lock();
+        try {
+            if (!diskCacheResolved) {
+                diskCacheETag = validateDiskCache();
+                diskCacheResolved = true;
+            }
+            return diskCacheETag;
+        } finally {
+            diskCacheLock.unlock();
+        }
+    }
+
+    // the ETag the blocks are stored for, null if the file has no strong ETag and is not cached on disk
+    private String validateDiskCache() throws IOException {
+        final String storedETag = diskCache.getETag(uri);
+        if (storedETag != null && isWeak(storedETag)) {
+            diskCache.invalidate(uri);
+        }
+        final String cachedETag = storedETag == null || isWeak(storedETag) ? null : storedETag;
+        if (cachedETag == null) {
+            // nothing to validate, the blocks will be stored for the current ETag
+            final HttpFileMetadata metadata = fileSystem.getMetadata(uri, settings);
+            if (metadata == null) {
+                throw new FileNotFoundException("File not found at " + uri);
+            }
+            return metadata.eTag() == null || isWeak(metadata.eTag()) ? null : metadata.eTag();
+        } else if (diskCache.isFresh(uri)) {
+            return cachedETag;
+        }
+        final HttpRequest request = HttpRequest.newBuilder(uri)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .setHeader("If-None-Match", cachedETag)
+                .build();
+        return retryHandler.runWithRetries(() -> {
+            final HttpResponse<Void> response;
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while validating the cached blocks of " + uri);
+            }
+            if (response.statusCode() == 304) {
+                diskCache.markValidated(uri);
+                return cachedETag;
+            }
+            assertGoodHttpResponse(response, false);
+            recordMetadata(response);
+            final String eTag = response.headers().firstValue("etag").orElse(null);
+            if (cachedETag.equals(eTag)) {
+                diskCache.markValidated(uri);
+            } else {
+                LOGGER.debug("{} changed since its blocks were cached on disk", uri);
+                diskCache.invalidate(uri);
+            }
+            return eTag == null || isWeak(eTag) ? null : eTag;
+        });
+    }
+
+    // a weak ETag does not identify the bytes of the file, so its ranges may not be cached or pinned with If-Match
+    private static boolean isWeak(final String eTag) {
+        return eTag.startsWith("W/");
+    }
+
+    // start fetching a block in the background, or return null if it's cached or beyond the end of the file
+    private CompletableFuture<byte[]> fetchBlockAsync(final long blockIndex) {
+        final long start = blockIndex * blockSize;
+        if ((size != -1 && start >= size) || (blockCache != null && blockCache.get(uri, blockIndex) != null)) {
+            return null;
+        }
+        // only blocks of an ETag which was already validated are read from or written to the disk cache
+        final String eTag = diskCacheETag;
+        if (eTag != null) {
+            final byte[] block = diskCache.get(uri, eTag, blockSize, blockIndex);
+            if (block != null) {
+                return CompletableFuture.completedFuture(block);
+            }
+        }
+        // the read ahead cancels the returned future, which must cancel the request being made
+        final CompletableFuture<byte[]> fetch = new CompletableFuture<>();
+        final AtomicReference<CompletableFuture<byte[]>> request =
+                new AtomicReference<>(readRangeAsync(start, blockSize, eTag));
+        fetch.whenComplete((block, e) -> {
+            if (fetch.isCancelled()) {
+                request.get().cancel(true);
+            }
+        });
+        request.get().thenCompose(block -> {
+            if (block == null) {
+                invalidateDiskCache(eTag);
+                final CompletableFuture<byte[]> unpinned = readRangeAsync(start, blockSize, null);
+                request.set(unpinned);
+                if (fetch.isCancelled()) {
+                    unpinned.cancel(true);
+                }
+                return unpinned;
+            }
+            if (eTag != null) {
+                diskCache.put(uri, eTag, blockSize, blockIndex, block);
+            }
+            return CompletableFuture.completedFuture(block);
+        }).whenComplete((block, e) -> {
+            if (e != null) {
+                fetch.completeExceptionally(e);
+                return;
+            }
+            if (blockCache != null) {
+                blockCache.put(uri, blockIndex, block);
+            }
+            fetch.complete(block);
+        });
+        return fetch;
+    }
+
+    // read a bounded range of the file fully into memory without blocking, see readRange; cancelling the
+    // returned future cancels the request, which the futures derived from it would not do
+    private CompletableFuture<byte[]> readRangeAsync(final long start, final int length, final String eTag) {
+        final CompletableFuture<HttpResponse<byte[]>> request = sendRangeAsync(start, length, eTag);
+        final CompletableFuture<byte[]> bytes = request
+                .thenApply(response -> {
+                    if (response.statusCode() == 206) {
+                        recordMetadata(response);
+                    } else if (eTag != null && response.statusCode() == 412) {
+                        return null;
+                    } else if (eTag != null && response.statusCode() == 200) {
+                        // the whole file, which may be another version, is read from a local copy instead
+                        invalidateDiskCache(eTag);
+                    }
+                    try {
+                        return getRangeBody(response);
+                    } catch (final IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+        bytes.whenComplete((body, e) -> {
+            if (bytes.isCancelled()) {
+                request.cancel(true);
+            }
+        });
+        return bytes;
+    }
+
+    /**
+     * Read a bounded range of the file fully into memory.
+     * @param start the offset of the first byte to read
+     * @param length the maximum number of bytes to read
+     * @param eTag the version of the file the bytes must belong to, or {@code null} for the current one
+     * @return the bytes in the range, fewer than requested if the range goes beyond the end of the file, or
+     * {@code null} if the file does not match the given ETag anymore
+     * @throws IOException if the request fails
+     */
+    private byte[] readRange(final long start, final int length, final String eTag) throws IOException {
+        final HttpResponse<byte[]> response;
+        try {
+            response = sendRange(start, length, eTag);
+        } catch (final IOException ex) {
+            throw new IOException("Failed to read " + length + " bytes from " + uri + " at position: " + start, ex);
+        } catch (final InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while reading from " + uri + " at position: " + start);
+        }
+        if (response.statusCode() == 206) {
+            recordMetadata(response);
+        } else if (eTag != null && response.statusCode() == 412) {
+            return null;
+        } else if (eTag != null && response.statusCode() == 200) {
+            // the whole file, which may be another version, is read from a local copy instead
+            invalidateDiskCache(eTag);
+        }
+        return getRangeBody(response);
+    }
+
+    // send a bounded range request, hedged if it is small enough
+    private HttpResponse<byte[]> sendRange(final long start, final int length, final String eTag)
+            throws IOException, InterruptedException {
+        if (hedger == null || !hedger.isHedged(length)) {
+            return client.send(rangeRequest(start, length, eTag), RANGE_BODY_HANDLER);
+        }
+        final CompletableFuture<HttpResponse<byte[]>> response = sendRangeAsync(start, length, eTag);
+        try {
+            return response.get();
+        } catch (final InterruptedException e) {
+            response.cancel(true);
+            throw e;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Failed to read a range", e.getCause());
+        }
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> sendRangeAsync(final long start, final int length,
+                                                                   final String eTag) {
+        final HttpRequest request = rangeRequest(start, length, eTag);
+        return hedger != null && hedger.isHedged(length)
+                ? hedger.send(client, request, RANGE_BODY_HANDLER)
+                : client.sendAsync(request, RANGE_BODY_HANDLER);
+    }
+
+    /**
+     * Handler of the responses to bounded range requests. The body of a server which ignores the range is the
+     * whole file, which is not read: the connection is closed, and the file is read from a local copy instead.
+     */
+    static final HttpResponse.BodyHandler<byte[]> RANGE_BODY_HANDLER = info -> info.statusCode() == 200
+            ? new AbandonedBody<>()
+            : HttpResponse.BodySubscribers.ofByteArray();
+
+    // a body which is not read, completed with null as soon as the response headers arrive
+    private static final class AbandonedBody<T> implements HttpResponse.BodySubscriber<T> {
+
+        private final CompletableFuture<T> body = new CompletableFuture<>();
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            subscription.cancel();
+            body.complete(null);
+        }
+
+        @Override
+        public void onNext(final List<ByteBuffer> item) {
+            // nothing is requested
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            body.complete(null);
+        }
+
+        @Override
+        public void onComplete() {
+            body.complete(null);
+        }
+    }
+
+    // a range request, which fails with 412 if an ETag is given and the file is another version
+    private HttpRequest rangeRequest(final long start, final int length, final String eTag) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).GET()
+                .setHeader("Range", "bytes=" + start + "-" + (start + length - 1));
+        if (eTag != null) {
+            builder.setHeader("If-Match", eTag);
+        }
+        return builder.build();
+    }
+
+    // get the body of a response to a bounded range request
+    private byte[] getRangeBody(final HttpResponse<byte[]> response) throws IOException {
+        if (response.statusCode() == 416) {
+            // the range starts after the end of the file
+            return new byte[0];
+        }
+        assertGoodHttpResponse(response, true);
+        return response.body();
+    }
+
     /**
      * Performs the equivalent of a channel.read(buf) operation but in the case of an exception the state of the input
      * buffer is not adversely impacted.
@@ -140,71 +1029,76 @@ public class HttpSeekableByteChannel implements SeekableByteChannel {
     }
 
     @Override
-    public synchronized long position() throws IOException {
+    public long position() throws IOException {
         assertChannelIsOpen();
         return position;
     }
 
     @Override
-    public synchronized HttpSeekableByteChannel position(long newPosition) throws IOException {
-        assertChannelIsOpen();
-        Utils.validateArg(newPosition >= 0, "Cannot seek to a negative position (from " + position + " to " + newPosition + " ).");
-        
-        if (this.position == newPosition) {
-            //nothing to do
+    public HttpSeekableByteChannel position(long newPosition) throws IOException {
+        lock.lock();
+        try {
+            assertChannelIsOpen();
+            Utils.validateArg(newPosition >= 0, "Cannot seek to a negative position (from " + position + " to " + newPosition + " ).");
+
+            if (this.position == newPosition) {
+                //nothing to do
+                return this;
+            } else if (blockSize != 0 || localCopy != null) {
+                // blocks or the local copy are read on demand from the new position
+                this.position = newPosition;
+                return this;
+            }
+            sequentialBytes = 0;
+            if (stripes != null) {
+                // stop the striped download, the stream is opened at the new position on the next read
+                closeStripes();
+            } else if (channel != null && this.position < newPosition && newPosition - this.position < SKIP_DISTANCE
+                    && newPosition < streamEnd) {
+             retryHandler.tryOnceThenWithRetries(() -> {
+                         // if the current position is before new position but nearby do not open a new connection
+                         // but skip the bytes until the new position
+                         long bytesToSkip = newPosition - this.position;
+                         backingStream.skipNBytes(bytesToSkip);
+                         LOGGER.debug("Skipped {} bytes out of {} when setting position to {} (previously on {})",
+                                 bytesToSkip, bytesToSkip, newPosition, position);
+                         return null;
+                     },
+                     () -> {
+                         closeSilently();
+                         try {
+                             openChannel(newPosition);
+                         } catch (final IncompatibleResponseToRangeQueryException e) {
+                             switchToLocalCopy(e);
+                         }
+                         return null;
+                     });
+            } else {
+                // in this case, we require to re-instantiate the channel
+                // closing the previous - and opening at the new position on the next read
+                releaseStream();
+            }
+            // update to the new position
+            this.position = newPosition;
             return this;
+        } finally {
+            lock.unlock();
         }
-        else if (this.position < newPosition && newPosition - this.position < SKIP_DISTANCE) {
-         retryHandler.tryOnceThenWithRetries(() -> {
-                     // if the current position is before new position but nearby do not open a new connection
-                     // but skip the bytes until the new position
-                     long bytesToSkip = newPosition - this.position;
-                     backingStream.skipNBytes(bytesToSkip);
-                     LOGGER.debug("Skipped {} bytes out of {} when setting position to {} (previously on {})",
-                             bytesToSkip, bytesToSkip, newPosition, position);
-                     return null;
-                 },
-                 () -> {
-                     closeSilently();
-                     openChannel(newPosition);
-                     return null;
-                 });
-        } else {
-            // in this case, we require to re-instantiate the channel
-            // opening at the new position - and closing the previous
-            closeSilently();
-            retryHandler.runWithRetries(() -> openChannel(newPosition));
-        }
-        // update to the new position
-        this.position = newPosition;
-        return this;
     }
 
     @Override
-    public synchronized long size() throws IOException {
+    public long size() throws IOException {
         assertChannelIsOpen();
-        retryHandler.runWithRetries( () -> {
-            if (size == -1) {
-                HttpRequest headRequest = HttpRequest.newBuilder()
-                        .uri(uri)
-                        .method("HEAD", HttpRequest.BodyPublishers.noBody())
-                        .build();
-                try {
-                    final HttpResponse<?> response = client.send(headRequest, HttpResponse.BodyHandlers.discarding());
-                    assertGoodHttpResponse(response, false);
-                    final Map<String, List<String>> map = response.headers().map();
-                    final List<String> contentLengthStrings = map.get("content-length");
-                    if (contentLengthStrings == null || contentLengthStrings.size() != 1) {
-                        throw new IOException("Failed to get size of file at " + uri.toString() + "," +
-                                " content-length=" + contentLengthStrings);
-                    } else {
-                        size = Long.parseLong(contentLengthStrings.get(0));
-                    }
-                } catch (InterruptedException e) {
-                    throw new InterruptedIOException("Interrupted while trying to get size of file at " + uri.toString());
-                }
+        if (size == -1) {
+            // served from the metadata cache if another channel or request already got it
+            final HttpFileMetadata metadata = fileSystem.getMetadata(uri, settings);
+            if (metadata == null) {
+                throw new FileNotFoundException("File not found at " + uri);
+            } else if (metadata.size() == -1) {
+                throw new IOException("Failed to get size of file at " + uri + ", no content-length was returned");
             }
-        });
+            size = metadata.size();
+        }
         return size;
     }
 
@@ -230,7 +1124,7 @@ public class HttpSeekableByteChannel implements SeekableByteChannel {
                 }
             }
             case 404 -> throw new FileNotFoundException("File not found at " + uri + " got http 404 response.");
-            default -> throw new UnexpectedHttpResponseException(code, "Unexpected http response code: " + code + " when requesting " + uri);
+            default -> throw new UnexpectedHttpResponseException(response, "Unexpected http response code: " + code + " when requesting " + uri);
         }
     }
 
@@ -241,29 +1135,117 @@ public class HttpSeekableByteChannel implements SeekableByteChannel {
     }
 
     @Override
-    public synchronized boolean isOpen() {
-        return channel.isOpen();
+    public boolean isOpen() {
+        return open;
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        // this also closes the backing stream
-        channel.close();
+    public void close() throws IOException {
+        lock.lock();
+        final boolean wasOpen = open;
+        try {
+            open = false;
+            if (readAhead != null) {
+                readAhead.reset();
+            }
+            if (stripes != null) {
+                closeStripes();
+            }
+            if (channel != null) {
+                // this also closes the backing stream
+                channel.close();
+            }
+            if (localCopy != null) {
+                localCopy.close();
+                if (standaloneKey != null) {
+                    // the shared file system may live long, the copy is not kept for channels opened later
+                    fileSystem.deleteLocalCopy(uri);
+                }
+            }
+            if (diskCache != null) {
+                // the blocks written since the last index update are kept
+                diskCache.flush();
+            }
+        } finally {
+            lock.unlock();
+            if (wasOpen && standaloneKey != null) {
+                releaseStandaloneFileSystem(standaloneKey);
+            }
+        }
+    }
+
+    // get the local copy of the file if its server is known to ignore range requests, or null otherwise
+    private FileChannel getLocalCopy() throws IOException {
+        if (localCopy == null && fileSystem.ignoresRangeRequests()) {
+            localCopyLock.lock();
+            try {
+                if (localCopy == null) {
+                    final FileChannel copy = FileChannel.open(fileSystem.getLocalCopy(uri, settings), StandardOpenOption.READ);
+                    size = copy.size();
+                    localCopy = copy;
+                }
+            } finally {
+                localCopyLock.unlock();
+            }
+        }
+        return localCopy;
+    }
+
+    // switch to a local copy of the file after the server answered a range request with the whole file
+    private FileChannel switchToLocalCopy(final IncompatibleResponseToRangeQueryException e) throws IOException {
+        if (e.getResponseCode() != 200) {
+            throw e;
+        }
+        fileSystem.setIgnoresRangeRequests();
+        return getLocalCopy();
     }
 
-    private synchronized void closeSilently(){
+    // close the current stream without closing this channel, must be called with the lock held
+    private void closeSilently(){
         try {
-            close();
+            if (channel != null) {
+                channel.close();
+            }
         } catch (IOException e) {
             // swallow this
+        } finally {
+            channel = null;
+            backingStream = null;
         }
     }
 
-    // open a readable byte channel for the requested position
-    private synchronized void openChannel(final long position) throws IOException {
+    // close the current stream before a seek, draining it first if only a few bytes are left in the chunk so its
+    // connection is reused (HTTP/2 streams are cancelled without closing their connection)
+    private void releaseStream() {
+        if (!multiplexed && backingStream != null && streamEnd != Long.MAX_VALUE && streamEnd - position <= DRAIN_DISTANCE) {
+            try {
+                // a fully consumed response lets the client reuse its connection
+                backingStream.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                // the connection will not be reused
+            }
+        }
+        closeSilently();
+    }
+
+    // learn the size of the file from a successful response, and share it with the other channels
+    private void recordMetadata(final HttpResponse<?> response) {
+        final HttpFileMetadata metadata = HttpFileMetadata.fromHeaders(response.statusCode(), response.headers());
+        if (size == -1) {
+            size = metadata.size();
+        }
+        if (metadataCache != null && metadata.size() != -1) {
+            metadataCache.put(uri, metadata);
+        }
+    }
+
+    // open a readable byte channel for the requested position, must be called with the lock held
+    private void openChannel(final long position) throws IOException {
         final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).GET();
-        final boolean isRangeRequest = position != 0;
-        if (isRangeRequest) {
+        final boolean isRangeRequest = position != 0 || chunkSize != 0;
+        if (chunkSize != 0) {
+            builder.setHeader("Range", "bytes=" + position + "-" + (position + chunkSize - 1));
+        } else if (isRangeRequest) {
             builder.setHeader("Range", "bytes=" + position + "-");
         }
         HttpRequest request = builder.build();
@@ -278,8 +1260,35 @@ public class HttpSeekableByteChannel implements SeekableByteChannel {
         } catch (final InterruptedException ex) {
             throw new InterruptedIOException("Interrupted while connecting to " + uri + " at position: " + position);
         }
-        assertGoodHttpResponse(response, isRangeRequest);
-        backingStream = new BufferedInputStream(response.body());
+        if (chunkSize != 0 && response.statusCode() == 416) {
+            // the chunk starts after the end of the file
+            response.body().close();
+            backingStream = InputStream.nullInputStream();
+            streamEnd = Long.MAX_VALUE;
+        } else {
+            try {
+                assertGoodHttpResponse(response, isRangeRequest);
+            } catch (final IOException e) {
+                if (e instanceof IncompatibleResponseToRangeQueryException incompatible
+                        && incompatible.getResponseCode() == 200) {
+                    // the whole file is read from a local copy from now on, which is this body
+                    fileSystem.setIgnoresRangeRequests();
+                    fileSystem.spoolLocalCopy(uri, response.body());
+                } else {
+                    response.body().close();
+                }
+                throw e;
+            }
+            recordMetadata(response);
+            multiplexed = response.version() == HttpClient.Version.HTTP_2;
+            final HttpFileSystemProviderSettings.StallSettings stallSettings = settings.stallSettings();
+            backingStream = new BufferedInputStream(stallSettings.isEnabled()
+                    ? new StallDetectingInputStream(response.body(), stallSettings, uri + " at position " + position)
+                    : response.body());
+            streamEnd = chunkSize == 0 || (size != -1 && position + chunkSize >= size)
+                    ? Long.MAX_VALUE
+                    : position + chunkSize;
+        }
         channel = Channels.newChannel(backingStream);
         this.position = position;
     }
@@ -20,8 +20,19 @@ public class OutOfRetriesException extends IOException {
      * @param mostRecentFailureReason the most recently thrown exception
      */
     public OutOfRetriesException(int retries, Duration totalWaitTime, Throwable mostRecentFailureReason) {
-        super("All %d retries failed. Waited a total of %d ms between attempts."
-                .formatted(retries, totalWaitTime.toMillis()), mostRecentFailureReason);
+        this("All %d retries failed.".formatted(retries), retries, totalWaitTime, mostRecentFailureReason);
+    }
+
+    /**
+     * @param reason why no more retries were attempted
+     * @param retries the number of times the error was retried
+     * @param totalWaitTime how long we waited between all the given retries
+     * @param mostRecentFailureReason the most recently thrown exception
+     */
+    public OutOfRetriesException(String reason, int retries, Duration totalWaitTime,
+                                 Throwable mostRecentFailureReason) {
+        super("%s Waited a total of %d ms between attempts.".formatted(reason, totalWaitTime.toMillis()),
+                mostRecentFailureReason);
         this.retries = retries;
         this.totalWaitTime = totalWaitTime;
     }
@@ -0,0 +1,334 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.HttpUtils;
+import org.broadinstitute.http.nio.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Download of a remote file to a local file, split in chunks which are requested concurrently.
+ *
+ * <p>The target is created with the size of the remote file, and the body of each response is written
+ * directly at its offset in the target as it is received. A chunk which fails is retried from the first
+ * byte which was not written yet, on the condition that the file still has the {@code ETag} it had when the copy
+ * started.
+ *
+ * <p>If the size of the file is unknown or the server does not honor range requests, the file is
+ * streamed through a single {@link HttpSeekableByteChannel} instead.
+ */
+final class ParallelCopy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelCopy.class);
+
+    private final URI uri;
+    private final HttpFileSystem fileSystem;
+    private final HttpFileSystemProviderSettings settings;
+    private final HttpClient client;
+    private final RetryHandler retryHandler;
+    // held to write a response, and exclusively to stop all writes once the chunks are abandoned
+    private final ReadWriteLock writes = new ReentrantReadWriteLock();
+    private volatile boolean aborted = false;
+
+    /**
+     * @param uri the file to download
+     * @param fileSystem the file system of the file, which provides the client and metadata cache
+     * @param settings the current settings
+     */
+    ParallelCopy(final URI uri, final HttpFileSystem fileSystem, final HttpFileSystemProviderSettings settings) {
+        this.uri = Utils.nonNull(uri, () -> "null uri");
+        this.fileSystem = Utils.nonNull(fileSystem, () -> "null file system");
+        this.settings = Utils.nonNull(settings, () -> "null settings");
+        this.client = fileSystem.getClient(settings);
+        this.retryHandler = fileSystem.getRetryHandler(uri, settings);
+    }
+
+    /**
+     * Download the file.
+     *
+     * @param target the local file to write to
+     * @param options {@link StandardCopyOption#REPLACE_EXISTING} and {@link StandardCopyOption#COPY_ATTRIBUTES}
+     *                are supported
+     * @throws NoSuchFileException if the remote file does not exist
+     * @throws java.nio.file.FileAlreadyExistsException if the target exists and it should not be replaced
+     * @throws IOException if the download fails, in which case the target is deleted
+     */
+    void copyTo(final Path target, final CopyOption... options) throws IOException {
+        boolean replace = false;
+        boolean copyAttributes = false;
+        for (final CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) {
+                replace = true;
+            } else if (option == StandardCopyOption.COPY_ATTRIBUTES) {
+                copyAttributes = true;
+            } else {
+                throw new UnsupportedOperationException("Unsupported copy option: " + option);
+            }
+        }
+        final HttpFileMetadata metadata = fileSystem.getMetadata(uri, settings);
+        if (metadata == null) {
+            throw new NoSuchFileException(uri.toString());
+        }
+        final Set<OpenOption> openOptions = replace
+                ? Set.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
+                : Set.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        final FileChannel out = FileChannel.open(target, openOptions);
+        boolean success = false;
+        try (out) {
+            if (metadata.size() <= 0 || fileSystem.ignoresRangeRequests() || !downloadChunks(out, metadata)) {
+                out.truncate(0);
+                stream(out);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                // do not leave a partial file behind
+                Files.deleteIfExists(target);
+            }
+        }
+        if (copyAttributes && metadata.lastModified() != null) {
+            Files.setLastModifiedTime(target, FileTime.from(metadata.lastModified()));
+        }
+    }
+
+    // download the file in concurrent chunks, returning false if the server does not honor range requests
+    private boolean downloadChunks(final FileChannel out, final HttpFileMetadata metadata) throws IOException {
+        final HttpFileSystemProviderSettings.CopySettings copySettings = settings.copySettings();
+        final long size = metadata.size();
+        // If-Match compares strongly, so a weak ETag would never match
+        final String eTag = metadata.eTag() == null || metadata.eTag().startsWith("W/") ? null : metadata.eTag();
+        // writing the last byte sets the size of the target, so chunks can be written in any order
+        out.write(ByteBuffer.allocate(1), size - 1);
+        final List<Chunk> chunks = new ArrayList<>();
+        for (long start = 0; start < size; start += copySettings.chunkSize()) {
+            chunks.add(new Chunk(start, Math.min(size, start + copySettings.chunkSize())));
+        }
+        LOGGER.debug("Copying {} in {} chunks", uri, chunks.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(copySettings.concurrency(), chunks.size()));
+        final List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (final Chunk chunk : chunks) {
+                futures.add(executor.submit(() -> {
+                    retryHandler.runWithRetries(() -> downloadChunk(out, chunk, eTag));
+                    return null;
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            abort();
+            throw new InterruptedIOException("Interrupted while copying " + uri);
+        } catch (final ExecutionException e) {
+            // the target is truncated or deleted next, so the other chunks must be done with it first
+            abort();
+            awaitSettled(futures);
+            if (e.getCause() instanceof IncompatibleResponseToRangeQueryException) {
+                LOGGER.debug("Server ignored the range requests for {}, streaming it instead", uri);
+                fileSystem.setIgnoresRangeRequests();
+                return false;
+            } else if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Failed to copy " + uri, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // stop writing to the target and requesting chunks
+    private void abort() {
+        writes.writeLock().lock();
+        try {
+            aborted = true;
+        } finally {
+            writes.writeLock().unlock();
+        }
+    }
+
+    // wait until the downloads of all chunks have stopped, whatever their outcome
+    private void awaitSettled(final List<Future<Void>> futures) throws InterruptedIOException {
+        for (final Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (final ExecutionException e) {
+                // only the first failure is reported
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while copying " + uri);
+            }
+        }
+    }
+
+    // request the bytes of the chunk which were not written yet, from the version of the file with the ETag if any
+    private void downloadChunk(final FileChannel out, final Chunk chunk, final String eTag) throws IOException {
+        if (aborted || chunk.next == chunk.end) {
+            return;
+        }
+        final long start = chunk.next;
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).GET()
+                .setHeader("Range", "bytes=" + start + "-" + (chunk.end - 1));
+        if (eTag != null) {
+            builder.setHeader("If-Match", eTag);
+        }
+        final HttpResponse<Void> response;
+        try {
+            response = client.send(builder.build(), info -> new PositionalWriter(
+                    info.statusCode() == 206 && startsAt(info.headers(), start), out, chunk));
+        } catch (final IOException ex) {
+            if (aborted) {
+                return;
+            }
+            throw new IOException("Failed to copy bytes " + start + "-" + (chunk.end - 1) + " of " + uri, ex);
+        } catch (final InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while copying " + uri);
+        }
+        switch (response.statusCode()) {
+            case 206 -> {
+                if (!startsAt(response.headers(), start)) {
+                    throw new IncompatibleResponseToRangeQueryException(206, "Server returned "
+                            + response.headers().firstValue("content-range").orElse("an unknown range")
+                            + " instead of bytes starting at " + start + " for " + uri);
+                }
+                if (chunk.next != chunk.end) {
+                    throw new EOFException("Response ended at position " + chunk.next + " before the end of the chunk "
+                            + (chunk.end - 1) + " for " + uri);
+                }
+            }
+            case 200 -> throw new IncompatibleResponseToRangeQueryException(200,
+                    "Server returned entire file instead of subrange for " + uri);
+            case 404 -> throw new FileNotFoundException("File not found at " + uri + " got http 404 response.");
+            case 412 -> throw new UnexpectedHttpResponseException(response, uri + " changed while it was copied");
+            default -> throw new UnexpectedHttpResponseException(response,
+                    "Unexpected http response code: " + response.statusCode() + " when requesting " + uri);
+        }
+    }
+
+    // whether a partial response holds the bytes from the start
+    private static boolean startsAt(final HttpHeaders headers, final long start) {
+        return HttpUtils.getStartFromContentRange(headers.firstValue("content-range").orElse(null)) == start;
+    }
+
+    // copy the whole file through a single stream
+    private void stream(final FileChannel out) throws IOException {
+        try (final HttpSeekableByteChannel in = new HttpSeekableByteChannel(uri, fileSystem, settings, 0L)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    // range of the file [start, end) and the first byte of it which was not written yet
+    private static final class Chunk {
+        private final long end;
+        private volatile long next;
+
+        private Chunk(final long start, final long end) {
+            this.next = start;
+            this.end = end;
+        }
+    }
+
+    // writes the buffers of a response at their offset in the target, or discards the response if it is not accepted
+    private final class PositionalWriter implements HttpResponse.BodySubscriber<Void> {
+
+        private final boolean accept;
+        private final FileChannel out;
+        private final Chunk chunk;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        private PositionalWriter(final boolean accept, final FileChannel out, final Chunk chunk) {
+            this.accept = accept;
+            this.out = out;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public CompletionStage<Void> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (accept) {
+                subscription.request(1);
+            } else {
+                // the body is not needed to report the error
+                subscription.cancel();
+                result.complete(null);
+            }
+        }
+
+        @Override
+        public void onNext(final List<ByteBuffer> buffers) {
+            writes.readLock().lock();
+            try {
+                if (aborted) {
+                    throw new IOException("Copy of " + uri + " was abandoned");
+                }
+                for (final ByteBuffer buffer : buffers) {
+                    if (chunk.next + buffer.remaining() > chunk.end) {
+                        throw new IOException("Response is longer than the requested range");
+                    }
+                    while (buffer.hasRemaining()) {
+                        chunk.next += out.write(buffer, chunk.next);
+                    }
+                }
+                subscription.request(1);
+            } catch (final IOException e) {
+                subscription.cancel();
+                result.completeExceptionally(e);
+            } finally {
+                writes.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(null);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongFunction;
+
+/**
+ * Window of blocks fetched in the background ahead of a sequential reader.
+ *
+ * <p>The window starts at {@link HttpFileSystemProviderSettings.ReadAheadSettings#initialBlocks()}
+ * blocks, doubles every time a read is served from a prefetched block up to
+ * {@link HttpFileSystemProviderSettings.ReadAheadSettings#maxBlocks()}, and collapses on
+ * {@link #reset()}.
+ *
+ * <p>This class is not thread-safe, it is guarded by the channel which owns it.
+ */
+final class ReadAhead {
+
+    private final HttpFileSystemProviderSettings.ReadAheadSettings settings;
+
+    // blocks being fetched or already fetched, by block index
+    private final TreeMap<Long, CompletableFuture<byte[]>> pending = new TreeMap<>();
+
+    // current number of blocks to prefetch (0 if no sequential access was detected)
+    private int window = 0;
+
+    /**
+     * @param settings the read-ahead settings, must be enabled
+     */
+    ReadAhead(final HttpFileSystemProviderSettings.ReadAheadSettings settings) {
+        this.settings = Utils.nonNull(settings, () -> "settings");
+        Utils.validateArg(settings.isEnabled(), "cannot create a disabled read-ahead");
+    }
+
+    /**
+     * @return the current number of blocks which are prefetched
+     */
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Take a prefetched block out of the window, growing the window if it was found.
+     *
+     * @param blockIndex the block to get
+     * @return the block, or {@code null} if it was not prefetched or the background fetch failed
+     * @throws InterruptedIOException if interrupted while waiting for the block
+     */
+    byte[] take(final long blockIndex) throws InterruptedIOException {
+        final CompletableFuture<byte[]> prefetched = pending.remove(blockIndex);
+        if (prefetched == null) {
+            return null;
+        }
+        try {
+            final byte[] block = prefetched.get();
+            window = Math.min(settings.maxBlocks(), Math.max(window, 1) * 2);
+            return block;
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for prefetched block " + blockIndex);
+        } catch (final ExecutionException e) {
+            // the caller loads the block again, with retries
+            return null;
+        }
+    }
+
+    /**
+     * Make sure that the blocks following the current one are being fetched, and discard
+     * the blocks before it.
+     *
+     * @param currentBlockIndex the block being read
+     * @param fetcher starts fetching a block in the background, it may return {@code null}
+     *                if the block should not be fetched (e.g., it is past the end of the file)
+     */
+    void prefetchAfter(final long currentBlockIndex, final LongFunction<CompletableFuture<byte[]>> fetcher) {
+        if (window == 0) {
+            window = settings.initialBlocks();
+        }
+        final Iterator<CompletableFuture<byte[]>> stale = pending.headMap(currentBlockIndex, false).values().iterator();
+        while (stale.hasNext()) {
+            stale.next().cancel(true);
+            stale.remove();
+        }
+        for (long blockIndex = currentBlockIndex + 1; blockIndex <= currentBlockIndex + window; blockIndex++) {
+            if (!pending.containsKey(blockIndex)) {
+                final CompletableFuture<byte[]> fetch = fetcher.apply(blockIndex);
+                if (fetch != null) {
+                    pending.put(blockIndex, fetch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel every pending fetch and collapse the window, used when the reader seeks.
+     */
+    void reset() {
+        for (final Map.Entry<Long, CompletableFuture<byte[]>> entry : pending.entrySet()) {
+            entry.getValue().cancel(true);
+        }
+        pending.clear();
+        window = 0;
+    }
+}
@@ -0,0 +1,237 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Sends hedged requests to the server of a file system, see {@link HttpFileSystemProviderSettings.HedgeSettings}.
+ *
+ * <p>The time to the first byte of the responses, i.e. until their headers are received, is recorded for the
+ * most recent requests. A request whose headers have not arrived after the configured percentile of these
+ * times is sent a second time, as long as the hedged requests stay under the configured fraction of all the
+ * requests. The first response to arrive is used and the other request is cancelled. Nothing is hedged until
+ * enough latencies were recorded to estimate the percentile.
+ */
+final class RequestHedger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestHedger.class);
+
+    // number of recent latencies the percentile is computed from
+    static final int SAMPLES = 256;
+    // number of latencies needed before any request is hedged
+    static final int MIN_SAMPLES = 20;
+    // number of new latencies after which the percentile is computed again
+    private static final int UPDATE_INTERVAL = 16;
+
+    private final HttpFileSystemProviderSettings.HedgeSettings settings;
+
+    // ring buffer of the recent latencies in nanoseconds, and the percentile computed from them, guarded by this
+    private final long[] latencies = new long[SAMPLES];
+    private int recorded = 0;
+    private int sinceUpdate = 0;
+    private long threshold = -1;
+
+    // number of requests sent and of them which were hedged, guarded by this
+    private long requests = 0;
+    private long hedges = 0;
+    private long hedgeWins = 0;
+
+    /**
+     * @param settings the hedge settings, must be enabled
+     */
+    RequestHedger(final HttpFileSystemProviderSettings.HedgeSettings settings) {
+        this.settings = Utils.nonNull(settings, () -> "settings");
+        Utils.validateArg(settings.isEnabled(), "hedging must be enabled");
+    }
+
+    /**
+     * @return the settings of this hedger
+     */
+    HttpFileSystemProviderSettings.HedgeSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @param length the number of bytes requested
+     * @return true if a request for the given number of bytes is hedged when it is slow
+     */
+    boolean isHedged(final long length) {
+        return length <= settings.maxRequestSize();
+    }
+
+    /**
+     * Send a request, and send it again if its response is slow to arrive.
+     *
+     * @param client the client to send the request with, whose futures cancel their request when cancelled
+     * @param request the request, which must be idempotent
+     * @param handler the handler of the response body, which may be applied to both responses
+     * @param <T> the type of the response body
+     * @return the first response to arrive; cancelling it cancels both requests
+     */
+    <T> CompletableFuture<HttpResponse<T>> send(final HttpClient client, final HttpRequest request,
+                                                final HttpResponse.BodyHandler<T> handler) {
+        final Hedged<T> hedged = new Hedged<>();
+        final AtomicBoolean firstByte = new AtomicBoolean(false);
+        final long delay;
+        synchronized (this) {
+            requests++;
+            delay = threshold == -1 ? -1 : Math.max(threshold, settings.minDelay().toNanos());
+        }
+        hedged.start(() -> client.sendAsync(request, timed(handler, firstByte)), false);
+        if (delay != -1) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                if (!firstByte.get() && !hedged.result.isDone() && tryHedge()) {
+                    LOGGER.debug("No response to {} after {}, sending it again", request.uri(),
+                            Duration.ofNanos(delay));
+                    hedged.start(() -> client.sendAsync(request, timed(handler, firstByte)), true);
+                }
+            });
+        }
+        return hedged.result;
+    }
+
+    // a handler which records the time until the response headers are received
+    private <T> HttpResponse.BodyHandler<T> timed(final HttpResponse.BodyHandler<T> handler,
+                                                  final AtomicBoolean firstByte) {
+        final long start = System.nanoTime();
+        return info -> {
+            firstByte.set(true);
+            record(System.nanoTime() - start);
+            return handler.apply(info);
+        };
+    }
+
+    private synchronized boolean tryHedge() {
+        if (hedges + 1 > settings.maxHedgeRatio() * requests) {
+            return false;
+        }
+        hedges++;
+        return true;
+    }
+
+    private synchronized void onHedgeWin() {
+        hedgeWins++;
+    }
+
+    /**
+     * Record the time to the first byte of a response.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    synchronized void record(final long nanos) {
+        latencies[recorded % SAMPLES] = nanos;
+        recorded++;
+        sinceUpdate++;
+        if (recorded >= MIN_SAMPLES && (threshold == -1 || sinceUpdate >= UPDATE_INTERVAL)) {
+            final long[] sorted = Arrays.copyOf(latencies, Math.min(recorded, SAMPLES));
+            Arrays.sort(sorted);
+            threshold = sorted[(int) Math.ceil(settings.latencyPercentile() * sorted.length) - 1];
+            sinceUpdate = 0;
+        }
+    }
+
+    /**
+     * @return the time after which a request is hedged, or {@code null} if not enough latencies were recorded
+     */
+    synchronized Duration getDelay() {
+        return threshold == -1 ? null : Duration.ofNanos(Math.max(threshold, settings.minDelay().toNanos()));
+    }
+
+    /**
+     * @return the number of requests sent, not counting the hedged ones twice
+     */
+    synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests which were sent a second time
+     */
+    synchronized long getHedges() {
+        return hedges;
+    }
+
+    /**
+     * @return the number of hedged requests whose second response arrived first
+     */
+    synchronized long getHedgeWins() {
+        return hedgeWins;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[delay=%s, requests=%d, hedges=%d, hedgeWins=%d]", getClass().getSimpleName(),
+                getDelay(), getRequests(), getHedges(), getHedgeWins());
+    }
+
+    // the attempts of a request, the first successful one completes the result and cancels the others
+    private final class Hedged<T> {
+
+        private final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+
+        // guarded by this
+        private final List<CompletableFuture<HttpResponse<T>>> attempts = new ArrayList<>(2);
+        private int failed = 0;
+
+        Hedged() {
+            result.whenComplete((response, error) -> {
+                if (result.isCancelled()) {
+                    cancelAttempts();
+                }
+            });
+        }
+
+        void start(final Supplier<CompletableFuture<HttpResponse<T>>> send, final boolean hedge) {
+            final CompletableFuture<HttpResponse<T>> attempt;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                attempt = send.get();
+                attempts.add(attempt);
+            }
+            attempt.whenComplete((response, error) -> onComplete(response, error, hedge));
+        }
+
+        private void onComplete(final HttpResponse<T> response, final Throwable error, final boolean hedge) {
+            synchronized (this) {
+                if (error != null) {
+                    // wait for the other attempt if there is one
+                    if (++failed == attempts.size()) {
+                        result.completeExceptionally(error);
+                    }
+                    return;
+                }
+                if (!result.complete(response)) {
+                    return;
+                }
+            }
+            if (hedge) {
+                onHedgeWin();
+            }
+            cancelAttempts();
+        }
+
+        private void cancelAttempts() {
+            final List<CompletableFuture<HttpResponse<T>>> toCancel;
+            synchronized (this) {
+                toCancel = List.copyOf(attempts);
+            }
+            // the completed attempt is not affected
+            toCancel.forEach(attempt -> attempt.cancel(true));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fair limit on the number of requests in flight to a server.
+ *
+ * <p>Permits are granted in the order they are requested. A permit may be waited for by blocking the
+ * calling thread ({@link #acquire()}) or with a future ({@link #acquireAsync()}), so asynchronous requests
+ * are queued without holding a thread. The time spent waiting for permits is recorded.
+ */
+final class RequestLimiter {
+
+    private final int maxRequests;
+
+    // permits which are not granted, and the requests waiting for one in arrival order, guarded by this
+    private int available;
+    private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder queuedRequests = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * @param maxRequests the maximum number of requests in flight, must be > 0
+     */
+    RequestLimiter(final int maxRequests) {
+        Utils.validateArg(maxRequests > 0, "maxRequests must be > 0");
+        this.maxRequests = maxRequests;
+        this.available = maxRequests;
+    }
+
+    /**
+     * Wait for a permit, which must be given back with {@link #release()} once the request is done.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting, in which case no permit is held
+     */
+    void acquire() throws InterruptedException {
+        final CompletableFuture<Void> permit = acquireAsync();
+        try {
+            permit.get();
+        } catch (final InterruptedException e) {
+            if (!permit.cancel(false)) {
+                // the permit was granted in the meantime
+                release();
+            }
+            throw e;
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Permits are never granted exceptionally", e.getCause());
+        }
+    }
+
+    /**
+     * Request a permit, which must be given back with {@link #release()} once the request is done.
+     *
+     * @return a future completed when the permit is granted
+     */
+    CompletableFuture<Void> acquireAsync() {
+        requests.increment();
+        final CompletableFuture<Void> permit;
+        synchronized (this) {
+            if (available > 0 && waiting.isEmpty()) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            permit = new CompletableFuture<>();
+            waiting.add(permit);
+        }
+        queuedRequests.increment();
+        final long start = System.nanoTime();
+        // the queued future itself is returned, so cancelling it gives up the place in the queue
+        permit.thenRun(() -> {
+            final long waited = System.nanoTime() - start;
+            queueNanos.add(waited);
+            maxQueueNanos.accumulateAndGet(waited, Math::max);
+        });
+        return permit;
+    }
+
+    /**
+     * Give back a permit, granting it to the oldest request waiting for one.
+     */
+    void release() {
+        while (true) {
+            final CompletableFuture<Void> next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    available++;
+                    return;
+                }
+            }
+            // requests which were cancelled while waiting are skipped
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of requests in flight
+     */
+    int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    synchronized int getInFlightRequests() {
+        return maxRequests - available;
+    }
+
+    /**
+     * @return the number of requests waiting for a permit
+     */
+    synchronized int getQueueLength() {
+        return waiting.size();
+    }
+
+    /**
+     * @return the number of permits requested so far
+     */
+    long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of permits which could not be granted right away
+     */
+    long getQueuedRequests() {
+        return queuedRequests.sum();
+    }
+
+    /**
+     * @return the total time requests waited for a permit
+     */
+    Duration getTotalQueueTime() {
+        return Duration.ofNanos(queueNanos.sum());
+    }
+
+    /**
+     * @return the longest time a request waited for a permit
+     */
+    Duration getMaxQueueTime() {
+        return Duration.ofNanos(maxQueueNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[maxRequests=%d, inFlight=%d, queued=%d, requests=%d, queuedRequests=%d, "
+                        + "totalQueueTime=%s, maxQueueTime=%s]", getClass().getSimpleName(), maxRequests,
+                getInFlightRequests(), getQueueLength(), getRequests(), getQueuedRequests(), getTotalQueueTime(),
+                getMaxQueueTime());
+    }
+}
@@ -0,0 +1,189 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retries and circuit breaker shared by all the {@link RetryHandler}s of a file system.
+ *
+ * <p>Retries are allowed while the budget has retries saved up: every successful request adds
+ * {@link HttpFileSystemProviderSettings.RetryBudgetSettings#retryRatio()} of a retry, up to
+ * {@link HttpFileSystemProviderSettings.RetryBudgetSettings#maxSavedRetries()}, and every retry spends one.
+ *
+ * <p>The circuit opens after {@link HttpFileSystemProviderSettings.CircuitBreakerSettings#failureThreshold()}
+ * consecutive retryable failures, and requests fail fast until its cooldown is over. The count of failures
+ * is only reset by a successful request, so a failure after the cooldown opens the circuit again right away.
+ */
+final class RetryBudget {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryBudget.class);
+
+    private final HttpFileSystemProviderSettings.RetryBudgetSettings budgetSettings;
+    private final HttpFileSystemProviderSettings.CircuitBreakerSettings breakerSettings;
+
+    // retries saved up, and consecutive retryable failures, guarded by this
+    private double savedRetries;
+    private int consecutiveFailures;
+    // System.nanoTime() until which the circuit is open, only meaningful while openCircuit is true
+    private boolean openCircuit;
+    private long openUntil;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deniedRetries = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder circuitOpenings = new LongAdder();
+
+    /**
+     * @param budgetSettings settings of the retry budget, which may be disabled
+     * @param breakerSettings settings of the circuit breaker, which may be disabled
+     */
+    RetryBudget(final HttpFileSystemProviderSettings.RetryBudgetSettings budgetSettings,
+                final HttpFileSystemProviderSettings.CircuitBreakerSettings breakerSettings) {
+        this.budgetSettings = Utils.nonNull(budgetSettings, () -> "budgetSettings");
+        this.breakerSettings = Utils.nonNull(breakerSettings, () -> "breakerSettings");
+        this.savedRetries = budgetSettings.maxSavedRetries();
+    }
+
+    /**
+     * @return the settings of the retry budget
+     */
+    HttpFileSystemProviderSettings.RetryBudgetSettings getBudgetSettings() {
+        return budgetSettings;
+    }
+
+    /**
+     * @return the settings of the circuit breaker
+     */
+    HttpFileSystemProviderSettings.CircuitBreakerSettings getBreakerSettings() {
+        return breakerSettings;
+    }
+
+    /**
+     * Check that a request may be sent.
+     *
+     * @param uri the URI which is about to be requested
+     * @param mostRecentFailureReason the previous failure of the request, if it is retried (may be null)
+     * @throws CircuitBreakerOpenException if the circuit is open
+     */
+    void checkCircuit(final URI uri, final Throwable mostRecentFailureReason) throws CircuitBreakerOpenException {
+        if (!breakerSettings.isEnabled()) {
+            return;
+        }
+        final long remaining;
+        synchronized (this) {
+            if (!openCircuit) {
+                return;
+            }
+            remaining = openUntil - System.nanoTime();
+        }
+        if (remaining > 0) {
+            rejectedRequests.increment();
+            throw new CircuitBreakerOpenException(uri, Duration.ofNanos(remaining), mostRecentFailureReason);
+        }
+    }
+
+    /**
+     * Record a successful request, which earns a fraction of a retry and closes the circuit.
+     */
+    synchronized void onSuccess() {
+        if (budgetSettings.isEnabled()) {
+            savedRetries = Math.min(budgetSettings.maxSavedRetries(), savedRetries + budgetSettings.retryRatio());
+        }
+        consecutiveFailures = 0;
+        openCircuit = false;
+    }
+
+    /**
+     * Record a request which failed with a retryable error, which may open the circuit.
+     */
+    void onRetryableFailure() {
+        if (!breakerSettings.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures++;
+            if (consecutiveFailures < breakerSettings.failureThreshold()
+                    || openCircuit && openUntil - System.nanoTime() > 0) {
+                return;
+            }
+            openCircuit = true;
+            openUntil = System.nanoTime() + breakerSettings.cooldown().toNanos();
+        }
+        circuitOpenings.increment();
+        LOGGER.warn("{} consecutive requests failed, not sending requests to the server for {}",
+                breakerSettings.failureThreshold(), breakerSettings.cooldown());
+    }
+
+    /**
+     * Spend a retry from the budget.
+     *
+     * @return true if the retry is allowed, false if the budget is spent
+     */
+    boolean tryRetry() {
+        if (budgetSettings.isEnabled()) {
+            synchronized (this) {
+                if (savedRetries < 1) {
+                    deniedRetries.increment();
+                    return false;
+                }
+                savedRetries--;
+            }
+        }
+        retries.increment();
+        return true;
+    }
+
+    /**
+     * @return the number of retries saved up
+     */
+    synchronized double getSavedRetries() {
+        return savedRetries;
+    }
+
+    /**
+     * @return true if requests are failing fast
+     */
+    synchronized boolean isCircuitOpen() {
+        return openCircuit && openUntil - System.nanoTime() > 0;
+    }
+
+    /**
+     * @return the number of retries allowed so far
+     */
+    long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return the number of retries which were not allowed because the budget was spent
+     */
+    long getDeniedRetries() {
+        return deniedRetries.sum();
+    }
+
+    /**
+     * @return the number of requests which failed fast because the circuit was open
+     */
+    long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    /**
+     * @return the number of times the circuit was opened
+     */
+    long getCircuitOpenings() {
+        return circuitOpenings.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[savedRetries=%.2f, circuitOpen=%b, retries=%d, deniedRetries=%d, "
+                        + "rejectedRequests=%d, circuitOpenings=%d]", getClass().getSimpleName(), getSavedRetries(),
+                isCircuitOpen(), getRetries(), getDeniedRetries(), getRejectedRequests(), getCircuitOpenings());
+    }
+}
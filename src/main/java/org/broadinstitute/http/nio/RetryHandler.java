@@ -16,6 +16,9 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -50,6 +53,18 @@ public class RetryHandler {
      */
     public static final Set<Integer> DEFAULT_RETRYABLE_HTTP_CODES = Set.of(408, 429, 500, 502, 503, 504);
 
+    /**
+     * default backoff, exponential from 2ms up to 128ms with full jitter so clients which failed together
+     * don't retry together
+     */
+    public static final BackoffPolicy DEFAULT_BACKOFF_POLICY = new BackoffPolicy.Exponential(
+            Duration.ofMillis(1), Duration.ofMillis(128), BackoffPolicy.Jitter.FULL);
+
+    /**
+     * longest {@code Retry-After} which is honored, servers asking for more are retried after this time
+     */
+    public static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(2);
+
     private static final Logger LOGGER = LoggerFactory.getLogger(RetryHandler.class);
 
 
@@ -65,19 +80,34 @@ public class RetryHandler {
     private final Set<String> retryableMessages;
     private final Set<Class<? extends Exception>> retryableExceptions;
     private final Predicate<Throwable> customRetryPredicate;
+    private final BackoffPolicy backoffPolicy;
     private final URI uri;
 
+    // retries and circuit breaker shared with the other handlers of the file system (may be null)
+    private final RetryBudget budget;
+
     /**
      * @param settings to configure the retry mechanism
      * @param uri which URI is being queried, used in error messages
      */
     public RetryHandler(HttpFileSystemProviderSettings.RetrySettings settings, URI uri) {
+        this(settings, uri, null);
+    }
+
+    /**
+     * @param settings to configure the retry mechanism
+     * @param uri which URI is being queried, used in error messages
+     * @param budget the retries and circuit breaker shared by the file system, {@code null} if there is none
+     */
+    RetryHandler(HttpFileSystemProviderSettings.RetrySettings settings, URI uri, RetryBudget budget) {
         this(settings.maxRetries(),
                 settings.retryableHttpCodes(),
                 settings.retryableExceptions(),
                 settings.retryableMessages(),
                 settings.retryPredicate(),
-                uri);
+                settings.backoffPolicy(),
+                uri,
+                budget);
     }
 
     /**
@@ -97,13 +127,51 @@ public class RetryHandler {
             final Collection<String> retryableMessages,
             final Predicate<Throwable> retryPredicate,
             final URI uri) {
+        this(maxRetries, retryableHttpCodes, retryableExceptions, retryableMessages, retryPredicate,
+                DEFAULT_BACKOFF_POLICY, uri);
+    }
+
+    /**
+     * Create a CloudStorageRetryHandler with the maximum retries and reopens set to different values.
+     *
+     * @param maxRetries          maximum number of retries, 0 means nothing will be retried
+     * @param retryableHttpCodes  HTTP codes that are retryable
+     * @param retryableExceptions exception classes to retry when encountered
+     * @param retryableMessages   strings which will be matched against the exception messages
+     * @param retryPredicate      predicate to determine if an exception is retryable
+     * @param backoffPolicy       decides how long to wait before each retry
+     * @param uri                 URI which is being retried, used in the error messages
+     */
+    public RetryHandler(
+            final int maxRetries,
+            final Collection<Integer> retryableHttpCodes,
+            final Collection<Class<? extends Exception>> retryableExceptions,
+            final Collection<String> retryableMessages,
+            final Predicate<Throwable> retryPredicate,
+            final BackoffPolicy backoffPolicy,
+            final URI uri) {
+        this(maxRetries, retryableHttpCodes, retryableExceptions, retryableMessages, retryPredicate, backoffPolicy,
+                uri, null);
+    }
+
+    private RetryHandler(
+            final int maxRetries,
+            final Collection<Integer> retryableHttpCodes,
+            final Collection<Class<? extends Exception>> retryableExceptions,
+            final Collection<String> retryableMessages,
+            final Predicate<Throwable> retryPredicate,
+            final BackoffPolicy backoffPolicy,
+            final URI uri,
+            final RetryBudget budget) {
         Utils.validateArg(maxRetries >= 0, "retries must be >= 0, was " + maxRetries);
         this.maxRetries = maxRetries;
         this.retryableHttpCodes = Set.copyOf(Utils.nonNull(retryableHttpCodes, () -> "retryableHttpCodes"));
         this.retryableExceptions = Set.copyOf(Utils.nonNull(retryableExceptions, () -> "retryableExceptions"));
         this.retryableMessages = Set.copyOf(Utils.nonNull(retryableMessages, () -> "retryableMessages"));
         this.customRetryPredicate = Utils.nonNull(retryPredicate, () -> "retryPredicate");
+        this.backoffPolicy = Utils.nonNull(backoffPolicy, () -> "backoffPolicy");
         this.uri = Utils.nonNull(uri, () -> "uri");
+        this.budget = budget;
     }
 
     /**
@@ -165,12 +233,16 @@ public class RetryHandler {
 
     private <T> T runWithRetries(final IOSupplier<T> toRun, IOException previousError) throws IOException {
         Duration totalSleepTime = Duration.ZERO;
+        Duration previousDelay = Duration.ZERO;
         int tries = previousError == null ? 0 : 1;
-        IOException mostRecentFailureReason = null;
+        IOException mostRecentFailureReason = previousError;
+        if (previousError != null && tries <= maxRetries) {
+            spendRetry(0, totalSleepTime, previousError);
+        }
         while (tries <= maxRetries) {
             try {
                 tries++;
-                return toRun.get();
+                return attempt(toRun, mostRecentFailureReason);
             } catch (final IOException ex) {
                 mostRecentFailureReason = ex;
 
@@ -182,11 +254,43 @@ public class RetryHandler {
                     throw ex;
                 }
             }
-            totalSleepTime = totalSleepTime.plus(sleepBeforeNextAttempt(tries));
+            if (tries <= maxRetries) {
+                spendRetry(tries - 1, totalSleepTime, mostRecentFailureReason);
+                previousDelay = getDelay(tries, previousDelay, mostRecentFailureReason);
+                totalSleepTime = totalSleepTime.plus(sleepBeforeNextAttempt(previousDelay));
+            }
         }
         throw new OutOfRetriesException(tries - 1, totalSleepTime, mostRecentFailureReason);
     }
 
+    // run an attempt if the circuit of the file system is closed, and record its outcome
+    private <T> T attempt(final IOSupplier<T> toRun, final IOException previousError) throws IOException {
+        if (budget == null) {
+            return toRun.get();
+        }
+        budget.checkCircuit(uri, previousError);
+        final T value;
+        try {
+            value = toRun.get();
+        } catch (final IOException ex) {
+            if (isRetryable(ex)) {
+                budget.onRetryableFailure();
+            }
+            throw ex;
+        }
+        budget.onSuccess();
+        return value;
+    }
+
+    // spend a retry from the budget of the file system, giving up if it is spent
+    private void spendRetry(final int retries, final Duration totalSleepTime, final IOException mostRecentFailureReason)
+            throws OutOfRetriesException {
+        if (budget != null && !budget.tryRetry()) {
+            throw new OutOfRetriesException("Retry budget of the server of %s is spent after %d retries."
+                    .formatted(uri, retries), retries, totalSleepTime, mostRecentFailureReason);
+        }
+    }
+
     /**
      * First attempt the runFirst function.  If that fails and the error is retryable, retry using the thenRunAndRetry
      * function.
@@ -195,6 +299,9 @@ public class RetryHandler {
      * state of things, but in the case that that fails itt leaves a messy state and has to be cleaned up before trying
      * again.
      *
+     * The first function uses the existing state instead of sending a request (e.g., it reads from an open stream),
+     * so it is neither stopped by an open circuit nor counted in the retry budget of the file system.
+     *
      * @param runFirst first way of obtaining the value
      * @param thenRunAndRetry second method which must safely retriable
      * @return the value of the first non failing function call
@@ -214,17 +321,101 @@ public class RetryHandler {
         }
     }
     /**
-     * @param attempt attempt number, used to determine the wait time
+     * Asynchronous equivalent of {@link #runWithRetries(IOSupplier)}: the operation is started again after a
+     * delay when it fails with a retryable error, without blocking any thread while waiting.
+     *
+     * @param toRun starts the operation, it may be called repeatedly
+     * @param <T> the type of the value returned by the operation
+     * @return a future completed with the value of the first successful attempt, or with the error of the last one
+     * (an {@link OutOfRetriesException} if retries are exhausted)
+     */
+    public <T> CompletableFuture<T> runWithRetriesAsync(final Supplier<CompletableFuture<T>> toRun) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(toRun, result, 1, Duration.ZERO, Duration.ZERO, null);
+        return result;
+    }
+
+    private <T> void attemptAsync(final Supplier<CompletableFuture<T>> toRun, final CompletableFuture<T> result,
+                                  final int tries, final Duration totalSleepTime, final Duration previousDelay,
+                                  final IOException previousError) {
+        if (budget != null) {
+            try {
+                budget.checkCircuit(uri, previousError);
+            } catch (final CircuitBreakerOpenException ex) {
+                result.completeExceptionally(ex);
+                return;
+            }
+        }
+        toRun.get().whenComplete((value, error) -> {
+            if (error == null) {
+                if (budget != null) {
+                    budget.onSuccess();
+                }
+                result.complete(value);
+                return;
+            }
+            final Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            if (!(cause instanceof IOException ex) || !isRetryable(ex)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            if (budget != null) {
+                budget.onRetryableFailure();
+            }
+            if (tries > maxRetries) {
+                result.completeExceptionally(new OutOfRetriesException(tries - 1, totalSleepTime, ex));
+            } else if (budget != null && !budget.tryRetry()) {
+                result.completeExceptionally(new OutOfRetriesException(
+                        "Retry budget of the server of %s is spent after %d retries.".formatted(uri, tries - 1),
+                        tries - 1, totalSleepTime, ex));
+            } else {
+                LOGGER.warn("Retrying connection to {} due to error: {}. " +
+                        "\nThis will be retry #{}", uri, ex.getMessage(), tries);
+                final Duration delay = getDelay(tries, previousDelay, ex);
+                CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS)
+                        .execute(() -> attemptAsync(toRun, result, tries + 1, totalSleepTime.plus(delay), delay, ex));
+            }
+        });
+    }
+
+    /**
+     * @param attempt the number of the retry which is about to be made
+     * @param previousDelay the delay before the previous retry
+     * @param error the error which is retried
+     * @return the delay given by the backoff policy, or the {@code Retry-After} of the response if it is longer
+     */
+    Duration getDelay(final int attempt, final Duration previousDelay, final Throwable error) {
+        final Duration backoff = backoffPolicy.getDelay(attempt, previousDelay);
+        final Duration retryAfter = getRetryAfter(error);
+        return retryAfter != null && retryAfter.compareTo(backoff) > 0 ? retryAfter : backoff;
+    }
+
+    // the time the server asked to wait, bounded by MAX_RETRY_AFTER (null if it didn't)
+    private static Duration getRetryAfter(final Throwable error) {
+        if (error == null) {
+            return null;
+        }
+        for (Throwable cause : new ExceptionCauseIterator(error)) {
+            if (cause instanceof UnexpectedHttpResponseException responseException
+                    && responseException.getRetryAfter().isPresent()) {
+                final Duration retryAfter = responseException.getRetryAfter().get();
+                return retryAfter.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : retryAfter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param delay how long to sleep
      * @return the actual amount of time this slept for
      */
-    private static Duration sleepBeforeNextAttempt(int attempt) {
-        // exponential backoff, but let's bound it around 2min.
-        // aggressive backoff because we're dealing with unusual cases.
-        Duration delay = Duration.ofMillis((1L << Math.min(attempt, 7)));
+    private static Duration sleepBeforeNextAttempt(final Duration delay) {
         final Instant sleepStart = Instant.now();
         final Instant sleepEnd;
         try {
-            Thread.sleep(delay.toMillis());
+            Thread.sleep(delay.toMillis(), delay.toNanosPart() % 1_000_000);
         } catch (InterruptedException iex) {
             // reset interrupt flag
             Thread.currentThread().interrupt();
@@ -239,6 +430,10 @@ public class RetryHandler {
      * @return true if exs is a retryable error, otherwise false
      */
     public boolean isRetryable(final Exception exs) {
+        // the server is already known to be failing
+        if (exs instanceof CircuitBreakerOpenException) {
+            return false;
+        }
         // loop through all the causes in the exception chain in case it's buried
         for (Throwable cause : new ExceptionCauseIterator(exs)) {
             if (cause instanceof UnexpectedHttpResponseException responseException) {
@@ -0,0 +1,213 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream of a response body which is closed by a watchdog if it stalls, see
+ * {@link HttpFileSystemProviderSettings.StallSettings}.
+ *
+ * <p>Only the time spent waiting in {@code read} and {@code skip} is measured. Once the stream stalled, every
+ * call fails with a {@link SocketTimeoutException}, including the one which was waiting when it was closed.
+ */
+final class StallDetectingInputStream extends FilterInputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StallDetectingInputStream.class);
+
+    // the checks are cheap, so a single thread serves every stream
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "http-nio-stall-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final long MIN_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final HttpFileSystemProviderSettings.StallSettings settings;
+    private final String description;
+    private final ScheduledFuture<?> check;
+
+    // System.nanoTime() when the current read started, or 0 if no read is waiting, guarded by this
+    private long waitingSince = 0;
+    // bytes read and time waited since the start of the current throughput window, guarded by this
+    private long windowBytes = 0;
+    private long windowNanos = 0;
+
+    private volatile String stall = null;
+
+    /**
+     * @param in the stream to watch
+     * @param settings the stall settings, must be enabled
+     * @param description what the stream is, used in the error messages
+     */
+    StallDetectingInputStream(final InputStream in, final HttpFileSystemProviderSettings.StallSettings settings,
+                              final String description) {
+        super(Utils.nonNull(in, () -> "null stream"));
+        this.settings = Utils.nonNull(settings, () -> "settings");
+        Utils.validateArg(settings.isEnabled(), "stall detection must be enabled");
+        this.description = description;
+        final long interval = Math.max(MIN_CHECK_INTERVAL_NANOS, getCheckedPeriodNanos(settings) / 4);
+        this.check = WATCHDOG.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    // the shortest period a check must detect
+    private static long getCheckedPeriodNanos(final HttpFileSystemProviderSettings.StallSettings settings) {
+        final long window = settings.minBytesPerSecond() > 0 ? settings.throughputWindow().toNanos() : Long.MAX_VALUE;
+        final long timeout = settings.inactivityTimeout().isZero()
+                ? Long.MAX_VALUE
+                : settings.inactivityTimeout().toNanos();
+        return Math.min(window, timeout);
+    }
+
+    @Override
+    public int read() throws IOException {
+        beforeWait();
+        int read = -1;
+        try {
+            read = super.read();
+        } catch (final IOException e) {
+            throw stalledOr(e);
+        } finally {
+            afterWait(read == -1 ? 0 : 1);
+        }
+        if (read == -1) {
+            endOfStream();
+        }
+        return read;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        beforeWait();
+        int read = -1;
+        try {
+            read = super.read(b, off, len);
+        } catch (final IOException e) {
+            throw stalledOr(e);
+        } finally {
+            afterWait(Math.max(read, 0));
+        }
+        if (read == -1) {
+            endOfStream();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        beforeWait();
+        long skipped = 0;
+        try {
+            skipped = super.skip(n);
+        } catch (final IOException e) {
+            throw stalledOr(e);
+        } finally {
+            afterWait(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        check.cancel(false);
+        super.close();
+    }
+
+    // nothing is left to watch, unless the end was caused by the watchdog closing the stream
+    private void endOfStream() throws IOException {
+        if (stall != null) {
+            throw stalledOr(null);
+        }
+        check.cancel(false);
+    }
+
+    /**
+     * @return true if the stream was closed because it stalled
+     */
+    boolean isStalled() {
+        return stall != null;
+    }
+
+    private void beforeWait() throws IOException {
+        if (stall != null) {
+            throw stalledOr(null);
+        }
+        synchronized (this) {
+            waitingSince = System.nanoTime();
+        }
+    }
+
+    private synchronized void afterWait(final long bytes) {
+        windowNanos += System.nanoTime() - waitingSince;
+        windowBytes += bytes;
+        waitingSince = 0;
+    }
+
+    // the error of a call, which is a timeout if the stream was closed because it stalled
+    private IOException stalledOr(final IOException error) {
+        final String reason = stall;
+        if (reason == null) {
+            return error;
+        }
+        final SocketTimeoutException timeout = new SocketTimeoutException("Stalled stream of " + description
+                + ": " + reason);
+        if (error != null) {
+            timeout.initCause(error);
+        }
+        return timeout;
+    }
+
+    // run by the watchdog
+    private void check() {
+        if (stall != null) {
+            return;
+        }
+        final String reason;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long waited = waitingSince == 0 ? 0 : now - waitingSince;
+            reason = getStallReason(waited);
+        }
+        if (reason != null) {
+            stall = reason;
+            LOGGER.warn("Closing the stalled stream of {}: {}", description, reason);
+            try {
+                // wakes up the waiting reader
+                in.close();
+            } catch (final IOException e) {
+                // the stream is not used anymore
+            }
+        }
+    }
+
+    // must be called with the lock held
+    private String getStallReason(final long waited) {
+        if (!settings.inactivityTimeout().isZero() && waited > settings.inactivityTimeout().toNanos()) {
+            return "no data received for " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms";
+        }
+        if (settings.minBytesPerSecond() > 0) {
+            final long nanos = windowNanos + waited;
+            if (nanos >= settings.throughputWindow().toNanos()) {
+                final double bytesPerSecond = windowBytes / (nanos / 1e9);
+                // the next window starts now, the current wait is counted from here
+                windowBytes = 0;
+                windowNanos = -waited;
+                if (bytesPerSecond < settings.minBytesPerSecond()) {
+                    return String.format("received %.0f bytes/s, less than the minimum of %d bytes/s",
+                            bytesPerSecond, settings.minBytesPerSecond());
+                }
+            }
+        }
+        return null;
+    }
+}
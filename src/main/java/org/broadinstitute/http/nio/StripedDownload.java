@@ -0,0 +1,123 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.Utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongFunction;
+
+/**
+ * Sequential download of a file split in stripes which are requested concurrently and read in order.
+ *
+ * <p>Up to {@link HttpFileSystemProviderSettings.StripeSettings#maxStripesInFlight()} stripes are
+ * requested ahead of the reader; a new one is requested as soon as the reader consumes one.
+ *
+ * <p>This class is not thread-safe, it is guarded by the channel which owns it.
+ */
+final class StripedDownload {
+
+    private final int stripeSize;
+    private final int maxStripesInFlight;
+
+    // starts requesting the stripe beginning at the given position
+    private final LongFunction<CompletableFuture<byte[]>> fetcher;
+
+    // stripes requested ahead of the reader, in order
+    private final ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+
+    // start of the next stripe to request
+    private long nextStart;
+
+    // stripe being read
+    private byte[] current = null;
+    private int currentOffset = 0;
+
+    // true once the stripe containing the end of the file was received
+    private boolean lastStripeReceived = false;
+
+    /**
+     * @param settings the stripe settings, must be enabled
+     * @param start the position of the first byte to download
+     * @param fetcher function which starts the request for the stripe at the given position, the returned future
+     *                must cancel the request when it is cancelled
+     */
+    StripedDownload(final HttpFileSystemProviderSettings.StripeSettings settings, final long start,
+                    final LongFunction<CompletableFuture<byte[]>> fetcher) {
+        Utils.nonNull(settings, () -> "settings");
+        Utils.validateArg(settings.isEnabled(), "cannot create a disabled striped download");
+        Utils.validateArg(start >= 0, "start must be >= 0");
+        this.stripeSize = settings.stripeSize();
+        this.maxStripesInFlight = settings.maxStripesInFlight();
+        this.fetcher = Utils.nonNull(fetcher, () -> "fetcher");
+        this.nextStart = start;
+        requestStripes();
+    }
+
+    /**
+     * Read the next bytes of the file.
+     *
+     * <p>If this throws no bytes were read, and the download should be abandoned.
+     *
+     * @param dst buffer to copy the bytes to
+     * @return the number of bytes read, or -1 at the end of the file
+     * @throws IOException if a stripe could not be downloaded
+     */
+    int read(final ByteBuffer dst) throws IOException {
+        int read = 0;
+        while (dst.hasRemaining()) {
+            if (current == null || currentOffset == current.length) {
+                if (lastStripeReceived) {
+                    break;
+                }
+                final CompletableFuture<byte[]> next = inFlight.element();
+                if (read > 0 && (!next.isDone() || next.isCompletedExceptionally())) {
+                    // return what was already copied instead of waiting or failing
+                    break;
+                }
+                current = await(next);
+                inFlight.remove();
+                currentOffset = 0;
+                lastStripeReceived = current.length < stripeSize;
+                requestStripes();
+            }
+            final int length = Math.min(dst.remaining(), current.length - currentOffset);
+            dst.put(current, currentOffset, length);
+            currentOffset += length;
+            read += length;
+        }
+        return read == 0 && dst.hasRemaining() ? -1 : read;
+    }
+
+    /**
+     * Cancel every pending request.
+     */
+    void close() {
+        inFlight.forEach(stripe -> stripe.cancel(true));
+        inFlight.clear();
+        current = null;
+    }
+
+    private void requestStripes() {
+        while (!lastStripeReceived && inFlight.size() < maxStripesInFlight) {
+            inFlight.add(fetcher.apply(nextStart));
+            nextStart += stripeSize;
+        }
+    }
+
+    private static byte[] await(final CompletableFuture<byte[]> stripe) throws IOException {
+        try {
+            return stripe.get();
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a stripe");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Failed to download a stripe", e.getCause());
+        }
+    }
+}
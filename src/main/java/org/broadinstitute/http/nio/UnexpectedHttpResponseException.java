@@ -1,6 +1,11 @@
 package org.broadinstitute.http.nio;
 
+import org.broadinstitute.http.nio.utils.HttpUtils;
+
 import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
 
 /**
  * thrown when we recieve an unexpected response code from an http request which is not otherwise specially handled
@@ -10,13 +15,34 @@ public class UnexpectedHttpResponseException extends IOException {
     /** http response code */
     private final int responseCode;
 
+    /** time the server asked to wait before retrying (may be null) */
+    private final Duration retryAfter;
+
     /**
      * @param responseCode the http response code recieved
      * @param msg          human readable error message
      */
     public UnexpectedHttpResponseException(int responseCode, String msg) {
+        this(responseCode, msg, null);
+    }
+
+    /**
+     * @param responseCode the http response code recieved
+     * @param msg          human readable error message
+     * @param retryAfter   the time the server asked to wait before retrying, {@code null} if it didn't
+     */
+    public UnexpectedHttpResponseException(int responseCode, String msg, Duration retryAfter) {
         super(msg);
         this.responseCode = responseCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @param response the response recieved, its {@code Retry-After} header is kept
+     * @param msg      human readable error message
+     */
+    public UnexpectedHttpResponseException(HttpResponse<?> response, String msg) {
+        this(response.statusCode(), msg, HttpUtils.getRetryAfter(response.headers()));
     }
 
     /**
@@ -25,4 +51,11 @@ public class UnexpectedHttpResponseException extends IOException {
     public int getResponseCode() {
         return responseCode;
     }
+
+    /**
+     * @return the time the server asked to wait before retrying, from the {@code Retry-After} header of the response
+     */
+    public Optional<Duration> getRetryAfter() {
+        return Optional.ofNullable(retryAfter);
+    }
 }
@@ -0,0 +1,106 @@
+package org.broadinstitute.http.nio.utils;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe map whose entries expire after a fixed time to live.
+ *
+ * <p>The number of entries is bounded, and the least recently used entries are evicted first.
+ *
+ * @param <K> type of the keys.
+ * @param <V> type of the values.
+ */
+public final class ExpiringCache<K, V> {
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final LongSupplier nanoClock;
+
+    // entries in access order, guarded by this
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * Constructor.
+     *
+     * @param ttl        how long an entry is valid after being added. Must be positive.
+     * @param maxEntries maximum number of entries. Must be positive.
+     */
+    public ExpiringCache(final Duration ttl, final int maxEntries) {
+        this(ttl, maxEntries, System::nanoTime);
+    }
+
+    /**
+     * Constructor with a custom clock.
+     *
+     * @param ttl        how long an entry is valid after being added. Must be positive.
+     * @param maxEntries maximum number of entries. Must be positive.
+     * @param nanoClock  source of the current time in nanoseconds (e.g., {@link System#nanoTime()}).
+     */
+    public ExpiringCache(final Duration ttl, final int maxEntries, final LongSupplier nanoClock) {
+        Utils.nonNull(ttl, () -> "null ttl");
+        Utils.validateArg(!ttl.isNegative() && !ttl.isZero(), "ttl must be positive");
+        Utils.validateArg(maxEntries > 0, "maxEntries must be > 0");
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.nanoClock = Utils.nonNull(nanoClock, () -> "null clock");
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                return size() > ExpiringCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets a value.
+     *
+     * @param key the key to look up.
+     *
+     * @return the value; {@code null} if it is not present or it expired.
+     */
+    public synchronized V get(final K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (nanoClock.getAsLong() - entry.addedNanos() >= ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    /**
+     * Adds or replaces a value, which expires after the time to live of this cache.
+     *
+     * @param key   the key.
+     * @param value the value. Must not be {@code null}.
+     */
+    public synchronized void put(final K key, final V value) {
+        Utils.nonNull(value, () -> "null value");
+        entries.put(key, new Entry<>(value, nanoClock.getAsLong()));
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param key the key to remove.
+     */
+    public synchronized void invalidate(final K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Gets the number of entries, including the ones which expired but were not removed yet.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private record Entry<V>(V value, long addedNanos) {}
+}
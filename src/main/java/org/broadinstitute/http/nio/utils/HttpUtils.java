@@ -15,12 +15,20 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.channels.UnresolvedAddressException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 
 /**
  * Utility class for working with HTTP/S connections and URLs.
@@ -58,23 +66,78 @@ public final class HttpUtils {
      * @throws AccessDeniedException on http 401, 403, 407
      */
     public static boolean exists(final URI uri, HttpFileSystemProviderSettings settings) throws IOException {
+        return exists(uri, settings, getClient(Utils.nonNull(settings, () -> "null settings")));
+    }
+
+    /**
+     * Check if an {@link URI} exists using an existing client.
+     *
+     * @param uri URI to test for existance.
+     * @param settings the settings to use for retries
+     * @param client the client to send the request with
+     *
+     * @return {@code true} if the URL exists; {@code false} otherwise.
+     *
+     * @throws IOException if an I/O error occurs.
+     * @throws AccessDeniedException on http 401, 403, 407
+     * @see #exists(URI, HttpFileSystemProviderSettings)
+     */
+    public static boolean exists(final URI uri, final HttpFileSystemProviderSettings settings, final HttpClient client)
+            throws IOException {
+        return head(uri, settings, client).isPresent();
+    }
+
+    /**
+     * Send a HEAD request to an {@link URI}, following the same rules as
+     * {@link #exists(URI, HttpFileSystemProviderSettings, HttpClient)}.
+     *
+     * @param uri URI to request.
+     * @param settings the settings to use for retries
+     * @param client the client to send the request with
+     *
+     * @return the response if the URL exists; empty otherwise.
+     *
+     * @throws IOException if an I/O error occurs.
+     * @throws AccessDeniedException on http 401, 403, 407
+     */
+    public static Optional<HttpResponse<String>> head(final URI uri, final HttpFileSystemProviderSettings settings,
+                                                      final HttpClient client) throws IOException {
+        Utils.nonNull(uri, () -> "null uri");
+        Utils.nonNull(client, () -> "null client");
+        return head(uri, client, new RetryHandler(settings.retrySettings(), uri));
+    }
+
+    /**
+     * Perform a HEAD request for the given URI, retrying with the given handler.
+     *
+     * @param uri the URI to check.
+     * @param client the client to send the request with
+     * @param retryHandler the handler which retries the request
+     *
+     * @return the response if the URL exists; empty otherwise.
+     *
+     * @throws IOException if an I/O error occurs.
+     * @throws AccessDeniedException on http 401, 403, 407
+     */
+    public static Optional<HttpResponse<String>> head(final URI uri, final HttpClient client,
+                                                      final RetryHandler retryHandler) throws IOException {
         Utils.nonNull(uri, () -> "null uri");
-        final HttpClient client = getClient(settings);
+        Utils.nonNull(client, () -> "null client");
+        Utils.nonNull(retryHandler, () -> "null retryHandler");
         final HttpRequest request = HttpRequest.newBuilder(uri)
                 .method("HEAD", HttpRequest.BodyPublishers.noBody())
                 .build();
 
-        final RetryHandler retryHandler = new RetryHandler(settings.retrySettings(), uri);
         return retryHandler.runWithRetries(() -> {
             try {
                 final HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
                 return switch (response.statusCode()) {
-                    case 200, 206 -> true;
-                    case 404 -> false; //doesn't exist
+                    case 200, 206 -> Optional.of(response);
+                    case 404 -> Optional.<HttpResponse<String>>empty(); //doesn't exist
                     case 401 | 403 | 407 -> throw new AccessDeniedException("Access was denied to " + uri
                             + "\nHttp status: " + response.statusCode()
                             + "\n" + response.body());
-                    default -> throw new UnexpectedHttpResponseException(response.statusCode(),
+                    default -> throw new UnexpectedHttpResponseException(response,
                             "Unexpected response from " + uri
                                     + "\nHttp status: " + response.statusCode()
                                     + "\n" + response.body());
@@ -82,7 +145,7 @@ public final class HttpUtils {
             } catch (ConnectException e){
                 for(Throwable cause : new ExceptionCauseIterator(e)){
                     if(cause instanceof UnresolvedAddressException) {
-                        return false;
+                        return Optional.empty();
                     }
                 }
                 throw e;
@@ -92,15 +155,93 @@ public final class HttpUtils {
         });
     }
 
+    /**
+     * Get the total size of a file from the value of a {@code Content-Range} header.
+     *
+     * @param contentRange value of the header (e.g., {@code bytes 0-99/1234}). May be {@code null}.
+     *
+     * @return the total size of the file; {@code -1} if it is missing or unknown.
+     */
+    public static long getSizeFromContentRange(final String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        final int slash = contentRange.lastIndexOf('/');
+        if (slash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (final NumberFormatException e) {
+            // the size is unknown (*) or the header is malformed
+            return -1;
+        }
+    }
+
+    /**
+     * Get the position of the first byte of a range from the value of a {@code Content-Range} header.
+     *
+     * @param contentRange value of the header (e.g., {@code bytes 0-99/1234}). May be {@code null}.
+     *
+     * @return the first byte of the range; {@code -1} if it is missing or unsatisfied.
+     */
+    public static long getStartFromContentRange(final String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        final int dash = contentRange.indexOf('-');
+        if (dash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (final NumberFormatException e) {
+            // the range is unsatisfied (*) or the header is malformed
+            return -1;
+        }
+    }
+
+    /**
+     * Get the time a server asked to wait before retrying a request.
+     *
+     * @param headers the headers of the response
+     * @return the delay from the {@code Retry-After} header, given either in seconds or as an http date; {@code null}
+     * if there is no header or it is malformed. A date in the past gives {@link Duration#ZERO}.
+     */
+    public static Duration getRetryAfter(final HttpHeaders headers) {
+        final String retryAfter = headers.firstValue("retry-after").map(String::trim).orElse(null);
+        if (retryAfter == null || retryAfter.isEmpty()) {
+            return null;
+        }
+        try {
+            final long seconds = Long.parseLong(retryAfter);
+            return seconds < 0 ? null : Duration.ofSeconds(seconds);
+        } catch (final NumberFormatException e) {
+            // not a number of seconds, so it must be a date
+        }
+        try {
+            final Duration untilDate = Duration.between(Instant.now(),
+                    ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+            return untilDate.isNegative() ? Duration.ZERO : untilDate;
+        } catch (final DateTimeParseException e) {
+            return null;
+        }
+    }
+
     /**
      * Get an HttpClient built wth appropriate settings.
-     * @param settings the settings to use for the client
+     * @param settings the settings to use for the client, including its executor and preferred http version
      * @return a new HttpClient
      */
     public static HttpClient getClient(final HttpFileSystemProviderSettings settings) {
-        return HttpClient.newBuilder()
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(settings.httpVersion())
                 .followRedirects(settings.redirect())
-                .connectTimeout(settings.timeout())
-                .build();
+                .connectTimeout(settings.timeout());
+        final Executor executor = settings.executorSettings().newExecutor();
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder.build();
     }
 }
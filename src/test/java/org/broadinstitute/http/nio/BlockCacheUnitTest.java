@@ -0,0 +1,165 @@
+package org.broadinstitute.http.nio;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BlockCacheUnitTest extends BaseTest {
+
+    private static final URI TEST_URI = URI.create("http://example.com/file.txt");
+    private static final URI OTHER_URI = URI.create("http://example.com/other.txt");
+
+    private static BlockCache newCache(int blockSize, long maxBytes) {
+        return new BlockCache(new HttpFileSystemProviderSettings.CacheSettings(blockSize, maxBytes));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDisabledCacheCannotBeCreated() {
+        newCache(10, 0);
+    }
+
+    @Test
+    public void testBlocksAreKeyedByUriAndIndex() {
+        final BlockCache cache = newCache(10, 100);
+        final byte[] block = new byte[10];
+        cache.put(TEST_URI, 1, block);
+        Assert.assertSame(cache.get(TEST_URI, 1), block);
+        Assert.assertNull(cache.get(TEST_URI, 0));
+        Assert.assertNull(cache.get(OTHER_URI, 1));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBlocksAreEvicted() {
+        final BlockCache cache = newCache(10, 30);
+        cache.put(TEST_URI, 0, new byte[10]);
+        cache.put(TEST_URI, 1, new byte[10]);
+        cache.put(TEST_URI, 2, new byte[10]);
+        Assert.assertEquals(cache.getCachedBytes(), 30);
+
+        // access the first block so the second one is the eldest
+        Assert.assertNotNull(cache.get(TEST_URI, 0));
+        cache.put(TEST_URI, 3, new byte[10]);
+        Assert.assertEquals(cache.getCachedBytes(), 30);
+        Assert.assertNotNull(cache.get(TEST_URI, 0));
+        Assert.assertNull(cache.get(TEST_URI, 1));
+        Assert.assertNotNull(cache.get(TEST_URI, 2));
+        Assert.assertNotNull(cache.get(TEST_URI, 3));
+    }
+
+    @Test
+    public void testReplacingABlockDoesntLeakBytes() {
+        final BlockCache cache = newCache(10, 30);
+        cache.put(TEST_URI, 0, new byte[10]);
+        cache.put(TEST_URI, 0, new byte[5]);
+        Assert.assertEquals(cache.getCachedBytes(), 5);
+    }
+
+    @Test
+    public void testBlocksLargerThanTheCacheAreNotStored() {
+        final BlockCache cache = newCache(100, 10);
+        cache.put(TEST_URI, 0, new byte[100]);
+        Assert.assertNull(cache.get(TEST_URI, 0));
+        Assert.assertEquals(cache.getCachedBytes(), 0);
+    }
+
+    @Test
+    public void testGetOrLoadOnlyLoadsOnce() throws IOException {
+        final BlockCache cache = newCache(10, 100);
+        final AtomicInteger loads = new AtomicInteger();
+        final byte[] first = cache.getOrLoad(TEST_URI, 0, () -> {
+            loads.incrementAndGet();
+            return new byte[]{1, 2, 3};
+        });
+        final byte[] second = cache.getOrLoad(TEST_URI, 0, () -> {
+            throw new AssertionError("should be cached");
+        });
+        Assert.assertSame(second, first);
+        Assert.assertEquals(loads.get(), 1);
+    }
+
+    @Test
+    public void testConcurrentLoadsAreCollapsed() throws Exception {
+        final BlockCache cache = newCache(10, 100);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<byte[]>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.getOrLoad(TEST_URI, 0, () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return new byte[]{1};
+            })));
+            started.await();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.getOrLoad(TEST_URI, 0, () -> {
+                    loads.incrementAndGet();
+                    return new byte[]{2};
+                })));
+            }
+            release.countDown();
+            for (Future<byte[]> result : results) {
+                Assert.assertEquals(result.get(), new byte[]{1});
+            }
+            Assert.assertEquals(loads.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaitersGetTheExceptionOfTheLoader() throws Exception {
+        final BlockCache cache = newCache(10, 100);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<byte[]> loader = executor.submit(() -> cache.getOrLoad(TEST_URI, 0, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                throw new FileNotFoundException("missing");
+            }));
+            started.await();
+            final Future<byte[]> waiter = executor.submit(() -> cache.getOrLoad(TEST_URI, 0, () -> {
+                throw new FileNotFoundException("missing");
+            }));
+            release.countDown();
+            for (final Future<byte[]> result : List.of(loader, waiter)) {
+                final ExecutionException e = Assert.expectThrows(ExecutionException.class, result::get);
+                Assert.assertTrue(e.getCause() instanceof FileNotFoundException, e.getCause().toString());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws IOException {
+        final BlockCache cache = newCache(10, 100);
+        Assert.assertThrows(IOException.class, () -> cache.getOrLoad(TEST_URI, 0, () -> {
+            throw new IOException("failed");
+        }));
+        Assert.assertEquals(cache.getOrLoad(TEST_URI, 0, () -> new byte[]{1}), new byte[]{1});
+    }
+}
@@ -0,0 +1,176 @@
+package org.broadinstitute.http.nio;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class DiskBlockCacheUnitTest extends BaseTest {
+
+    private static final URI FILE_1 = URI.create("http://example.com/file1.txt");
+    private static final URI FILE_2 = URI.create("http://example.com/file2.txt");
+    private static final URI FILE_3 = URI.create("http://example.com/file3.txt");
+
+    private Path directory;
+    private final List<DiskBlockCache> caches = new ArrayList<>();
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("disk-cache");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        for (final DiskBlockCache cache : caches) {
+            cache.close();
+        }
+        caches.clear();
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private DiskBlockCache newCache(final long maxBytes, final Duration ttl) throws IOException {
+        final DiskBlockCache cache = DiskBlockCache.forSettings(
+                new HttpFileSystemProviderSettings.DiskCacheSettings(directory, maxBytes, ttl));
+        caches.add(cache);
+        return cache;
+    }
+
+    @Test
+    public void testBlocksAreReadForTheirETag() throws IOException {
+        final DiskBlockCache cache = newCache(100, Duration.ofHours(1));
+        cache.put(FILE_1, "\"a\"", 4, 1, new byte[]{1, 2, 3, 4});
+        cache.put(FILE_1, "\"a\"", 4, 3, new byte[]{5, 6});
+        Assert.assertEquals(cache.get(FILE_1, "\"a\"", 4, 1), new byte[]{1, 2, 3, 4});
+        Assert.assertEquals(cache.get(FILE_1, "\"a\"", 4, 3), new byte[]{5, 6});
+        Assert.assertNull(cache.get(FILE_1, "\"a\"", 4, 2));
+        Assert.assertNull(cache.get(FILE_1, "\"b\"", 4, 1));
+        Assert.assertNull(cache.get(FILE_1, "\"a\"", 8, 0));
+        Assert.assertEquals(cache.getETag(FILE_1), "\"a\"");
+        Assert.assertTrue(cache.isFresh(FILE_1));
+        Assert.assertEquals(cache.getCachedBytes(), 6);
+    }
+
+    @Test
+    public void testBlocksSurviveANewInstance() throws IOException {
+        final DiskBlockCache cache = newCache(100, Duration.ofHours(1));
+        cache.put(FILE_1, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        cache.close();
+        final DiskBlockCache reloaded = newCache(100, Duration.ofHours(2));
+        Assert.assertNotSame(reloaded, cache);
+        Assert.assertEquals(reloaded.get(FILE_1, "\"a\"", 4, 0), new byte[]{1, 2, 3, 4});
+        Assert.assertEquals(reloaded.getCachedBytes(), 4);
+    }
+
+    @Test
+    public void testFlushedBlocksSurviveANewInstance() throws IOException {
+        final DiskBlockCache cache = newCache(1000, Duration.ofHours(1));
+        for (int i = 0; i < 10; i++) {
+            cache.put(FILE_1, "\"a\"", 4, i, new byte[]{(byte) i, 2, 3, 4});
+        }
+        // closing writes the indexes which are not up to date
+        cache.close();
+        final DiskBlockCache reloaded = newCache(1000, Duration.ofHours(2));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(reloaded.get(FILE_1, "\"a\"", 4, i), new byte[]{(byte) i, 2, 3, 4});
+        }
+        Assert.assertEquals(reloaded.getCachedBytes(), 40);
+    }
+
+    @Test
+    public void testTheCacheOfADirectoryIsShared() throws IOException {
+        final DiskBlockCache cache = newCache(100, Duration.ofHours(1));
+        cache.put(FILE_1, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        final DiskBlockCache other = newCache(4, Duration.ofHours(2));
+        Assert.assertSame(other, cache);
+        Assert.assertEquals(cache.getSettings().maxBytes(), 4);
+        Assert.assertEquals(cache.getSettings().validationTtl(), Duration.ofHours(2));
+        Assert.assertEquals(cache.get(FILE_1, "\"a\"", 4, 0), new byte[]{1, 2, 3, 4});
+    }
+
+    @Test
+    public void testALockedDirectoryIsNotShared() throws IOException {
+        try (final FileChannel channel = FileChannel.open(directory.resolve(".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             final FileLock lock = channel.lock()) {
+            // another process uses the directory
+            final DiskBlockCache cache = newCache(100, Duration.ofHours(1));
+            Assert.assertEquals(cache.getDirectory(), directory.toAbsolutePath().normalize().resolve("instance-1"));
+            cache.put(FILE_1, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+            Assert.assertEquals(cache.get(FILE_1, "\"a\"", 4, 0), new byte[]{1, 2, 3, 4});
+        }
+    }
+
+    @Test
+    public void testReplacedEntriesLeaveNoFiles() throws IOException {
+        final DiskBlockCache cache = newCache(100, Duration.ofHours(1));
+        cache.put(FILE_1, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        cache.put(FILE_1, "\"b\"", 4, 0, new byte[]{1, 2, 3, 4});
+        try (final Stream<Path> files = Files.list(directory)) {
+            // the data file and the index of the current entry
+            Assert.assertEquals(files.filter(file -> !file.getFileName().toString().startsWith(".")).count(), 2);
+        }
+    }
+
+    @Test
+    public void testANewETagReplacesTheBlocks() throws IOException {
+        final DiskBlockCache cache = newCache(100, Duration.ofHours(1));
+        cache.put(FILE_1, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        cache.put(FILE_1, "\"b\"", 4, 1, new byte[]{5, 6, 7, 8});
+        Assert.assertNull(cache.get(FILE_1, "\"a\"", 4, 0));
+        Assert.assertNull(cache.get(FILE_1, "\"b\"", 4, 0));
+        Assert.assertEquals(cache.get(FILE_1, "\"b\"", 4, 1), new byte[]{5, 6, 7, 8});
+        Assert.assertEquals(cache.getCachedBytes(), 4);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFilesAreEvicted() throws IOException {
+        final DiskBlockCache cache = newCache(8, Duration.ofHours(1));
+        cache.put(FILE_1, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        cache.put(FILE_2, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        // using the first file makes the second one the eldest
+        Assert.assertNotNull(cache.get(FILE_1, "\"a\"", 4, 0));
+        cache.put(FILE_3, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        Assert.assertNotNull(cache.get(FILE_1, "\"a\"", 4, 0));
+        Assert.assertNull(cache.getETag(FILE_2));
+        Assert.assertNotNull(cache.get(FILE_3, "\"a\"", 4, 0));
+        Assert.assertEquals(cache.getCachedBytes(), 8);
+    }
+
+    @Test
+    public void testFilesWithoutETagAreNotCached() throws IOException {
+        final DiskBlockCache cache = newCache(100, Duration.ofHours(1));
+        cache.put(FILE_1, null, 4, 0, new byte[]{1, 2, 3, 4});
+        Assert.assertNull(cache.getETag(FILE_1));
+        Assert.assertEquals(cache.getCachedBytes(), 0);
+    }
+
+    @Test
+    public void testEntriesExpireForValidation() throws IOException, InterruptedException {
+        final DiskBlockCache cache = newCache(100, Duration.ofMillis(1));
+        cache.put(FILE_1, "\"a\"", 4, 0, new byte[]{1, 2, 3, 4});
+        Thread.sleep(5);
+        Assert.assertFalse(cache.isFresh(FILE_1));
+        // validation does not drop the blocks
+        Assert.assertNotNull(cache.get(FILE_1, "\"a\"", 4, 0));
+        cache.invalidate(FILE_1);
+        Assert.assertNull(cache.getETag(FILE_1));
+        Assert.assertEquals(cache.getCachedBytes(), 0);
+    }
+}
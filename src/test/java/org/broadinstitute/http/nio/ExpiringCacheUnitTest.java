@@ -0,0 +1,55 @@
+package org.broadinstitute.http.nio;
+
+import org.broadinstitute.http.nio.utils.ExpiringCache;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ExpiringCacheUnitTest extends BaseTest {
+
+    @Test
+    public void testEntriesExpire() {
+        final AtomicLong clock = new AtomicLong(0);
+        final ExpiringCache<String, Integer> cache = new ExpiringCache<>(Duration.ofNanos(10), 5, clock::get);
+        cache.put("a", 1);
+        clock.set(9);
+        Assert.assertEquals(cache.get("a"), Integer.valueOf(1));
+        clock.set(10);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        final ExpiringCache<String, Integer> cache = new ExpiringCache<>(Duration.ofMinutes(1), 2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        // using a makes b the eldest entry
+        Assert.assertEquals(cache.get("a"), Integer.valueOf(1));
+        cache.put("c", 3);
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(cache.get("a"), Integer.valueOf(1));
+        Assert.assertEquals(cache.get("c"), Integer.valueOf(3));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final ExpiringCache<String, Integer> cache = new ExpiringCache<>(Duration.ofMinutes(1), 2);
+        cache.put("a", 1);
+        cache.invalidate("a");
+        Assert.assertNull(cache.get("a"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTtlMustBePositive() {
+        new ExpiringCache<String, Integer>(Duration.ZERO, 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxEntriesMustBePositive() {
+        new ExpiringCache<String, Integer>(Duration.ofMinutes(1), 0);
+    }
+}
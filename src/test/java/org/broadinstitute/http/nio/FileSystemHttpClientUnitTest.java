@@ -0,0 +1,96 @@
+package org.broadinstitute.http.nio;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+
+public class FileSystemHttpClientUnitTest extends BaseTest {
+
+    private static final HttpRequest REQUEST = HttpRequest.newBuilder(URI.create("http://example.com/file")).build();
+
+    @SuppressWarnings("unchecked")
+    private static HttpClient delegate(final CompletableFuture<?> response) {
+        final HttpClient delegate = Mockito.mock(HttpClient.class);
+        Mockito.when(delegate.sendAsync(Mockito.any(HttpRequest.class),
+                        Mockito.<HttpResponse.BodyHandler<byte[]>>any(), Mockito.any()))
+                .thenReturn((CompletableFuture<HttpResponse<byte[]>>) response);
+        return delegate;
+    }
+
+    @Test
+    public void testCancellingARequestCancelsTheDelegateRequestAndReleasesItsPermit() {
+        final CompletableFuture<HttpResponse<byte[]>> inFlight = new CompletableFuture<>();
+        final RequestLimiter limiter = new RequestLimiter(1);
+        final FileSystemHttpClient client = new FileSystemHttpClient(delegate(inFlight), null, limiter);
+
+        client.sendAsync(REQUEST, HttpResponse.BodyHandlers.ofByteArray()).cancel(true);
+        Assert.assertTrue(inFlight.isCancelled());
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+    }
+
+    @Test
+    public void testCancellingAQueuedRequestDoesNotSendIt() {
+        final CompletableFuture<HttpResponse<byte[]>> inFlight = new CompletableFuture<>();
+        final HttpClient delegate = delegate(inFlight);
+        final RequestLimiter limiter = new RequestLimiter(1);
+        final FileSystemHttpClient client = new FileSystemHttpClient(delegate, null, limiter);
+
+        final CompletableFuture<HttpResponse<byte[]>> first =
+                client.sendAsync(REQUEST, HttpResponse.BodyHandlers.ofByteArray());
+        final CompletableFuture<HttpResponse<byte[]>> queued =
+                client.sendAsync(REQUEST, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(limiter.getQueueLength(), 1);
+        queued.cancel(true);
+
+        @SuppressWarnings("unchecked")
+        final HttpResponse<byte[]> response = Mockito.mock(HttpResponse.class);
+        inFlight.complete(response);
+        Assert.assertSame(first.join(), response);
+        Mockito.verify(delegate, Mockito.times(1)).sendAsync(Mockito.any(), Mockito.any(), Mockito.any());
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+    }
+
+    @Test
+    public void testStreamedBodiesHoldTheirPermitUntilTheEnd() throws Exception {
+        @SuppressWarnings("unchecked")
+        final HttpResponse<InputStream> response = Mockito.mock(HttpResponse.class);
+        Mockito.when(response.body()).thenReturn(new ByteArrayInputStream(new byte[]{1}));
+        final HttpClient delegate = Mockito.mock(HttpClient.class);
+        Mockito.when(delegate.send(Mockito.any(HttpRequest.class),
+                Mockito.<HttpResponse.BodyHandler<InputStream>>any())).thenReturn(response);
+        final RequestLimiter limiter = new RequestLimiter(1);
+        final FileSystemHttpClient client = new FileSystemHttpClient(delegate, null, limiter);
+
+        try (final InputStream body = client.send(REQUEST, HttpResponse.BodyHandlers.ofInputStream()).body()) {
+            Assert.assertEquals(limiter.getInFlightRequests(), 1);
+            Assert.assertEquals(body.read(), 1);
+            Assert.assertEquals(limiter.getInFlightRequests(), 1);
+            Assert.assertEquals(body.read(), -1);
+            Assert.assertEquals(limiter.getInFlightRequests(), 0);
+        }
+        // closing after the end does not release it twice
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+        client.send(REQUEST, HttpResponse.BodyHandlers.ofInputStream()).body().close();
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+    }
+
+    @Test
+    public void testCompletedRequestsReleaseTheirPermit() {
+        @SuppressWarnings("unchecked")
+        final HttpResponse<byte[]> response = Mockito.mock(HttpResponse.class);
+        final RequestLimiter limiter = new RequestLimiter(1);
+        final FileSystemHttpClient client = new FileSystemHttpClient(
+                delegate(CompletableFuture.completedFuture(response)), null, limiter);
+
+        Assert.assertSame(client.sendAsync(REQUEST, HttpResponse.BodyHandlers.ofByteArray()).join(), response);
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+    }
+}
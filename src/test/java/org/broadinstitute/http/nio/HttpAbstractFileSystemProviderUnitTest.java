@@ -9,7 +9,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystemNotFoundException;
@@ -20,9 +24,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.ProviderMismatchException;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Daniel Gomez-Sanchez (magicDGS)
@@ -74,6 +80,77 @@ public class HttpAbstractFileSystemProviderUnitTest extends BaseTest {
         Assert.assertSame(provider.getFileSystem(TEST_BASE_URI), fs);
     }
 
+    @Test
+    public void testNewFileSystemWithEnvironment() {
+        final HttpFileSystemProvider provider = new HttpFileSystemProvider();
+        final BackoffPolicy backoff = new BackoffPolicy.Exponential(Duration.ofMillis(10), Duration.ofSeconds(1),
+                BackoffPolicy.Jitter.NONE);
+        final Map<String, Object> env = Map.of(
+                HttpFileSystemProviderSettings.TIMEOUT_KEY, "PT5S",
+                HttpFileSystemProviderSettings.MAX_RETRIES_KEY, 2,
+                HttpFileSystemProviderSettings.BACKOFF_POLICY_KEY, backoff,
+                HttpFileSystemProviderSettings.BLOCK_SIZE_KEY, "1024",
+                HttpFileSystemProviderSettings.MAX_REQUESTS_KEY, 4L);
+        final HttpFileSystem fs = provider.newFileSystem(TEST_BASE_URI, env);
+
+        final HttpFileSystemProviderSettings settings = fs.getSettings();
+        Assert.assertEquals(settings.timeout(), Duration.ofSeconds(5));
+        Assert.assertEquals(settings.retrySettings().maxRetries(), 2);
+        Assert.assertSame(settings.retrySettings().backoffPolicy(), backoff);
+        Assert.assertEquals(settings.cacheSettings().blockSize(), 1024);
+        Assert.assertEquals(settings.requestLimitSettings().maxRequests(), 4);
+        // the other values are the settings of the provider
+        final HttpFileSystemProviderSettings defaults = HttpAbstractFileSystemProvider.getSettings();
+        Assert.assertEquals(settings.cacheSettings().maxCacheBytes(), defaults.cacheSettings().maxCacheBytes());
+        Assert.assertEquals(settings.copySettings(), defaults.copySettings());
+
+        // other file systems are not affected
+        Assert.assertSame(provider.getPath(URI.create("http://example.org/file.txt")).getFileSystem().getSettings(),
+                defaults);
+    }
+
+    @Test
+    public void testNewFileSystemWithoutEnvironmentUsesTheProviderSettings() {
+        final HttpFileSystem fs = new HttpFileSystemProvider().newFileSystem(TEST_BASE_URI, TEST_ENV);
+        Assert.assertSame(fs.getSettings(), HttpAbstractFileSystemProvider.getSettings());
+    }
+
+    @DataProvider
+    public Object[][] integralNumbers() {
+        return new Object[][] {
+                {(short) 3}, {3}, {3L}, {3.0}, {3.0f}, {BigInteger.valueOf(3)}, {BigDecimal.valueOf(3)},
+                {new AtomicLong(3)}
+        };
+    }
+
+    @Test(dataProvider = "integralNumbers")
+    public void testNewFileSystemWithAnyIntegralNumber(final Number maxRetries) {
+        final HttpFileSystem fs = new HttpFileSystemProvider().newFileSystem(TEST_BASE_URI,
+                Map.of(HttpFileSystemProviderSettings.MAX_RETRIES_KEY, maxRetries));
+        Assert.assertEquals(fs.getSettings().retrySettings().maxRetries(), 3);
+    }
+
+    @DataProvider
+    public Object[][] invalidEnvironments() {
+        return new Object[][] {
+                {Map.of("unknown", 1)},
+                {Map.of(HttpFileSystemProviderSettings.TIMEOUT_KEY, "5 seconds")},
+                {Map.of(HttpFileSystemProviderSettings.MAX_RETRIES_KEY, "many")},
+                {Map.of(HttpFileSystemProviderSettings.MAX_RETRIES_KEY, -1)},
+                {Map.of(HttpFileSystemProviderSettings.MAX_RETRIES_KEY, 1.5)},
+                {Map.of(HttpFileSystemProviderSettings.BLOCK_SIZE_KEY, Long.MAX_VALUE)},
+                {Map.of(HttpFileSystemProviderSettings.SETTINGS_KEY, "default")}
+        };
+    }
+
+    @Test(dataProvider = "invalidEnvironments")
+    public void testNewFileSystemWithInvalidEnvironment(final Map<String, ?> env) {
+        final HttpFileSystemProvider provider = new HttpFileSystemProvider();
+        Assert.assertThrows(IllegalArgumentException.class, () -> provider.newFileSystem(TEST_BASE_URI, env));
+        // nothing was created
+        Assert.assertThrows(FileSystemNotFoundException.class, () -> provider.getFileSystem(TEST_BASE_URI));
+    }
+
     @DataProvider
     public Object[][] pathStrings() {
         return new Object[][] {
@@ -136,8 +213,6 @@ public class HttpAbstractFileSystemProviderUnitTest extends BaseTest {
                 {http, httpPath, null, IllegalArgumentException.class},
                 // mismatching Path
                 {http, https.getPath(URI.create("https://example.org/file.txt")), Collections.emptySet(), ProviderMismatchException.class},
-                // non existent file
-                {http, httpPath, Collections.emptySet(), FileNotFoundException.class},
                 // UNSUPPORTED BYTE CHANNELS (e.g., writing)
                 // if only an option that it is not supported
                 {http, httpPath, Collections.singleton(StandardOpenOption.WRITE), UnsupportedOperationException.class},
@@ -153,9 +228,20 @@ public class HttpAbstractFileSystemProviderUnitTest extends BaseTest {
         Assert.assertThrows(expectedException, () -> provider.newByteChannel(path, options));
     }
 
+    @Test(expectedExceptions = FileNotFoundException.class)
+    public void testNonExistentByteChannelFailsOnRead() throws Exception {
+        final HttpFileSystemProvider http = new HttpFileSystemProvider();
+        final HttpPath httpPath = http.getPath(URI.create("http://example.org/file.txt"));
+        // the connection is only established on the first read
+        try (final SeekableByteChannel channel = http.newByteChannel(httpPath, Collections.emptySet())) {
+            channel.read(ByteBuffer.allocate(1));
+        }
+    }
+
     @Test(dataProvider = "nonExistantPaths")
     public void testOpenNonExistantUrl(Path path) throws Exception {
         try(final InputStream is = Files.newInputStream(path)){
+            is.read();
             Assert.fail("Should have thrown");
         } catch( IOException e) {
           // expected
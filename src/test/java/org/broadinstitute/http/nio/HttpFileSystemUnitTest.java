@@ -4,8 +4,10 @@ import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.net.http.HttpClient;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Iterator;
 
 /**
@@ -44,6 +46,53 @@ public class HttpFileSystemUnitTest extends BaseTest {
         Assert.assertTrue(fs.isOpen());
     }
 
+    @Test
+    public void testClientIsShared() {
+        final HttpFileSystem fs = new HttpFileSystem(TEST_PROVIDER, TEST_AUTHORITY);
+        final HttpClient client = fs.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS);
+        Assert.assertSame(fs.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS), client);
+        // settings which don't affect the client reuse it
+        Assert.assertSame(fs.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(10, 100))), client);
+
+        // a different timeout requires a new client
+        final HttpFileSystemProviderSettings otherTimeout = new HttpFileSystemProviderSettings(Duration.ofSeconds(1),
+                HttpClient.Redirect.NORMAL, HttpFileSystemProviderSettings.DEFAULT_RETRY_SETTINGS);
+        Assert.assertNotSame(fs.getClient(otherTimeout), client);
+
+        // so does a different http version
+        final HttpClient http11 = fs.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withHttpVersion(HttpClient.Version.HTTP_1_1));
+        Assert.assertEquals(http11.version(), HttpClient.Version.HTTP_1_1);
+        Assert.assertNotSame(http11, client);
+    }
+
+    @Test
+    public void testRetryBudgetIsSharedUntilItsSettingsChange() {
+        final HttpFileSystem fs = new HttpFileSystem(TEST_PROVIDER, TEST_AUTHORITY);
+        Assert.assertNull(fs.getRetryBudget(HttpFileSystemProviderSettings.DEFAULT_SETTINGS));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withRetryBudgetSettings(new HttpFileSystemProviderSettings.RetryBudgetSettings(0.1, 10));
+        final RetryBudget budget = fs.getRetryBudget(settings);
+        Assert.assertNotNull(budget);
+        Assert.assertSame(fs.getRetryBudget(settings), budget);
+
+        final RetryBudget withBreaker = fs.getRetryBudget(settings.withCircuitBreakerSettings(
+                new HttpFileSystemProviderSettings.CircuitBreakerSettings(5, Duration.ofSeconds(10))));
+        Assert.assertNotSame(withBreaker, budget);
+        Assert.assertNull(fs.getRetryBudget(HttpFileSystemProviderSettings.DEFAULT_SETTINGS));
+    }
+
+    @Test
+    public void testCloseReleasesTheClient() {
+        final HttpFileSystem fs = new HttpFileSystem(TEST_PROVIDER, TEST_AUTHORITY);
+        final HttpClient client = fs.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS);
+        fs.close();
+        Assert.assertTrue(fs.isOpen());
+        Assert.assertNotSame(fs.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS), client);
+    }
+
     @DataProvider
     public Object[][] authoritiesToTest() {
         return new Object[][] {
@@ -33,7 +33,10 @@ public class HttpSeekableByteChannelUnitTest extends BaseTest {
 
     @Test(expectedExceptions = FileNotFoundException.class)
     public void testNonExistentUrl() throws Exception {
-        getChannel(getGithubPagesFileUri("not_existent.txt"));
+        // the connection is only established on the first read
+        try (final SeekableByteChannel channel = getChannel(getGithubPagesFileUri("not_existent.txt"))) {
+            channel.read(ByteBuffer.allocate(1));
+        }
     }
 
     @Test
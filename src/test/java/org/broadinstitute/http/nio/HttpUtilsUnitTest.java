@@ -9,6 +9,18 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * @author Daniel Gomez-Sanchez (magicDGS)
@@ -55,4 +67,124 @@ public class HttpUtilsUnitTest extends BaseTest {
         final URI nonExistant = URI.create(urlString);
             Assert.assertFalse(HttpUtils.exists(nonExistant, HttpFileSystemProviderSettings.DEFAULT_SETTINGS));
     }
-}
\ No newline at end of file
+
+    @DataProvider
+    public Object[][] contentRanges() {
+        return new Object[][] {
+                {"bytes 0-99/1234", 1234L},
+                {"bytes 100-199/200", 200L},
+                {"bytes 0-99/*", -1L},
+                {"bytes */1234", 1234L},
+                {"garbage", -1L},
+                {null, -1L}
+        };
+    }
+
+    @Test(dataProvider = "contentRanges")
+    public void testGetSizeFromContentRange(final String contentRange, final long expected) {
+        Assert.assertEquals(HttpUtils.getSizeFromContentRange(contentRange), expected);
+    }
+
+    @DataProvider
+    public Object[][] contentRangeStarts() {
+        return new Object[][] {
+                {"bytes 0-99/1234", 0L},
+                {"bytes 100-199/200", 100L},
+                {"bytes 5-9/*", 5L},
+                {"bytes */1234", -1L},
+                {"garbage", -1L},
+                {null, -1L}
+        };
+    }
+
+    @Test(dataProvider = "contentRangeStarts")
+    public void testGetStartFromContentRange(final String contentRange, final long expected) {
+        Assert.assertEquals(HttpUtils.getStartFromContentRange(contentRange), expected);
+    }
+
+    @Test
+    public void testClientUsesTheDefaultExecutor() {
+        Assert.assertTrue(HttpUtils.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS).executor().isEmpty());
+    }
+
+    @Test
+    public void testClientUsesACustomExecutor() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                    .withExecutorSettings(HttpFileSystemProviderSettings.ExecutorSettings.custom(executor));
+            Assert.assertSame(HttpUtils.getClient(settings).executor().orElseThrow(), executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClientUsesABoundedThreadPool() {
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withExecutorSettings(HttpFileSystemProviderSettings.ExecutorSettings.boundedThreadPool(3));
+        final Executor executor = HttpUtils.getClient(settings).executor().orElseThrow();
+        Assert.assertTrue(executor instanceof ThreadPoolExecutor);
+        Assert.assertEquals(((ThreadPoolExecutor) executor).getMaximumPoolSize(), 3);
+    }
+
+    @Test
+    public void testVirtualThreadsRequireJava21() {
+        if (Runtime.version().feature() >= 21) {
+            Assert.assertTrue(HttpUtils.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                    .withExecutorSettings(HttpFileSystemProviderSettings.ExecutorSettings.virtualThreads()))
+                    .executor().isPresent());
+        } else {
+            Assert.assertThrows(IllegalArgumentException.class, HttpFileSystemProviderSettings.ExecutorSettings::virtualThreads);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBoundedThreadPoolRequiresThreads() {
+        HttpFileSystemProviderSettings.ExecutorSettings.boundedThreadPool(0);
+    }
+
+    @Test
+    public void testClientPrefersHttp2ByDefault() {
+        Assert.assertEquals(HttpUtils.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS).version(),
+                HttpClient.Version.HTTP_2);
+    }
+
+    @Test
+    public void testClientUsesHttp11Only() {
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withHttpVersion(HttpClient.Version.HTTP_1_1);
+        Assert.assertEquals(HttpUtils.getClient(settings).version(), HttpClient.Version.HTTP_1_1);
+    }
+
+    private static HttpHeaders retryAfter(final String value) {
+        return HttpHeaders.of(Map.of("Retry-After", List.of(value)), (name, v) -> true);
+    }
+
+    @DataProvider
+    public Object[][] getRetryAfterHeaders() {
+        return new Object[][]{
+                {retryAfter("120"), Duration.ofSeconds(120)},
+                {retryAfter("0"), Duration.ZERO},
+                {retryAfter(DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        ZonedDateTime.now(ZoneOffset.UTC).minusHours(1))), Duration.ZERO},
+                {retryAfter("-5"), null},
+                {retryAfter("soon"), null},
+                {HttpHeaders.of(Map.of(), (name, v) -> true), null},
+        };
+    }
+
+    @Test(dataProvider = "getRetryAfterHeaders")
+    public void testGetRetryAfter(final HttpHeaders headers, final Duration expected) {
+        Assert.assertEquals(HttpUtils.getRetryAfter(headers), expected);
+    }
+
+    @Test
+    public void testGetRetryAfterFutureDate() {
+        final Duration retryAfter = HttpUtils.getRetryAfter(retryAfter(DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(10))));
+        Assert.assertNotNull(retryAfter);
+        Assert.assertTrue(retryAfter.compareTo(Duration.ofMinutes(9)) > 0, retryAfter.toString());
+        Assert.assertTrue(retryAfter.compareTo(Duration.ofMinutes(10)) <= 0, retryAfter.toString());
+    }
+}
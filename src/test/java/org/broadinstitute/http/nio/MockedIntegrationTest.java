@@ -1,6 +1,7 @@
 package org.broadinstitute.http.nio;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.http.Fault;
@@ -18,13 +19,32 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.client.WireMock.ok;
@@ -66,6 +86,248 @@ public class MockedIntegrationTest extends BaseTest {
         Assert.assertEquals(Files.readString(path), BODY);
     }
 
+    @Test
+    public void testReadAttributes() throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok()
+                .withHeader("content-length", String.valueOf(BODY.length()))
+                .withHeader("last-modified", "Wed, 21 Oct 2015 07:28:00 GMT")
+                .withHeader("etag", "\"v1\"")));
+
+        final Path path = Paths.get(getUri("/file.txt"));
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Assert.assertEquals(attributes.size(), BODY.length());
+        Assert.assertEquals(attributes.lastModifiedTime(), FileTime.from(Instant.parse("2015-10-21T07:28:00Z")));
+        Assert.assertEquals(attributes.fileKey(), "\"v1\"");
+        Assert.assertTrue(attributes.isRegularFile());
+        verify(1, headRequestedFor(FILE_URL));
+
+        Assert.assertEquals(Files.readAttributes(path, "basic:size,fileKey"),
+                Map.of("size", (long) BODY.length(), "fileKey", "\"v1\""));
+        Assert.assertEquals(Files.readAttributes(path, "*").size(), 9);
+        Assert.assertThrows(IllegalArgumentException.class, () -> Files.readAttributes(path, "basic:owner"));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> Files.readAttributes(path, "posix:*"));
+        // the attributes are read without requesting the content of the file
+        verify(0, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testReadAttributesOfMissingFile() {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(notFound()));
+        Assert.assertThrows(NoSuchFileException.class,
+                () -> Files.readAttributes(Paths.get(getUri("/file.txt")), BasicFileAttributes.class));
+    }
+
+    @Test
+    public void testCachedAttributesDontRequireRequests() throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok()
+                .withHeader("content-length", String.valueOf(BODY.length()))
+                .withHeader("last-modified", "Wed, 21 Oct 2015 07:28:00 GMT")));
+
+        final HttpFileSystemProviderSettings previous = HttpAbstractFileSystemProvider.getSettings();
+        HttpAbstractFileSystemProvider.setSettings(previous.withMetadataCacheSettings(
+                new HttpFileSystemProviderSettings.MetadataCacheSettings(Duration.ofMinutes(1), 10)));
+        try {
+            final Path path = Paths.get(getUri("/file.txt"));
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(Files.size(path), BODY.length());
+                Assert.assertEquals(Files.getLastModifiedTime(path), FileTime.from(Instant.parse("2015-10-21T07:28:00Z")));
+                Assert.assertTrue(Files.exists(path));
+            }
+            verify(1, headRequestedFor(FILE_URL));
+        } finally {
+            HttpAbstractFileSystemProvider.setSettings(previous);
+        }
+    }
+
+    // run with copy settings which split "Hello World!" in 3 chunks
+    private void copyWithSmallChunks(final Path target) throws IOException {
+        copyWithSmallChunks(target, ok().withHeader("content-length", "12"));
+    }
+
+    private void copyWithSmallChunks(final Path target, final ResponseDefinitionBuilder head) throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(head));
+        final HttpFileSystemProviderSettings previous = HttpAbstractFileSystemProvider.getSettings();
+        HttpAbstractFileSystemProvider.setSettings(previous.withCopySettings(
+                new HttpFileSystemProviderSettings.CopySettings(2, 5)));
+        try {
+            final Path source = Paths.get(getUri("/file.txt"));
+            source.getFileSystem().provider().copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            HttpAbstractFileSystemProvider.setSettings(previous);
+        }
+    }
+
+    @Test
+    public void testCopyDownloadsChunksConcurrently() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-4"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 0-4/12").withBody("Hello")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=5-9"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 5-9/12").withBody(" Worl")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=10-11"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 10-11/12").withBody("d!")));
+
+        final Path target = Files.createTempFile("copy", ".txt");
+        try {
+            copyWithSmallChunks(target);
+            Assert.assertEquals(Files.readString(target), "Hello World!");
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void testCopyResumesFromTheWrittenBytes() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-4"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 0-4/12").withBody("He")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=2-4"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 2-4/12").withBody("llo")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=5-9"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 5-9/12").withBody(" Worl")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=10-11"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 10-11/12").withBody("d!")));
+
+        final Path target = Files.createTempFile("copy", ".txt");
+        try {
+            copyWithSmallChunks(target);
+            Assert.assertEquals(Files.readString(target), "Hello World!");
+            verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=2-4")));
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void testCopyStreamsIfRangesAreIgnored() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok("Hello World!")));
+
+        final Path target = Files.createTempFile("copy", ".txt");
+        try {
+            copyWithSmallChunks(target);
+            Assert.assertEquals(Files.readString(target), "Hello World!");
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void testCopyStreamsIfTheServerReturnsOtherRanges() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok("Hello World!")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-4"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 0-4/12").withBody("Hello")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=5-9"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 0-4/12").withBody("Hello")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=10-11"))
+                .willReturn(aResponse().withStatus(206)
+                        .withHeader("content-range", "bytes 10-11/12").withBody("d!")));
+
+        final Path target = Files.createTempFile("copy", ".txt");
+        try {
+            copyWithSmallChunks(target);
+            Assert.assertEquals(Files.readString(target), "Hello World!");
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void testCopyFailsIfTheFileChanges() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("If-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(412)));
+
+        final Path target = Files.createTempFile("copy", ".txt");
+        try {
+            Assert.assertThrows(IOException.class, () -> copyWithSmallChunks(target,
+                    ok().withHeader("content-length", "12").withHeader("etag", "\"v1\"")));
+            Assert.assertFalse(Files.exists(target));
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void testCopyDoesNotReplaceByDefault() throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok().withHeader("content-length", "12")));
+        final Path target = Files.createTempFile("copy", ".txt");
+        try {
+            final Path source = Paths.get(getUri("/file.txt"));
+            Assert.assertThrows(FileAlreadyExistsException.class,
+                    () -> source.getFileSystem().provider().copy(source, target));
+            Assert.assertTrue(Files.exists(target));
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void testAsynchronousReads() throws Exception {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=1-3"))
+                .willReturn(aResponse().withStatus(206).withBody("ell")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=2-11"))
+                .willReturn(aResponse().withStatus(206).withBody("llo")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=10-11"))
+                .willReturn(aResponse().withStatus(416)));
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok().withHeader("content-length", String.valueOf(BODY.length()))));
+
+        try (final AsynchronousFileChannel channel = AsynchronousFileChannel.open(Paths.get(getUri("/file.txt")))) {
+            final ByteBuffer buf = ByteBuffer.allocate(3);
+            Assert.assertEquals(channel.read(buf, 1).get(), Integer.valueOf(3));
+            Assert.assertEquals(buf.array(), "ell".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(2), 10).get(), Integer.valueOf(-1));
+            Assert.assertEquals(channel.size(), BODY.length());
+
+            final CompletableFuture<Integer> completed = new CompletableFuture<>();
+            final ByteBuffer other = ByteBuffer.allocate(10);
+            channel.read(other, 2, completed, new CompletionHandler<Integer, CompletableFuture<Integer>>() {
+                @Override
+                public void completed(final Integer result, final CompletableFuture<Integer> attachment) {
+                    attachment.complete(result);
+                }
+
+                @Override
+                public void failed(final Throwable exc, final CompletableFuture<Integer> attachment) {
+                    attachment.completeExceptionally(exc);
+                }
+            });
+            Assert.assertEquals(completed.get(), Integer.valueOf(3));
+            Assert.assertEquals(new String(other.array(), 0, other.position(), StandardCharsets.UTF_8), "llo");
+        }
+    }
+
+    @Test
+    public void testAsynchronousReadsAreRetried() throws Exception {
+        wireMockServer.stubFor(get(FILE_URL).inScenario("fail once")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(503))
+                .willSetStateTo("errored"));
+        wireMockServer.stubFor(get(FILE_URL).inScenario("fail once")
+                .whenScenarioStateIs("errored")
+                .willReturn(aResponse().withStatus(206).withBody("Hell")));
+
+        try (final AsynchronousFileChannel channel = AsynchronousFileChannel.open(Paths.get(getUri("/file.txt")))) {
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(4), 0).get(), Integer.valueOf(4));
+        }
+        verify(2, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testAsynchronousReadOfMissingFileFails() throws Exception {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(notFound()));
+        try (final AsynchronousFileChannel channel = AsynchronousFileChannel.open(Paths.get(getUri("/file.txt")))) {
+            final ExecutionException e = Assert.expectThrows(ExecutionException.class,
+                    () -> channel.read(ByteBuffer.allocate(4), 0).get());
+            Assert.assertTrue(e.getCause() instanceof FileNotFoundException, e.getCause().toString());
+        }
+    }
+
     @DataProvider
     public Object[][] getFaults(){
         return new Object[][] {
@@ -82,6 +344,7 @@ public class MockedIntegrationTest extends BaseTest {
                 .willReturn(aResponse().withFault(fault)));
         try(SeekableByteChannel chan = new HttpSeekableByteChannel(getUri("/file.txt"))){
             //this should fail with the appropriate exception
+            chan.read(ByteBuffer.allocate(1));
         }
     }
 
@@ -136,7 +399,7 @@ public class MockedIntegrationTest extends BaseTest {
     public static Object[][] getReturnCodes() {
         return new Object[][]{
                 {200, 0, null},
-                {200, 100, IncompatibleResponseToRangeQueryException.class},
+                {200, 100, null}, // the file is downloaded and read locally
                 {206, 100, null},
                 {206, 0, IncompatibleResponseToRangeQueryException.class},
                 {404, 0, FileNotFoundException.class},
@@ -152,12 +415,831 @@ public class MockedIntegrationTest extends BaseTest {
         if(expectedException != null){
             Assert.assertThrows(expectedException, () -> {
                 try(SeekableByteChannel channel = new HttpSeekableByteChannel( getUri("/file.txt"), position)){
+                    channel.read(ByteBuffer.allocate(1));
                     //shouldn't get here
                 }
             });
         }
     }
 
+    @Test
+    public void testServersIgnoringRangesAreReadFromALocalCopy() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok(BODY)));
+
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, HttpFileSystemProviderSettings.DEFAULT_SETTINGS, 2L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(10);
+            Assert.assertEquals(channel.read(buf), 3);
+            Assert.assertEquals(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8), "llo");
+            Assert.assertEquals(channel.size(), BODY.length());
+        }
+        Assert.assertTrue(fs.ignoresRangeRequests());
+        // the whole file sent in answer to the range request is kept as the local copy
+        verify(1, getRequestedFor(FILE_URL));
+
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, HttpFileSystemProviderSettings.DEFAULT_SETTINGS, 1L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(10);
+            Assert.assertEquals(channel.read(buf), 4);
+            Assert.assertEquals(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8), "ello");
+            channel.position(0);
+            buf.clear();
+            Assert.assertEquals(channel.read(buf), BODY.length());
+            Assert.assertEquals(StandardCharsets.UTF_8.decode(channel.readTail(2)).toString(), "lo");
+        }
+        verify(1, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testStandaloneChannelsDeleteTheirLocalCopy() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok(BODY)));
+
+        final List<Path> before = listLocalCopies();
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), 2L)) {
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(10)), 3);
+            Assert.assertEquals(listLocalCopies().size(), before.size() + 1);
+        }
+        Assert.assertEquals(listLocalCopies(), before);
+    }
+
+    @Test
+    public void testStandaloneChannelsShareAClient() throws IOException {
+        final URI uri = getUri("/file.txt");
+        final HttpFileSystem first;
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri);
+             final HttpSeekableByteChannel other = new HttpSeekableByteChannel(getUri("/other.txt"))) {
+            first = channel.getFileSystem();
+            Assert.assertSame(other.getFileSystem(), first);
+            Assert.assertSame(other.getFileSystem().getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS),
+                    first.getClient(HttpFileSystemProviderSettings.DEFAULT_SETTINGS));
+            // channels with other settings don't change the client of these ones
+            final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                    .withTimeout(Duration.ofSeconds(1));
+            try (final HttpSeekableByteChannel tuned = new HttpSeekableByteChannel(uri, settings, 0L)) {
+                Assert.assertNotSame(tuned.getFileSystem(), first);
+            }
+        }
+        // the file system is released with its last channel
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri)) {
+            Assert.assertNotSame(channel.getFileSystem(), first);
+        }
+    }
+
+    private static List<Path> listLocalCopies() throws IOException {
+        try (final Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("http-nio-")).sorted().toList();
+        }
+    }
+
+    @Test
+    public void testBlockReadsFromServersIgnoringRangesUseALocalCopy() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok(BODY)));
+
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(2, 100));
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), fs, settings, 2L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(10);
+            Assert.assertEquals(channel.read(buf), 3);
+            Assert.assertEquals(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8), "llo");
+            buf.clear();
+            Assert.assertEquals(channel.read(buf, 1), 4);
+        }
+        Assert.assertTrue(fs.ignoresRangeRequests());
+        // the body of the range request is not read, so the file is downloaded once more
+        verify(2, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testConcurrentReadsFromVirtualThreads() throws Exception {
+        ExecutorService executor;
+        try {
+            // looked up reflectively so the tests still compile for Java 17
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final NoSuchMethodException e) {
+            // Java 17 has no virtual threads, so as many platform threads as possible read concurrently instead
+            executor = Executors.newFixedThreadPool(200);
+        }
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=1-"))
+                .willReturn(aResponse().withStatus(206).withBody(BODY.substring(1))
+                        .withHeader("content-range", "bytes 1-4/" + BODY.length())));
+
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        final int readers = 1000;
+        try {
+            final List<Future<String>> reads = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                reads.add(executor.submit(() -> {
+                    try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, HttpFileSystemProviderSettings.DEFAULT_SETTINGS, 1L)) {
+                        final ByteBuffer buf = ByteBuffer.allocate(10);
+                        while (channel.read(buf) != -1) {
+                            // read until the end of the file
+                        }
+                        Assert.assertEquals(channel.position(), BODY.length());
+                        return new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+                    }
+                }));
+            }
+            for (final Future<String> read : reads) {
+                Assert.assertEquals(read.get(1, TimeUnit.MINUTES), BODY.substring(1));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(readers, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testRequestsAreLimitedPerServer() throws Exception {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(aResponse().withStatus(206).withBody("l")
+                .withHeader("content-range", "bytes 2-2/" + BODY.length())
+                .withFixedDelay(100)));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withRequestLimitSettings(new HttpFileSystemProviderSettings.RequestLimitSettings(2));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final int readers = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), fs, settings, 0L)) {
+            final List<Future<Integer>> reads = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                reads.add(executor.submit(() -> channel.read(ByteBuffer.allocate(1), 2)));
+            }
+            for (final Future<Integer> read : reads) {
+                Assert.assertEquals(read.get().intValue(), 1);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final RequestLimiter limiter = fs.getRequestLimiter();
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+        Assert.assertEquals(limiter.getRequests(), readers);
+        // at most 2 of the 8 requests were sent without waiting
+        Assert.assertTrue(limiter.getQueuedRequests() >= readers - 2);
+        Assert.assertTrue(limiter.getMaxQueueTime().toMillis() >= 100);
+    }
+
+    @Test
+    public void testOpenStreamsHoldTheirRequestPermit() throws Exception {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok("x".repeat(100_000))));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withRequestLimitSettings(new HttpFileSystemProviderSettings.RequestLimitSettings(2));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (final HttpSeekableByteChannel first = new HttpSeekableByteChannel(uri, fs, settings, 0L);
+             final HttpSeekableByteChannel second = new HttpSeekableByteChannel(uri, fs, settings, 0L);
+             final HttpSeekableByteChannel third = new HttpSeekableByteChannel(uri, fs, settings, 0L)) {
+            Assert.assertEquals(first.read(ByteBuffer.allocate(1)), 1);
+            Assert.assertEquals(second.read(ByteBuffer.allocate(1)), 1);
+            final RequestLimiter limiter = fs.getRequestLimiter();
+            Assert.assertEquals(limiter.getInFlightRequests(), 2);
+
+            // the third stream waits until one of the others is closed
+            final Future<Integer> read = executor.submit(() -> third.read(ByteBuffer.allocate(1)));
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (limiter.getQueueLength() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(limiter.getQueueLength(), 1);
+            Assert.assertFalse(read.isDone());
+            first.close();
+            Assert.assertEquals(read.get(1, TimeUnit.MINUTES).intValue(), 1);
+            Assert.assertEquals(limiter.getInFlightRequests(), 2);
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(fs.getRequestLimiter().getInFlightRequests(), 0);
+    }
+
+    @Test
+    public void testStalledStreamsAreReopenedAtTheCurrentPosition() throws IOException {
+        final String body = "0123456789".repeat(10);
+        // the first response sends half of the file and stalls, the next ones are fast
+        wireMockServer.stubFor(get(FILE_URL).inScenario("stall")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(ok(body).withChunkedDribbleDelay(2, 20_000))
+                .willSetStateTo("stalled"));
+        wireMockServer.stubFor(get(FILE_URL).inScenario("stall")
+                .whenScenarioStateIs("stalled")
+                .withHeader("Range", absent())
+                .willReturn(ok(body)));
+        for (int i = 1; i < body.length(); i++) {
+            wireMockServer.stubFor(get(FILE_URL).inScenario("stall")
+                    .whenScenarioStateIs("stalled")
+                    .withHeader("Range", equalTo("bytes=" + i + "-"))
+                    .willReturn(aResponse().withStatus(206).withBody(body.substring(i))
+                            .withHeader("content-range", "bytes " + i + "-" + (body.length() - 1) + "/" + body.length())));
+        }
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withStallSettings(new HttpFileSystemProviderSettings.StallSettings(Duration.ofMillis(300), 0,
+                        Duration.ofSeconds(1)));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final long start = System.nanoTime();
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), fs, settings, 0L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(body.length() + 1);
+            while (channel.read(buf) != -1) {
+                // read the whole file
+            }
+            Assert.assertEquals(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8), body);
+        }
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        verify(2, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testBlockCacheIsSharedBetweenChannels() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-3"))
+                .willReturn(aResponse().withStatus(206).withBody("Hell")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=4-7"))
+                .willReturn(aResponse().withStatus(206).withBody("o")));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(4, 1024));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        for (int i = 0; i < 3; i++) {
+            try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, settings, 0L)) {
+                final ByteBuffer buf = ByteBuffer.allocate(10);
+                Assert.assertEquals(channel.read(buf), BODY.length());
+                Assert.assertEquals(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8), BODY);
+                Assert.assertEquals(channel.read(buf), -1);
+                Assert.assertEquals(channel.position(), BODY.length());
+            }
+        }
+        verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=0-3")));
+        verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=4-7")));
+    }
+
+    @Test
+    public void testMetadataIsSharedBetweenChannels() throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok()
+                .withHeader("content-length", String.valueOf(BODY.length()))
+                .withHeader("etag", "\"v1\"")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=1-"))
+                .willReturn(aResponse().withStatus(206).withBody(BODY.substring(1))
+                        .withHeader("content-range", "bytes 1-4/" + BODY.length())));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withMetadataCacheSettings(new HttpFileSystemProviderSettings.MetadataCacheSettings(Duration.ofMinutes(1), 10));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        for (int i = 0; i < 3; i++) {
+            try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, settings, 0L)) {
+                Assert.assertEquals(channel.size(), BODY.length());
+            }
+        }
+        Assert.assertEquals(fs.getMetadata(uri, settings).eTag(), "\"v1\"");
+        verify(1, headRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testMissingFilesAreCached() throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(notFound()));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withMetadataCacheSettings(new HttpFileSystemProviderSettings.MetadataCacheSettings(Duration.ofMinutes(1), 10));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(fs.getMetadata(uri, settings));
+        }
+        verify(1, headRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testConcurrentMetadataLookupsShareARequest() throws Exception {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok()
+                .withHeader("content-length", String.valueOf(BODY.length()))
+                .withFixedDelay(500)));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withMetadataCacheSettings(new HttpFileSystemProviderSettings.MetadataCacheSettings(Duration.ofMinutes(1), 10));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<HttpFileMetadata>> lookups = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                lookups.add(executor.submit(() -> fs.getMetadata(uri, settings)));
+            }
+            for (final Future<HttpFileMetadata> lookup : lookups) {
+                Assert.assertEquals(lookup.get(1, TimeUnit.MINUTES).size(), BODY.length());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(1, headRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testMetadataIsLearnedFromRangeResponses() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=1-"))
+                .willReturn(aResponse().withStatus(206).withBody(BODY.substring(1))
+                        .withHeader("content-range", "bytes 1-4/" + BODY.length())
+                        .withHeader("last-modified", "Wed, 21 Oct 2015 07:28:00 GMT")));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withMetadataCacheSettings(new HttpFileSystemProviderSettings.MetadataCacheSettings(Duration.ofMinutes(1), 10));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, settings, 1L)) {
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(10)), BODY.length() - 1);
+        }
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, settings, 0L)) {
+            Assert.assertEquals(channel.size(), BODY.length());
+        }
+        final HttpFileMetadata metadata = fs.getMetadata(uri, settings);
+        Assert.assertTrue(metadata.acceptsRanges());
+        Assert.assertEquals(metadata.lastModified(), Instant.parse("2015-10-21T07:28:00Z"));
+        verify(0, headRequestedFor(FILE_URL));
+    }
+
+    // redirect the file to the given location, which answers range requests from position 1
+    private void redirectFileTo(final String location) {
+        wireMockServer.stubFor(get(FILE_URL).willReturn(aResponse().withStatus(302).withHeader("Location", location)));
+        wireMockServer.stubFor(get(urlEqualTo(location)).withHeader("Range", equalTo("bytes=1-"))
+                .willReturn(aResponse().withStatus(206).withBody(BODY.substring(1))
+                        .withHeader("content-range", "bytes 1-4/" + BODY.length())));
+    }
+
+    // read the file from position 1 through a new channel
+    private void readFromSecondByte(final HttpFileSystem fs, final HttpFileSystemProviderSettings settings)
+            throws IOException {
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), fs, settings, 1L)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(10);
+            Assert.assertEquals(channel.read(buffer), BODY.length() - 1);
+            Assert.assertEquals(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8), BODY.substring(1));
+        }
+    }
+
+    @Test
+    public void testRedirectsAreCached() throws IOException {
+        redirectFileTo("/signed.txt");
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withRedirectCacheSettings(new HttpFileSystemProviderSettings.RedirectCacheSettings(Duration.ofMinutes(1), 10));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        for (int i = 0; i < 3; i++) {
+            readFromSecondByte(fs, settings);
+        }
+        verify(1, getRequestedFor(FILE_URL));
+        verify(3, getRequestedFor(urlEqualTo("/signed.txt")));
+    }
+
+    @Test
+    public void testExpiredRedirectsAreFollowedAgain() throws IOException {
+        redirectFileTo("/signed.txt");
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withRedirectCacheSettings(new HttpFileSystemProviderSettings.RedirectCacheSettings(Duration.ofMinutes(1), 10));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        readFromSecondByte(fs, settings);
+
+        // the signed location expires and the file is redirected to a new one
+        wireMockServer.resetAll();
+        wireMockServer.stubFor(get(urlEqualTo("/signed.txt")).willReturn(aResponse().withStatus(410)));
+        redirectFileTo("/renewed.txt");
+        readFromSecondByte(fs, settings);
+        readFromSecondByte(fs, settings);
+
+        verify(1, getRequestedFor(urlEqualTo("/signed.txt")));
+        verify(1, getRequestedFor(FILE_URL));
+        verify(2, getRequestedFor(urlEqualTo("/renewed.txt")));
+    }
+
+    @Test
+    public void testRedirectsAreFollowedWithoutCache() throws IOException {
+        redirectFileTo("/signed.txt");
+
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        for (int i = 0; i < 2; i++) {
+            readFromSecondByte(fs, HttpFileSystemProviderSettings.DEFAULT_SETTINGS);
+        }
+        verify(2, getRequestedFor(FILE_URL));
+    }
+
+    private void stubTail(final int length) {
+        final int start = Math.max(0, BODY.length() - length);
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=-" + length))
+                .willReturn(aResponse().withStatus(206).withBody(BODY.substring(start))
+                        .withHeader("content-range", "bytes " + start + "-" + (BODY.length() - 1) + "/" + BODY.length())));
+    }
+
+    @Test
+    public void testReadTailIsASingleRequest() throws IOException {
+        stubTail(3);
+
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"))) {
+            final ByteBuffer tail = channel.readTail(3);
+            Assert.assertEquals(StandardCharsets.UTF_8.decode(tail).toString(), "llo");
+            Assert.assertEquals(channel.size(), BODY.length());
+            Assert.assertEquals(channel.position(), 0L);
+        }
+        verify(1, getRequestedFor(FILE_URL));
+        verify(0, headRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testReadTailOfShortFile() throws IOException {
+        stubTail(10);
+
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"))) {
+            Assert.assertEquals(StandardCharsets.UTF_8.decode(channel.readTail(10)).toString(), BODY);
+            Assert.assertEquals(channel.size(), BODY.length());
+        }
+    }
+
+    @Test
+    public void testReadTailSeedsTheBlockCache() throws IOException {
+        stubTail(3);
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(2, 1024));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        final URI uri = getUri("/file.txt");
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, settings, 0L)) {
+            channel.readTail(3);
+        }
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, fs, settings, 0L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(3);
+            Assert.assertEquals(channel.read(buf, 2), 3);
+            Assert.assertEquals(new String(buf.array(), StandardCharsets.UTF_8), "llo");
+        }
+        verify(1, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testDiskCacheIsReusedUntilTheFileChanges() throws IOException, InterruptedException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok()
+                .withHeader("content-length", String.valueOf(BODY.length()))
+                .withHeader("etag", "\"v1\"")));
+        wireMockServer.stubFor(head(FILE_URL).withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304)));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-3"))
+                .willReturn(aResponse().withStatus(206).withBody("Hell")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=4-7"))
+                .willReturn(aResponse().withStatus(206).withBody("o")));
+
+        final Path directory = Files.createTempDirectory("disk-cache");
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(4, 0))
+                .withDiskCacheSettings(new HttpFileSystemProviderSettings.DiskCacheSettings(directory, 1024,
+                        Duration.ofMillis(500)));
+        final URI uri = getUri("/file.txt");
+        try {
+            for (int i = 0; i < 2; i++) {
+                // each channel has its own file system, so only the disk is shared
+                try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, settings, 0L)) {
+                    final ByteBuffer buf = ByteBuffer.allocate(10);
+                    Assert.assertEquals(channel.read(buf), BODY.length());
+                    Assert.assertEquals(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8), BODY);
+                }
+            }
+            verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=0-3")));
+            verify(0, headRequestedFor(FILE_URL).withHeader("If-None-Match", equalTo("\"v1\"")));
+
+            // once the entry is stale it is validated with a conditional request
+            Thread.sleep(600);
+            try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, settings, 0L)) {
+                Assert.assertEquals(channel.read(ByteBuffer.allocate(10)), BODY.length());
+            }
+            verify(1, headRequestedFor(FILE_URL).withHeader("If-None-Match", equalTo("\"v1\"")));
+            verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=0-3")));
+
+            // a new ETag discards the cached blocks
+            wireMockServer.stubFor(head(FILE_URL).withHeader("If-None-Match", equalTo("\"v1\""))
+                    .willReturn(ok().withHeader("etag", "\"v2\"")));
+            Thread.sleep(600);
+            try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, settings, 0L)) {
+                Assert.assertEquals(channel.read(ByteBuffer.allocate(10)), BODY.length());
+            }
+            verify(2, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=0-3")));
+        } finally {
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                for (final Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFilesWithAWeakETagAreNotCachedOnDisk() throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok()
+                .withHeader("content-length", String.valueOf(BODY.length()))
+                .withHeader("etag", "W/\"v1\"")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-3"))
+                .willReturn(aResponse().withStatus(206).withBody("Hell")));
+
+        final Path directory = Files.createTempDirectory("disk-cache");
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(4, 0))
+                .withDiskCacheSettings(new HttpFileSystemProviderSettings.DiskCacheSettings(directory, 1024,
+                        Duration.ofHours(1)));
+        try {
+            try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), settings, 0L)) {
+                Assert.assertEquals(channel.read(ByteBuffer.allocate(4)), 4);
+            }
+            // a weak ETag does not identify the bytes, so they are not stored
+            try (final Stream<Path> files = Files.walk(directory)) {
+                Assert.assertEquals(files.filter(Files::isRegularFile)
+                        .filter(file -> !file.getFileName().toString().startsWith("."))
+                        .toList(), List.of());
+            }
+            verify(0, getRequestedFor(FILE_URL).withHeader("If-Match", matching(".*")));
+        } finally {
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                for (final Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDiskCacheIsInvalidatedIfTheFileChangesWithinTheTtl() throws IOException {
+        wireMockServer.stubFor(head(FILE_URL).willReturn(ok()
+                .withHeader("content-length", String.valueOf(BODY.length()))
+                .withHeader("etag", "\"v1\"")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-3"))
+                .willReturn(aResponse().withStatus(206).withBody("Hell")));
+
+        final Path directory = Files.createTempDirectory("disk-cache");
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(4, 0))
+                .withDiskCacheSettings(new HttpFileSystemProviderSettings.DiskCacheSettings(directory, 1024,
+                        Duration.ofHours(1)));
+        final URI uri = getUri("/file.txt");
+        try {
+            try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, settings, 0L)) {
+                Assert.assertEquals(channel.read(ByteBuffer.allocate(4)), 4);
+            }
+            final DiskBlockCache diskCache = DiskBlockCache.forSettings(settings.diskCacheSettings());
+            Assert.assertEquals(diskCache.getETag(uri), "\"v1\"");
+
+            // the file changes, the blocks of the old version are requested with If-Match
+            wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=4-7"))
+                    .willReturn(aResponse().withStatus(206).withBody("!")));
+            wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=4-7"))
+                    .withHeader("If-Match", equalTo("\"v1\""))
+                    .willReturn(aResponse().withStatus(412)));
+            try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(uri, settings, 4L)) {
+                final ByteBuffer buf = ByteBuffer.allocate(4);
+                Assert.assertEquals(channel.read(buf), 1);
+                Assert.assertEquals(buf.get(0), (byte) '!');
+            }
+            verify(1, getRequestedFor(FILE_URL).withHeader("If-Match", equalTo("\"v1\""))
+                    .withHeader("Range", equalTo("bytes=4-7")));
+            Assert.assertNull(diskCache.getETag(uri));
+        } finally {
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                for (final Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static List<String> readRanges(final HttpSeekableByteChannel channel, final List<ByteRange> ranges)
+            throws IOException {
+        final List<String> strings = new ArrayList<>();
+        for (final ByteBuffer buffer : channel.readRanges(ranges)) {
+            strings.add(StandardCharsets.UTF_8.decode(buffer).toString());
+        }
+        return strings;
+    }
+
+    @Test
+    public void testReadRangesMergesNearbyRanges() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-15"))
+                .willReturn(aResponse().withStatus(206).withBody("Hello World!")));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withRangeReadSettings(new HttpFileSystemProviderSettings.RangeReadSettings(2, 100));
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), settings, 0L)) {
+            final List<ByteRange> ranges = List.of(new ByteRange(6, 5), new ByteRange(0, 2),
+                    new ByteRange(3, 1), new ByteRange(11, 5));
+            Assert.assertEquals(readRanges(channel, ranges), List.of("World", "He", "l", "!"));
+            Assert.assertEquals(channel.position(), 0);
+        }
+        verify(1, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testReadRangesSplitsDistantRanges() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-1"))
+                .willReturn(aResponse().withStatus(206).withBody("He")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=3-3"))
+                .willReturn(aResponse().withStatus(206).withBody("l")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=6-15"))
+                .willReturn(aResponse().withStatus(206).withBody("World!")));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withRangeReadSettings(new HttpFileSystemProviderSettings.RangeReadSettings(0, 100));
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), settings, 0L)) {
+            final List<ByteRange> ranges = List.of(new ByteRange(6, 5), new ByteRange(0, 2),
+                    new ByteRange(3, 1), new ByteRange(11, 5));
+            Assert.assertEquals(readRanges(channel, ranges), List.of("World", "He", "l", "!"));
+        }
+        verify(3, getRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testBlockCacheSeek() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-3"))
+                .willReturn(aResponse().withStatus(206).withBody("Hell")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=4-7"))
+                .willReturn(aResponse().withStatus(206).withBody("o")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=8-11"))
+                .willReturn(aResponse().withStatus(416)));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(4, 1024));
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), settings, 3L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(2);
+            Assert.assertEquals(channel.read(buf), 2);
+            Assert.assertEquals(buf.array(), new byte[]{'l', 'o'});
+            channel.position(1);
+            buf.clear();
+            Assert.assertEquals(channel.read(buf), 2);
+            Assert.assertEquals(buf.array(), new byte[]{'e', 'l'});
+            channel.position(10);
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(1)), -1);
+        }
+    }
+
+    @Test
+    public void testSequentialReadsArePrefetched() throws IOException {
+        final String body = "Hello World!";
+        for (int start = 0; start < 20; start += 4) {
+            final String range = "bytes=" + start + "-" + (start + 3);
+            wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo(range))
+                    .willReturn(start < body.length()
+                            ? aResponse().withStatus(206).withBody(body.substring(start, start + 4))
+                            : aResponse().withStatus(416)));
+        }
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(4, 0))
+                .withReadAheadSettings(new HttpFileSystemProviderSettings.ReadAheadSettings(1, 2));
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), settings, 0L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(body.length());
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(channel.read(buf.limit(buf.position() + 4)), 4);
+            }
+            Assert.assertEquals(new String(buf.array(), StandardCharsets.UTF_8), body);
+        }
+        // the third block was prefetched while reading the second one, so it was requested only once
+        verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=0-3")));
+        verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=4-7")));
+        verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=8-11")));
+    }
+
+    @Test
+    public void testClosingCancelsThePrefetchedBlocks() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-3"))
+                .willReturn(aResponse().withStatus(206).withBody("Hell")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=4-7"))
+                .willReturn(aResponse().withStatus(206).withBody("o").withFixedDelay(30_000)));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withCacheSettings(new HttpFileSystemProviderSettings.CacheSettings(4, 0))
+                .withReadAheadSettings(new HttpFileSystemProviderSettings.ReadAheadSettings(1, 2))
+                .withRequestLimitSettings(new HttpFileSystemProviderSettings.RequestLimitSettings(4));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), fs, settings, 0L)) {
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(4)), 4);
+            // the next block is being prefetched
+            Assert.assertEquals(fs.getRequestLimiter().getInFlightRequests(), 1);
+        }
+        // the request was cancelled instead of waiting for the response
+        Assert.assertEquals(fs.getRequestLimiter().getInFlightRequests(), 0);
+    }
+
+    @Test
+    public void testChunkedStreaming() throws IOException {
+        final String body = "Hello World!";
+        for (int start = 0; start < body.length(); start += 4) {
+            wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=" + start + "-" + (start + 3)))
+                    .willReturn(aResponse().withStatus(206)
+                            .withHeader("Content-Range", "bytes " + start + "-" + (start + 3) + "/" + body.length())
+                            .withBody(body.substring(start, start + 4))));
+        }
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withStreamSettings(new HttpFileSystemProviderSettings.StreamSettings(4));
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), settings, 0L)) {
+            Assert.assertEquals(HttpSeekableByteChannelUnitTest.readAll(body.length(), channel),
+                    body.getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(1)), -1);
+            // the size was learned from the Content-Range header
+            Assert.assertEquals(channel.size(), body.length());
+        }
+        verify(3, getRequestedFor(FILE_URL));
+        verify(0, headRequestedFor(FILE_URL));
+    }
+
+    @Test
+    public void testLargeSequentialReadsAreStriped() throws IOException {
+        final String body = "Hello World!";
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok(body)));
+        for (int start = 4; start < 20; start += 4) {
+            wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=" + start + "-" + (start + 3)))
+                    .willReturn(start < body.length()
+                            ? aResponse().withStatus(206).withBody(body.substring(start, start + 4))
+                            : aResponse().withStatus(416)));
+        }
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withStripeSettings(new HttpFileSystemProviderSettings.StripeSettings(2, 4, 8));
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), settings, 0L)) {
+            final ByteBuffer buf = ByteBuffer.allocate(body.length());
+            // the first stripe is streamed, the rest is downloaded in parallel
+            Assert.assertEquals(channel.read(buf.limit(4)), 4);
+            Assert.assertEquals(HttpSeekableByteChannelUnitTest.readAll(body.length() - 4, channel),
+                    body.substring(4).getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(1)), -1);
+            Assert.assertEquals(channel.position(), body.length());
+        }
+        verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=4-7")));
+        verify(1, getRequestedFor(FILE_URL).withHeader("Range", equalTo("bytes=8-11")));
+    }
+
+    @Test
+    public void testClosingCancelsTheStripesInFlight() throws IOException {
+        final String body = "Hello World!";
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok(body)));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", matching("bytes=[0-9]+-[0-9]+"))
+                .willReturn(aResponse().withStatus(206).withBody("o Wo").withFixedDelay(30_000)));
+
+        final HttpFileSystemProviderSettings settings = HttpFileSystemProviderSettings.DEFAULT_SETTINGS
+                .withStripeSettings(new HttpFileSystemProviderSettings.StripeSettings(2, 4, 8))
+                .withRequestLimitSettings(new HttpFileSystemProviderSettings.RequestLimitSettings(4));
+        final HttpFileSystem fs = new HttpFileSystem(new HttpFileSystemProvider(), "localhost:" + wireMockServer.port());
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"), fs, settings, 0L)) {
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(4)), 4);
+            // the next stripes are being downloaded
+            Assert.assertEquals(fs.getRequestLimiter().getInFlightRequests(), 2);
+        }
+        // the requests were cancelled instead of waiting for the responses
+        Assert.assertEquals(fs.getRequestLimiter().getInFlightRequests(), 0);
+    }
+
+    @Test
+    public void testPositionalReadsDontMoveThePosition() throws Exception {
+        final String body = "Hello World!";
+        wireMockServer.stubFor(get(FILE_URL).willReturn(ok(body)));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=0-4"))
+                .willReturn(aResponse().withStatus(206).withBody("Hello")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=6-10"))
+                .willReturn(aResponse().withStatus(206).withBody("World")));
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=20-24"))
+                .willReturn(aResponse().withStatus(416)));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"))) {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final long position = i % 2 == 0 ? 0 : 6;
+                results.add(executor.submit(() -> {
+                    final ByteBuffer buf = ByteBuffer.allocate(5);
+                    Assert.assertEquals(channel.read(buf, position), 5);
+                    return new String(buf.array(), StandardCharsets.UTF_8);
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(results.get(i).get(), i % 2 == 0 ? "Hello" : "World");
+            }
+            Assert.assertEquals(channel.read(ByteBuffer.allocate(5), 20), -1);
+            Assert.assertEquals(channel.position(), 0);
+            Assert.assertEquals(HttpSeekableByteChannelUnitTest.readAll(body.length(), channel),
+                    body.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOpeningIsLazy() throws IOException {
+        wireMockServer.stubFor(get(FILE_URL).withHeader("Range", equalTo("bytes=2-"))
+                .willReturn(aResponse().withStatus(206).withBody("llo")));
+
+        try (final HttpSeekableByteChannel channel = new HttpSeekableByteChannel(getUri("/file.txt"))) {
+            // neither opening nor seeking sends a request
+            channel.position(10).position(2);
+            verify(0, anyRequestedFor(anyUrl()));
+
+            final ByteBuffer buf = ByteBuffer.allocate(3);
+            Assert.assertEquals(channel.read(buf), 3);
+            Assert.assertEquals(buf.array(), new byte[]{'l', 'l', 'o'});
+        }
+        verify(1, getRequestedFor(FILE_URL));
+    }
+
     URI getUri(String path) {
         try {
             return new URI(wireMockServer.url(path));
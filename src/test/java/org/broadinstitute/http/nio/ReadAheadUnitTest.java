@@ -0,0 +1,93 @@
+package org.broadinstitute.http.nio;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class ReadAheadUnitTest extends BaseTest {
+
+    private static ReadAhead newReadAhead(int initialBlocks, int maxBlocks) {
+        return new ReadAhead(new HttpFileSystemProviderSettings.ReadAheadSettings(initialBlocks, maxBlocks));
+    }
+
+    private static CompletableFuture<byte[]> block(long blockIndex) {
+        return CompletableFuture.completedFuture(new byte[]{(byte) blockIndex});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDisabledReadAheadCannotBeCreated() {
+        newReadAhead(0, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInitialBlocksMustBeInTheWindow() {
+        newReadAhead(4, 2);
+    }
+
+    @Test
+    public void testPrefetchesTheFollowingBlocks() throws IOException {
+        final ReadAhead readAhead = newReadAhead(2, 8);
+        final List<Long> fetched = new ArrayList<>();
+        readAhead.prefetchAfter(10, i -> {
+            fetched.add(i);
+            return block(i);
+        });
+        Assert.assertEquals(fetched, List.of(11L, 12L));
+        Assert.assertNull(readAhead.take(10));
+        Assert.assertEquals(readAhead.take(11), new byte[]{11});
+        // the block is not kept after being taken
+        Assert.assertNull(readAhead.take(11));
+    }
+
+    @Test
+    public void testWindowGrowsOnHitsUpToTheMaximum() throws IOException {
+        final ReadAhead readAhead = newReadAhead(1, 4);
+        readAhead.prefetchAfter(0, ReadAheadUnitTest::block);
+        Assert.assertEquals(readAhead.getWindow(), 1);
+        for (long i = 1; i < 10; i++) {
+            Assert.assertNotNull(readAhead.take(i));
+            readAhead.prefetchAfter(i, ReadAheadUnitTest::block);
+        }
+        Assert.assertEquals(readAhead.getWindow(), 4);
+    }
+
+    @Test
+    public void testResetCollapsesTheWindow() throws IOException {
+        final ReadAhead readAhead = newReadAhead(2, 8);
+        final CompletableFuture<byte[]> pending = new CompletableFuture<>();
+        readAhead.prefetchAfter(0, i -> pending);
+        readAhead.reset();
+        Assert.assertEquals(readAhead.getWindow(), 0);
+        Assert.assertTrue(pending.isCancelled());
+        Assert.assertNull(readAhead.take(1));
+    }
+
+    @Test
+    public void testStaleBlocksAreCancelled() {
+        final ReadAhead readAhead = newReadAhead(2, 2);
+        final CompletableFuture<byte[]> stale = new CompletableFuture<>();
+        readAhead.prefetchAfter(0, i -> i == 1 ? stale : block(i));
+        readAhead.prefetchAfter(5, ReadAheadUnitTest::block);
+        Assert.assertTrue(stale.isCancelled());
+    }
+
+    @Test
+    public void testFailedPrefetchIsIgnored() throws IOException {
+        final ReadAhead readAhead = newReadAhead(1, 1);
+        readAhead.prefetchAfter(0, i -> CompletableFuture.failedFuture(new IOException("failed")));
+        Assert.assertNull(readAhead.take(1));
+    }
+
+    @Test
+    public void testBlocksWhichShouldNotBeFetchedAreSkipped() throws IOException {
+        final ReadAhead readAhead = newReadAhead(3, 3);
+        readAhead.prefetchAfter(0, i -> i == 2 ? null : block(i));
+        Assert.assertNotNull(readAhead.take(1));
+        Assert.assertNull(readAhead.take(2));
+        Assert.assertNotNull(readAhead.take(3));
+    }
+}
@@ -0,0 +1,143 @@
+package org.broadinstitute.http.nio;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+public class RequestHedgerUnitTest extends BaseTest {
+
+    private static final HttpRequest REQUEST = HttpRequest.newBuilder(URI.create("http://example.com/file")).build();
+
+    private static RequestHedger hedger(final double maxHedgeRatio) {
+        final RequestHedger hedger = new RequestHedger(
+                new HttpFileSystemProviderSettings.HedgeSettings(1024, 0.5, maxHedgeRatio, Duration.ZERO));
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+            hedger.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return hedger;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpClient client(final CompletableFuture<?>... responses) {
+        final HttpClient client = Mockito.mock(HttpClient.class);
+        CompletableFuture<HttpResponse<byte[]>>[] rest = new CompletableFuture[responses.length - 1];
+        for (int i = 1; i < responses.length; i++) {
+            rest[i - 1] = (CompletableFuture<HttpResponse<byte[]>>) responses[i];
+        }
+        Mockito.when(client.sendAsync(Mockito.any(HttpRequest.class), Mockito.<HttpResponse.BodyHandler<byte[]>>any()))
+                .thenReturn((CompletableFuture<HttpResponse<byte[]>>) responses[0], rest);
+        return client;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<byte[]> response() {
+        return Mockito.mock(HttpResponse.class);
+    }
+
+    @Test
+    public void testDelayIsThePercentileOfTheLatencies() {
+        final RequestHedger hedger = new RequestHedger(
+                new HttpFileSystemProviderSettings.HedgeSettings(1024, 0.9, 0.1, Duration.ofMillis(2)));
+        for (int i = 1; i < RequestHedger.MIN_SAMPLES; i++) {
+            hedger.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        Assert.assertNull(hedger.getDelay());
+        hedger.record(TimeUnit.MILLISECONDS.toNanos(RequestHedger.MIN_SAMPLES));
+        Assert.assertEquals(hedger.getDelay(), Duration.ofMillis(18));
+
+        final RequestHedger fast = new RequestHedger(
+                new HttpFileSystemProviderSettings.HedgeSettings(1024, 0.9, 0.1, Duration.ofMillis(2)));
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+            fast.record(1);
+        }
+        Assert.assertEquals(fast.getDelay(), Duration.ofMillis(2));
+    }
+
+    @Test
+    public void testSlowRequestsAreHedged() {
+        final CompletableFuture<HttpResponse<byte[]>> slow = new CompletableFuture<>();
+        final HttpResponse<byte[]> response = response();
+        final HttpClient client = client(slow, CompletableFuture.completedFuture(response));
+        final RequestHedger hedger = hedger(1.0);
+
+        Assert.assertSame(hedger.send(client, REQUEST, HttpResponse.BodyHandlers.ofByteArray()).join(), response);
+        Assert.assertTrue(slow.isCancelled());
+        Assert.assertEquals(hedger.getRequests(), 1);
+        Assert.assertEquals(hedger.getHedges(), 1);
+        Assert.assertEquals(hedger.getHedgeWins(), 1);
+    }
+
+    @Test
+    public void testHedgesAreCapped() throws Exception {
+        final CompletableFuture<HttpResponse<byte[]>> slow = new CompletableFuture<>();
+        final HttpClient client = client(slow, CompletableFuture.completedFuture(response()));
+        final RequestHedger hedger = hedger(0.5);
+
+        final CompletableFuture<HttpResponse<byte[]>> result =
+                hedger.send(client, REQUEST, HttpResponse.BodyHandlers.ofByteArray());
+        Thread.sleep(100);
+        Assert.assertFalse(result.isDone());
+        Assert.assertEquals(hedger.getHedges(), 0);
+        Mockito.verify(client, Mockito.times(1)).sendAsync(Mockito.any(), Mockito.any());
+
+        final HttpResponse<byte[]> response = response();
+        slow.complete(response);
+        Assert.assertSame(result.join(), response);
+    }
+
+    @Test
+    public void testNothingIsHedgedWithoutLatencies() throws Exception {
+        final CompletableFuture<HttpResponse<byte[]>> slow = new CompletableFuture<>();
+        final HttpClient client = client(slow, CompletableFuture.completedFuture(response()));
+        final RequestHedger hedger = new RequestHedger(
+                new HttpFileSystemProviderSettings.HedgeSettings(1024, 0.5, 1.0, Duration.ZERO));
+
+        hedger.send(client, REQUEST, HttpResponse.BodyHandlers.ofByteArray());
+        Thread.sleep(100);
+        Assert.assertEquals(hedger.getHedges(), 0);
+        Mockito.verify(client, Mockito.times(1)).sendAsync(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testFailureWaitsForTheHedge() throws Exception {
+        final CompletableFuture<HttpResponse<byte[]>> slow = new CompletableFuture<>();
+        final CompletableFuture<HttpResponse<byte[]>> hedge = new CompletableFuture<>();
+        final HttpClient client = client(slow, hedge);
+        final RequestHedger hedger = hedger(1.0);
+
+        final CompletableFuture<HttpResponse<byte[]>> result =
+                hedger.send(client, REQUEST, HttpResponse.BodyHandlers.ofByteArray());
+        Mockito.verify(client, Mockito.timeout(1000).times(2)).sendAsync(Mockito.any(), Mockito.any());
+        slow.completeExceptionally(new IOException("boom"));
+        Assert.assertFalse(result.isDone());
+
+        hedge.completeExceptionally(new IOException("boom again"));
+        final CompletionException ex = Assert.expectThrows(CompletionException.class, result::join);
+        Assert.assertEquals(ex.getCause().getMessage(), "boom again");
+    }
+
+    @Test
+    public void testCancellingTheResultCancelsTheRequests() {
+        final CompletableFuture<HttpResponse<byte[]>> slow = new CompletableFuture<>();
+        final CompletableFuture<HttpResponse<byte[]>> hedge = new CompletableFuture<>();
+        final HttpClient client = client(slow, hedge);
+        final RequestHedger hedger = hedger(1.0);
+
+        final CompletableFuture<HttpResponse<byte[]>> result =
+                hedger.send(client, REQUEST, HttpResponse.BodyHandlers.ofByteArray());
+        Mockito.verify(client, Mockito.timeout(1000).times(2)).sendAsync(Mockito.any(), Mockito.any());
+        result.cancel(true);
+        Assert.assertTrue(slow.isCancelled());
+        Assert.assertTrue(hedge.isCancelled());
+    }
+}
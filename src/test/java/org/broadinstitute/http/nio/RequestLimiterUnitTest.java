@@ -0,0 +1,80 @@
+package org.broadinstitute.http.nio;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RequestLimiterUnitTest extends BaseTest {
+
+    @Test
+    public void testPermitsAreGrantedInOrder() {
+        final RequestLimiter limiter = new RequestLimiter(1);
+        Assert.assertTrue(limiter.acquireAsync().isDone());
+        final CompletableFuture<Void> second = limiter.acquireAsync();
+        final CompletableFuture<Void> third = limiter.acquireAsync();
+        Assert.assertFalse(second.isDone());
+        Assert.assertEquals(limiter.getQueueLength(), 2);
+
+        limiter.release();
+        Assert.assertTrue(second.isDone());
+        Assert.assertFalse(third.isDone());
+        limiter.release();
+        Assert.assertTrue(third.isDone());
+        limiter.release();
+
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+        Assert.assertEquals(limiter.getRequests(), 3);
+        Assert.assertEquals(limiter.getQueuedRequests(), 2);
+        Assert.assertTrue(limiter.getMaxQueueTime().compareTo(limiter.getTotalQueueTime()) <= 0);
+    }
+
+    @Test
+    public void testCancelledRequestsAreSkipped() {
+        final RequestLimiter limiter = new RequestLimiter(1);
+        limiter.acquireAsync();
+        final CompletableFuture<Void> cancelled = limiter.acquireAsync();
+        final CompletableFuture<Void> next = limiter.acquireAsync();
+        cancelled.cancel(false);
+
+        limiter.release();
+        Assert.assertTrue(next.isDone());
+        Assert.assertFalse(next.isCompletedExceptionally());
+        Assert.assertEquals(limiter.getInFlightRequests(), 1);
+    }
+
+    @Test
+    public void testInterruptedAcquireDoesNotHoldAPermit() throws InterruptedException {
+        final RequestLimiter limiter = new RequestLimiter(1);
+        limiter.acquire();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        final Thread waiter = new Thread(() -> {
+            started.countDown();
+            try {
+                limiter.acquire();
+            } catch (final InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiter.start();
+        started.await();
+        while (limiter.getQueueLength() == 0) {
+            Thread.onSpinWait();
+        }
+        waiter.interrupt();
+        waiter.join();
+        Assert.assertTrue(interrupted.get());
+
+        limiter.release();
+        Assert.assertEquals(limiter.getInFlightRequests(), 0);
+        Assert.assertTrue(limiter.acquireAsync().isDone());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxRequestsMustBePositive() {
+        new RequestLimiter(0);
+    }
+}
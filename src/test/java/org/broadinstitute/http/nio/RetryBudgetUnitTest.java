@@ -0,0 +1,163 @@
+package org.broadinstitute.http.nio;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryBudgetUnitTest extends BaseTest {
+
+    private static final URI TEST_URI = URI.create("http://example.com/file");
+
+    private static RetryBudget budget(final double ratio, final int maxSaved) {
+        return new RetryBudget(new HttpFileSystemProviderSettings.RetryBudgetSettings(ratio, maxSaved),
+                HttpFileSystemProviderSettings.DEFAULT_CIRCUIT_BREAKER_SETTINGS);
+    }
+
+    private static RetryBudget breaker(final int threshold, final Duration cooldown) {
+        return new RetryBudget(HttpFileSystemProviderSettings.DEFAULT_RETRY_BUDGET_SETTINGS,
+                new HttpFileSystemProviderSettings.CircuitBreakerSettings(threshold, cooldown));
+    }
+
+    @Test
+    public void testRetriesAreEarnedBySuccesses() {
+        final RetryBudget budget = budget(0.5, 2);
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertFalse(budget.tryRetry());
+
+        budget.onSuccess();
+        Assert.assertFalse(budget.tryRetry());
+        budget.onSuccess();
+        Assert.assertTrue(budget.tryRetry());
+
+        Assert.assertEquals(budget.getRetries(), 3);
+        Assert.assertEquals(budget.getDeniedRetries(), 2);
+    }
+
+    @Test
+    public void testSavedRetriesAreCapped() {
+        final RetryBudget budget = budget(1, 2);
+        for (int i = 0; i < 10; i++) {
+            budget.onSuccess();
+        }
+        Assert.assertEquals(budget.getSavedRetries(), 2.0);
+    }
+
+    @Test
+    public void testDisabledBudgetAllowsRetries() {
+        final RetryBudget budget = breaker(1, Duration.ofMinutes(1));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(budget.tryRetry());
+        }
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() throws IOException {
+        final RetryBudget budget = breaker(3, Duration.ofMinutes(1));
+        budget.onRetryableFailure();
+        budget.onRetryableFailure();
+        budget.onSuccess();
+        budget.onRetryableFailure();
+        budget.onRetryableFailure();
+        budget.checkCircuit(TEST_URI, null);
+        Assert.assertFalse(budget.isCircuitOpen());
+
+        budget.onRetryableFailure();
+        Assert.assertTrue(budget.isCircuitOpen());
+        Assert.assertThrows(CircuitBreakerOpenException.class, () -> budget.checkCircuit(TEST_URI, null));
+        Assert.assertEquals(budget.getCircuitOpenings(), 1);
+        Assert.assertEquals(budget.getRejectedRequests(), 1);
+
+        budget.onSuccess();
+        Assert.assertFalse(budget.isCircuitOpen());
+        budget.checkCircuit(TEST_URI, null);
+    }
+
+    @Test
+    public void testCircuitReopensOnFailureAfterCooldown() throws Exception {
+        final RetryBudget budget = breaker(2, Duration.ofMillis(50));
+        budget.onRetryableFailure();
+        budget.onRetryableFailure();
+        Assert.assertTrue(budget.isCircuitOpen());
+
+        Thread.sleep(100);
+        Assert.assertFalse(budget.isCircuitOpen());
+        budget.checkCircuit(TEST_URI, null);
+        budget.onRetryableFailure();
+        Assert.assertTrue(budget.isCircuitOpen());
+        Assert.assertEquals(budget.getCircuitOpenings(), 2);
+    }
+
+    @Test
+    public void testHandlersShareTheBudget() throws IOException {
+        final RetryBudget budget = budget(0, 2);
+        final AtomicInteger attempts = new AtomicInteger();
+        final RetryHandler.IOSupplier<Integer> failing = () -> {
+            attempts.incrementAndGet();
+            throw new SocketException("retryable");
+        };
+        final HttpFileSystemProviderSettings.RetrySettings settings = HttpFileSystemProviderSettings
+                .DEFAULT_RETRY_SETTINGS.withBackoffPolicy((attempt, previous) -> Duration.ZERO);
+
+        final OutOfRetriesException first = Assert.expectThrows(OutOfRetriesException.class,
+                () -> new RetryHandler(settings, TEST_URI, budget).runWithRetries(failing));
+        Assert.assertEquals(first.getRetries(), 2);
+        Assert.assertEquals(attempts.get(), 3);
+
+        final OutOfRetriesException second = Assert.expectThrows(OutOfRetriesException.class,
+                () -> new RetryHandler(settings, TEST_URI, budget).runWithRetries(failing));
+        Assert.assertEquals(second.getRetries(), 0);
+        Assert.assertEquals(attempts.get(), 4);
+    }
+
+    @Test
+    public void testHandlersFailFastWhileTheCircuitIsOpen() throws IOException {
+        final RetryBudget budget = breaker(2, Duration.ofMinutes(1));
+        final AtomicInteger attempts = new AtomicInteger();
+        final RetryHandler handler = new RetryHandler(HttpFileSystemProviderSettings.DEFAULT_RETRY_SETTINGS
+                .withBackoffPolicy((attempt, previous) -> Duration.ZERO), TEST_URI, budget);
+
+        final CircuitBreakerOpenException ex = Assert.expectThrows(CircuitBreakerOpenException.class,
+                () -> handler.runWithRetries(() -> {
+                    attempts.incrementAndGet();
+                    throw new SocketException("retryable");
+                }));
+        Assert.assertEquals(attempts.get(), 2);
+        Assert.assertTrue(ex.getCause() instanceof SocketException);
+        Assert.assertFalse(handler.isRetryable(ex));
+
+        Assert.assertThrows(CircuitBreakerOpenException.class, () -> handler.runWithRetries(attempts::incrementAndGet));
+        final CompletionException async = Assert.expectThrows(CompletionException.class,
+                () -> handler.runWithRetriesAsync(() -> CompletableFuture.completedFuture(1)).join());
+        Assert.assertTrue(async.getCause() instanceof CircuitBreakerOpenException);
+        Assert.assertEquals(attempts.get(), 2);
+    }
+
+    @Test
+    public void testReadsFromAnOpenStreamIgnoreTheCircuit() throws IOException {
+        final RetryBudget budget = breaker(1, Duration.ofMinutes(1));
+        budget.onRetryableFailure();
+        Assert.assertTrue(budget.isCircuitOpen());
+        final RetryHandler handler = new RetryHandler(HttpFileSystemProviderSettings.DEFAULT_RETRY_SETTINGS,
+                TEST_URI, budget);
+
+        // the bytes which are already arriving are read, and don't close the circuit
+        Assert.assertEquals(handler.tryOnceThenWithRetries(() -> 1, () -> 2), Integer.valueOf(1));
+        Assert.assertTrue(budget.isCircuitOpen());
+        Assert.assertEquals(budget.getRejectedRequests(), 0);
+
+        // reopening the stream sends a request, which is rejected
+        Assert.assertThrows(CircuitBreakerOpenException.class, () -> handler.tryOnceThenWithRetries(
+                () -> {
+                    throw new SocketException("retryable");
+                }, () -> 2));
+        Assert.assertEquals(budget.getRejectedRequests(), 1);
+    }
+}
@@ -12,7 +12,10 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
@@ -192,4 +195,78 @@ public class RetryHandlerUnitTest {
     }
 
 
-}
\ No newline at end of file
+    @DataProvider
+    public static Object[][] getBackoffPolicies() {
+        final Duration base = Duration.ofMillis(10);
+        final Duration cap = Duration.ofMillis(100);
+        return new Object[][]{
+                {BackoffPolicy.Jitter.NONE, base, cap},
+                {BackoffPolicy.Jitter.FULL, base, cap},
+                {BackoffPolicy.Jitter.DECORRELATED, base, cap},
+        };
+    }
+
+    @Test(dataProvider = "getBackoffPolicies")
+    public void testExponentialBackoffStaysWithinBounds(BackoffPolicy.Jitter jitter, Duration base, Duration cap) {
+        final BackoffPolicy policy = new BackoffPolicy.Exponential(base, cap, jitter);
+        Duration previous = Duration.ZERO;
+        for (int attempt = 1; attempt < 100; attempt++) {
+            final Duration delay = policy.getDelay(attempt, previous);
+            Assert.assertFalse(delay.isNegative(), delay.toString());
+            Assert.assertTrue(delay.compareTo(cap) <= 0, delay.toString());
+            if (jitter != BackoffPolicy.Jitter.FULL) {
+                Assert.assertTrue(delay.compareTo(base) >= 0, delay.toString());
+            }
+            previous = delay;
+        }
+    }
+
+    @Test
+    public void testExponentialBackoffWithoutJitter() {
+        final BackoffPolicy policy = new BackoffPolicy.Exponential(Duration.ofMillis(1), Duration.ofMillis(10),
+                BackoffPolicy.Jitter.NONE);
+        Assert.assertEquals(policy.getDelay(1, Duration.ZERO), Duration.ofMillis(2));
+        Assert.assertEquals(policy.getDelay(3, Duration.ZERO), Duration.ofMillis(8));
+        Assert.assertEquals(policy.getDelay(4, Duration.ZERO), Duration.ofMillis(10));
+        Assert.assertEquals(policy.getDelay(Integer.MAX_VALUE, Duration.ZERO), Duration.ofMillis(10));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testExponentialBackoffCapMustNotBeLessThanBase() {
+        new BackoffPolicy.Exponential(Duration.ofSeconds(2), Duration.ofSeconds(1), BackoffPolicy.Jitter.NONE);
+    }
+
+    @Test
+    public void testBackoffPolicyIsUsed() throws IOException {
+        final List<Integer> attempts = new ArrayList<>();
+        final RetryHandler handler = new RetryHandler(HttpFileSystemProviderSettings.DEFAULT_RETRY_SETTINGS
+                .withBackoffPolicy((attempt, previous) -> {
+                    attempts.add(attempt);
+                    return Duration.ZERO;
+                }), URI.create("http://example.com"));
+        final AtomicInteger count = new AtomicInteger(0);
+        Assert.assertEquals(handler.runWithRetries(() -> {
+            if (count.incrementAndGet() < 3) {
+                throw new SocketException("I'm retryable");
+            }
+            return count.get();
+        }), 3);
+        Assert.assertEquals(attempts, List.of(1, 2));
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() {
+        final RetryHandler handler = new RetryHandler(HttpFileSystemProviderSettings.DEFAULT_RETRY_SETTINGS
+                .withBackoffPolicy((attempt, previous) -> Duration.ofMillis(5)), URI.create("http://example.com"));
+        Assert.assertEquals(handler.getDelay(1, Duration.ZERO,
+                new IOException(new UnexpectedHttpResponseException(503, "busy", Duration.ofSeconds(3)))),
+                Duration.ofSeconds(3));
+        // a shorter Retry-After doesn't shorten the backoff
+        Assert.assertEquals(handler.getDelay(1, Duration.ZERO,
+                new UnexpectedHttpResponseException(503, "busy", Duration.ZERO)), Duration.ofMillis(5));
+        Assert.assertEquals(handler.getDelay(1, Duration.ZERO, new UnexpectedHttpResponseException(503, "busy")),
+                Duration.ofMillis(5));
+        Assert.assertEquals(handler.getDelay(1, Duration.ZERO,
+                new UnexpectedHttpResponseException(503, "busy", Duration.ofDays(1))), RetryHandler.MAX_RETRY_AFTER);
+    }
+}
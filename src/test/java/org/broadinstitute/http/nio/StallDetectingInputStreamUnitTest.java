@@ -0,0 +1,114 @@
+package org.broadinstitute.http.nio;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+public class StallDetectingInputStreamUnitTest extends BaseTest {
+
+    // a stream which never sends anything, and ends when it is closed like the body of a response
+    private static final class SilentInputStream extends InputStream {
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public int read() throws IOException {
+            try {
+                closed.await();
+            } catch (final InterruptedException e) {
+                throw new IOException(e);
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    // a stream which sends a byte every few milliseconds
+    private static final class TrickleInputStream extends InputStream {
+        private volatile boolean closed = false;
+
+        @Override
+        public int read() throws IOException {
+            try {
+                Thread.sleep(20);
+            } catch (final InterruptedException e) {
+                throw new IOException(e);
+            }
+            return closed ? -1 : 'a';
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = read();
+            if (read == -1) {
+                return -1;
+            }
+            b[off] = (byte) read;
+            return 1;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testInactiveStreamIsClosed() throws IOException {
+        final StallDetectingInputStream in = new StallDetectingInputStream(new SilentInputStream(),
+                new HttpFileSystemProviderSettings.StallSettings(Duration.ofMillis(100), 0, Duration.ofSeconds(1)),
+                "test");
+        Assert.assertThrows(SocketTimeoutException.class, in::read);
+        Assert.assertTrue(in.isStalled());
+        // the stream stays failed
+        Assert.assertThrows(SocketTimeoutException.class, () -> in.read(new byte[10]));
+        in.close();
+    }
+
+    @Test
+    public void testSlowStreamIsClosed() throws IOException {
+        final StallDetectingInputStream in = new StallDetectingInputStream(new TrickleInputStream(),
+                new HttpFileSystemProviderSettings.StallSettings(Duration.ZERO, 1000, Duration.ofMillis(200)),
+                "test");
+        final byte[] buffer = new byte[10];
+        final SocketTimeoutException ex = Assert.expectThrows(SocketTimeoutException.class, () -> {
+            while (true) {
+                in.read(buffer);
+            }
+        });
+        Assert.assertTrue(ex.getMessage().contains("bytes/s"), ex.getMessage());
+        in.close();
+    }
+
+    @Test
+    public void testSlowReaderIsNotAStall() throws Exception {
+        final byte[] data = new byte[100];
+        try (final StallDetectingInputStream in = new StallDetectingInputStream(new ByteArrayInputStream(data),
+                new HttpFileSystemProviderSettings.StallSettings(Duration.ofMillis(50), 1000, Duration.ofMillis(50)),
+                "test")) {
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(in.read(new byte[10]), 10);
+                // the reader is busy, not waiting for the stream
+                Thread.sleep(60);
+            }
+            Assert.assertFalse(in.isStalled());
+            Assert.assertEquals(in.readAllBytes().length, 50);
+            Assert.assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDisabledSettingsAreRejected() {
+        new StallDetectingInputStream(new ByteArrayInputStream(new byte[0]),
+                HttpFileSystemProviderSettings.DEFAULT_STALL_SETTINGS, "test");
+    }
+}
@@ -0,0 +1,98 @@
+package org.broadinstitute.http.nio;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class StripedDownloadUnitTest extends BaseTest {
+
+    private static final byte[] DATA = new byte[105];
+    static {
+        for (int i = 0; i < DATA.length; i++) {
+            DATA[i] = (byte) i;
+        }
+    }
+
+    private static CompletableFuture<byte[]> stripe(long start, int stripeSize) {
+        final int from = (int) Math.min(start, DATA.length);
+        final int to = (int) Math.min(start + stripeSize, DATA.length);
+        return CompletableFuture.completedFuture(Arrays.copyOfRange(DATA, from, to));
+    }
+
+    @DataProvider
+    public Object[][] stripeLayouts() {
+        return new Object[][] {
+                // stripe size, stripe count, buffer size, start
+                {10, 3, 7, 0},
+                {10, 3, 100, 0},
+                {7, 1, 3, 5},
+                {105, 2, 50, 0},
+                {5, 4, 1, 104}
+        };
+    }
+
+    @Test(dataProvider = "stripeLayouts")
+    public void testReadsTheWholeFileInOrder(int stripeSize, int stripeCount, int bufferSize, int start) throws IOException {
+        final StripedDownload download = new StripedDownload(
+                new HttpFileSystemProviderSettings.StripeSettings(stripeCount, stripeSize, (long) stripeSize * stripeCount),
+                start, s -> stripe(s, stripeSize));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteBuffer buf = ByteBuffer.allocate(bufferSize);
+        int read;
+        while ((read = download.read(buf)) != -1) {
+            out.write(buf.array(), 0, read);
+            buf.clear();
+        }
+        Assert.assertEquals(out.toByteArray(), Arrays.copyOfRange(DATA, start, DATA.length));
+        Assert.assertEquals(download.read(buf), -1);
+    }
+
+    @Test
+    public void testStripesInFlightAreBoundedByTheBufferedBytes() throws IOException {
+        final List<Long> requested = new ArrayList<>();
+        final StripedDownload download = new StripedDownload(
+                new HttpFileSystemProviderSettings.StripeSettings(8, 10, 30),
+                0, s -> {
+                    requested.add(s);
+                    return stripe(s, 10);
+                });
+        Assert.assertEquals(requested, List.of(0L, 10L, 20L));
+        // consuming one stripe requests the next one
+        Assert.assertEquals(download.read(ByteBuffer.allocate(5)), 5);
+        Assert.assertEquals(requested, List.of(0L, 10L, 20L, 30L));
+    }
+
+    @Test
+    public void testReturnsAvailableBytesInsteadOfWaiting() throws IOException {
+        final CompletableFuture<byte[]> slow = new CompletableFuture<>();
+        final StripedDownload download = new StripedDownload(
+                new HttpFileSystemProviderSettings.StripeSettings(2, 10, 20),
+                0, s -> s == 0 ? stripe(s, 10) : slow);
+        Assert.assertEquals(download.read(ByteBuffer.allocate(15)), 10);
+        download.close();
+        Assert.assertTrue(slow.isCancelled());
+    }
+
+    @Test
+    public void testFailedStripeThrows() throws IOException {
+        final StripedDownload download = new StripedDownload(
+                new HttpFileSystemProviderSettings.StripeSettings(2, 10, 20),
+                0, s -> s == 0 ? stripe(s, 10) : CompletableFuture.failedFuture(new IOException("failed")));
+        // the bytes of the first stripe are returned before failing
+        Assert.assertEquals(download.read(ByteBuffer.allocate(15)), 10);
+        Assert.assertThrows(IOException.class, () -> download.read(ByteBuffer.allocate(15)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBufferMustHoldAStripe() {
+        new HttpFileSystemProviderSettings.StripeSettings(2, 10, 5);
+    }
+}